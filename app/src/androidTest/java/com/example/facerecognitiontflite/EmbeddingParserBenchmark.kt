@@ -0,0 +1,80 @@
+package com.example.facerecognitiontflite
+
+import android.os.SystemClock
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.example.facerecognitiontflite.mobilefacenet.MobileFaceNet
+import org.json.JSONArray
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.ByteArrayInputStream
+import java.util.*
+
+/**
+ * Parse time of .json base data bundles, EmbeddingParser against the previous org.json + StringBuilder
+ * parser of MyUtil.parseJSON, run on the device and read the results in logcat (tag EmbeddingParserBenchmark)
+ * The bundles repeat the persons of the bundled 69001535-wfo.json asset.
+ */
+@RunWith(AndroidJUnit4::class)
+class EmbeddingParserBenchmark {
+    private val TAG = "EmbeddingParserBenchmark"
+    private val WARMUP = 2
+    private val RUNS = 5
+
+    @Test
+    fun parseTimeVersusBundleSize() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        val person = context.assets.open("69001535-wfo.json").use { it.readBytes() }.toString(Charsets.UTF_8)
+
+        for (persons in intArrayOf(10, 100, 1000)) {
+            val bundle = (0 until persons).joinToString(",", "[", "]") {
+                person.replaceFirst("{", "{\"nik\": \"$it\", ")
+            }.toByteArray(Charsets.UTF_8)
+
+            repeat(WARMUP) { legacyParse(bundle) }
+            var start = SystemClock.elapsedRealtimeNanos()
+            repeat(RUNS) { legacyParse(bundle) }
+            val legacy = (SystemClock.elapsedRealtimeNanos() - start) / 1e6 / RUNS
+
+            val parser = EmbeddingParser(MobileFaceNet.EMBEDDING_SIZE)
+            repeat(WARMUP) { parser.parse(ByteArrayInputStream(bundle)) }
+            start = SystemClock.elapsedRealtimeNanos()
+            repeat(RUNS) { parser.parse(ByteArrayInputStream(bundle), persons * 3) }
+            val streaming = (SystemClock.elapsedRealtimeNanos() - start) / 1e6 / RUNS
+
+            Log.i(TAG, String.format(Locale.US, "persons=%d bytes=%d org.json=%.1f ms EmbeddingParser=%.1f ms (%.1fx)",
+                persons, bundle.size, legacy, streaming, legacy / streaming))
+        }
+    }
+
+    /**
+     * Same algorithm as the previous MyUtil.parseJSON, for every person of the bundle (without the log)
+     */
+    private fun legacyParse(bundle: ByteArray): List<FloatArray> {
+        val embeddings = ArrayList<FloatArray>()
+        val persons = JSONArray(String(bundle, Charsets.UTF_8))
+        for (p in 0 until persons.length()) {
+            val str_embeddings = persons.getJSONObject(p).getJSONArray("embedding")
+            for (i in 0 until str_embeddings.length()) {
+                val embedding = FloatArray(MobileFaceNet.EMBEDDING_SIZE)
+                var embedding_counter = 0
+                val str_embedding = str_embeddings.get(i).toString().substring(1)
+                var j = 0
+                while (j < str_embedding.length) {
+                    val num = StringBuilder()
+                    while (str_embedding[j] != '|') {
+                        num.append(str_embedding[j])
+                        j += 1
+                        if (j >= str_embedding.length) break
+                    }
+                    j += 1
+                    embedding[embedding_counter] = num.toString().toFloat()
+                    embedding_counter += 1
+                }
+                embeddings.add(embedding)
+            }
+        }
+        return embeddings
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.facerecognitiontflite.faceantispoof
+
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.os.SystemClock
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.example.facerecognitiontflite.MyUtil
+import com.example.facerecognitiontflite.mtcnn.MTCNN
+import org.junit.Assume
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+import java.util.*
+
+/**
+ * Cascaded anti-spoofing against the full 256x256 pass on a labelled image folder, run on the device
+ * and read the results in logcat (tag FaceAntiSpoofingCascadeBenchmark)
+ * Push the images first : adb push live spoof /sdcard/Android/data/com.example.facerecognitiontflite/files/antispoof/
+ * Every image is cropped with MTCNN like MainActivity2 (upright and detected again), images without a face are skipped.
+ */
+@RunWith(AndroidJUnit4::class)
+class FaceAntiSpoofingCascadeBenchmark {
+    private val TAG = "FaceAntiSpoofingCascadeBenchmark"
+    private val WARMUP = 1
+    private val RUNS = 3
+    private val SIZES = intArrayOf(128, 96)
+    private val BANDS = floatArrayOf(0.05f, 0.1f, 0.2f)
+
+    private class Confusion {
+        var liveAccepted = 0
+        var liveRejected = 0
+        var spoofAccepted = 0
+        var spoofRejected = 0
+
+        fun add(spoof: Boolean, score: Float) {
+            val rejected = score > FaceAntiSpoofing.THRESHOLD
+            if (spoof) { if (rejected) spoofRejected++ else spoofAccepted++ }
+            else { if (rejected) liveRejected++ else liveAccepted++ }
+        }
+
+        override fun toString() = String.format(Locale.US,
+            "live: accepted=%d rejected=%d, spoof: accepted=%d rejected=%d, accuracy=%.4f",
+            liveAccepted, liveRejected, spoofAccepted, spoofRejected,
+            (liveAccepted + spoofRejected).toDouble() / (liveAccepted + liveRejected + spoofAccepted + spoofRejected))
+    }
+
+    @Test
+    fun cascadeVersusFullPass() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        val root = context.getExternalFilesDir("antispoof")
+        val live = faces(File(root, "live"))
+        val spoof = faces(File(root, "spoof"))
+        Assume.assumeTrue("no labelled images in $root", live.isNotEmpty() || spoof.isNotEmpty())
+        val labelled = live.map { false to it } + spoof.map { true to it }
+        val faceAntiSpoofing = FaceAntiSpoofing(context.assets)
+
+        // Full pass only
+        val full = Confusion()
+        labelled.forEach { (isSpoof, face) -> full.add(isSpoof, faceAntiSpoofing.antiSpoofing(face)) }
+        Log.i(TAG, String.format(Locale.US, "full %.2f ms/face %s", timePerFace(faceAntiSpoofing, labelled), full))
+
+        for (size in SIZES) {
+            faceAntiSpoofing.setCascade(size, 0f, 0f)
+
+            // Pre-screen alone, band 0
+            val prescreen = Confusion()
+            labelled.forEach { (isSpoof, face) -> prescreen.add(isSpoof, faceAntiSpoofing.antiSpoofing(face, size)) }
+            Log.i(TAG, String.format(Locale.US, "prescreen=%d %.2f ms/face %s",
+                size, timePerFace(faceAntiSpoofing, labelled), prescreen))
+
+            for (band in BANDS) {
+                faceAntiSpoofing.setCascade(size, band, band)
+                val cascade = Confusion()
+                var disagreements = 0
+                var fullRuns = 0
+                labelled.forEach { (isSpoof, face) ->
+                    val score = faceAntiSpoofing.antiSpoofing(face)
+                    cascade.add(isSpoof, score)
+                    // The cascade runs the full pass when the pre-screen score is in the band
+                    val prescreenScore = faceAntiSpoofing.antiSpoofing(face, size)
+                    if (prescreenScore >= FaceAntiSpoofing.THRESHOLD - band && prescreenScore <= FaceAntiSpoofing.THRESHOLD + band) fullRuns++
+                    val reference = faceAntiSpoofing.antiSpoofing(face, FaceAntiSpoofing.INPUT_IMAGE_SIZE)
+                    if ((score > FaceAntiSpoofing.THRESHOLD) != (reference > FaceAntiSpoofing.THRESHOLD)) disagreements++
+                }
+                Log.i(TAG, String.format(Locale.US,
+                    "cascade=%d band=%.2f %.2f ms/face full passes saved=%.1f%% decisions changed=%d %s",
+                    size, band, timePerFace(faceAntiSpoofing, labelled),
+                    100.0 * (labelled.size - fullRuns) / labelled.size, disagreements, cascade))
+            }
+        }
+        faceAntiSpoofing.setCascade(0, 0f, 0f)
+    }
+
+    private fun timePerFace(faceAntiSpoofing: FaceAntiSpoofing, labelled: List<Pair<Boolean, Bitmap>>): Double {
+        repeat(WARMUP) { labelled.forEach { faceAntiSpoofing.antiSpoofing(it.second) } }
+        val start = SystemClock.elapsedRealtimeNanos()
+        repeat(RUNS) { labelled.forEach { faceAntiSpoofing.antiSpoofing(it.second) } }
+        return (SystemClock.elapsedRealtimeNanos() - start) / 1e6 / RUNS / labelled.size
+    }
+
+    private fun faces(dir: File): List<Bitmap> {
+        val files = dir.listFiles() ?: return emptyList()
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        val mtcnn = MTCNN(context.assets)
+        return files.sortedBy { it.name }.mapNotNull { file ->
+            BitmapFactory.decodeFile(file.path)?.let { MyUtil.alignFace(mtcnn, it, true)?.crop }
+        }
+    }
+}
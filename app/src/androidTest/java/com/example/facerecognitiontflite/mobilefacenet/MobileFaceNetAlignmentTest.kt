@@ -0,0 +1,77 @@
+package com.example.facerecognitiontflite.mobilefacenet
+
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.example.facerecognitiontflite.MyUtil
+import com.example.facerecognitiontflite.mtcnn.MTCNN
+import org.json.JSONObject
+import org.junit.Assert
+import org.junit.Assume
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.tensorflow.lite.Interpreter
+import java.io.File
+import java.util.*
+
+/**
+ * The default CROP preprocessing gives the embeddings the bundled base data was enrolled with, run on the device
+ * Push pictures of the enrolled person first : adb push 69001535 /sdcard/Android/data/com.example.facerecognitiontflite/files/faces/
+ * Every picture is embedded through MyUtil.alignFace + generateEmbedding(AlignedFace) and through the enrollment
+ * preprocessing (createScaledBitmap of the square crop, MyUtil.normalizeImage) on a separate interpreter.
+ */
+@RunWith(AndroidJUnit4::class)
+class MobileFaceNetAlignmentTest {
+    private val TAG = "MobileFaceNetAlignmentTest"
+    private val PERSON = "69001535"
+    private val PARITY = 0.05f              // cosine distance between the two preprocessings
+    private val WFH_THRESHOLD = 0.3f        // MainActivity2.loadBaseData
+
+    @Test
+    fun cropKeepsSamePersonUnderThreshold() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        val dir = File(context.getExternalFilesDir("faces"), PERSON)
+        val files = dir.listFiles()?.sortedBy { it.name }.orEmpty()
+        Assume.assumeTrue("no pictures of $PERSON in $dir", files.isNotEmpty())
+
+        val mtcnn = MTCNN(context.assets)
+        mtcnn.setThreshold(0.6f)
+        val mobileFaceNet = MobileFaceNet(context.assets)
+        Assert.assertEquals(MobileFaceNet.Alignment.CROP, mobileFaceNet.alignment)
+        val enrollment = Interpreter(MyUtil.loadModelFile(context.assets, MobileFaceNet.MODEL_FILE))
+        val base = baseData(context.assets.open("$PERSON-wfh.json").bufferedReader().use { it.readText() })
+
+        var faces = 0
+        for (file in files) {
+            val bitmap = BitmapFactory.decodeFile(file.path) ?: continue
+            val face = MyUtil.alignFace(mtcnn, bitmap, true) ?: continue
+            faces++
+            val embedding = mobileFaceNet.generateEmbedding(face)
+
+            val input = arrayOf(MyUtil.normalizeImage(Bitmap.createScaledBitmap(
+                face.crop, MobileFaceNet.INPUT_IMAGE_SIZE, MobileFaceNet.INPUT_IMAGE_SIZE, true)))
+            val expected = Array(1) { FloatArray(MobileFaceNet.EMBEDDING_SIZE) }
+            enrollment.run(input, expected)
+
+            val parity = mobileFaceNet.cosineDistance(arrayOf(embedding, expected[0]))
+            val distance = base.map { mobileFaceNet.cosineDistance(arrayOf(embedding, it)) }.min() ?: 1f
+            Log.i(TAG, String.format(Locale.US, "%s parity=%.4f distance=%.4f", file.name, parity, distance))
+            Assert.assertTrue("${file.name} parity $parity", parity < PARITY)
+            Assert.assertTrue("${file.name} distance $distance", distance <= WFH_THRESHOLD)
+        }
+        enrollment.close()
+        Assume.assumeTrue("no face detected in $dir", faces > 0)
+    }
+
+    /**
+     * Embeddings of a base data file, every embedding is a "|"-separated string
+     */
+    private fun baseData(json: String): List<FloatArray> {
+        val embeddings = JSONObject(json).getJSONArray("embedding")
+        return (0 until embeddings.length()).map { i ->
+            embeddings.getString(i).substring(1).split("|").map { it.toFloat() }.toFloatArray()
+        }
+    }
+}
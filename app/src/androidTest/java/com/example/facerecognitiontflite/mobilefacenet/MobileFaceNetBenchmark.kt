@@ -0,0 +1,52 @@
+package com.example.facerecognitiontflite.mobilefacenet
+
+import android.graphics.Bitmap
+import android.os.SystemClock
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.*
+
+/**
+ * MobileFaceNet embedding time per face, run on the device and read the results in logcat (tag MobileFaceNetBenchmark)
+ * Use the fastest batch size with MobileFaceNet.setMaxBatchSize
+ */
+@RunWith(AndroidJUnit4::class)
+class MobileFaceNetBenchmark {
+    private val TAG = "MobileFaceNetBenchmark"
+    private val FACE_SIZE = 160
+    private val FACES = 32
+    private val WARMUP = 2
+    private val RUNS = 5
+
+    @Test
+    fun embeddingTimeVersusBatchSize() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        val mobileFaceNet = MobileFaceNet(context.assets)
+        val faces = (0 until FACES).map { noiseBitmap(it.toLong()) }
+
+        // One interpreter run per face
+        repeat(WARMUP) { faces.forEach { mobileFaceNet.generateEmbedding(it) } }
+        var start = SystemClock.elapsedRealtimeNanos()
+        repeat(RUNS) { faces.forEach { mobileFaceNet.generateEmbedding(it) } }
+        Log.i(TAG, String.format(Locale.US, "generateEmbedding=%.2f ms/face",
+            (SystemClock.elapsedRealtimeNanos() - start) / 1e6 / RUNS / FACES))
+
+        for (batch in intArrayOf(1, 2, 4, 8, 16, 32)) {
+            mobileFaceNet.setMaxBatchSize(batch)
+            repeat(WARMUP) { mobileFaceNet.generateEmbeddings(faces) }
+            start = SystemClock.elapsedRealtimeNanos()
+            repeat(RUNS) { mobileFaceNet.generateEmbeddings(faces) }
+            Log.i(TAG, String.format(Locale.US, "batch=%d generateEmbeddings=%.2f ms/face",
+                batch, (SystemClock.elapsedRealtimeNanos() - start) / 1e6 / RUNS / FACES))
+        }
+    }
+
+    private fun noiseBitmap(seed: Long): Bitmap {
+        val random = Random(seed)
+        val pixels = IntArray(FACE_SIZE * FACE_SIZE) { 0xFF000000.toInt() or random.nextInt(0x1000000) }
+        return Bitmap.createBitmap(pixels, FACE_SIZE, FACE_SIZE, Bitmap.Config.ARGB_8888)
+    }
+}
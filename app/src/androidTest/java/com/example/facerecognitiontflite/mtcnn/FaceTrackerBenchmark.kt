@@ -0,0 +1,76 @@
+package com.example.facerecognitiontflite.mtcnn
+
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.os.SystemClock
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.Assume
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+import java.util.*
+
+/**
+ * FaceTracker.track against detectFaces on every frame, run on the device and read the results in logcat
+ * (tag FaceTrackerBenchmark)
+ * Push a picture with a face first : adb push face.jpg /sdcard/Android/data/com.example.facerecognitiontflite/files/faces/
+ * The stream is a 640x480 window panning diagonally over the picture by one pixel per frame.
+ */
+@RunWith(AndroidJUnit4::class)
+class FaceTrackerBenchmark {
+    private val TAG = "FaceTrackerBenchmark"
+    private val WIDTH = 640
+    private val HEIGHT = 480
+    private val PAN = 40
+    private val MIN_FACE_SIZE = WIDTH / 5
+    private val WARMUP = 3
+    private val FRAMES = 60
+
+    @Test
+    fun trackVersusDetectEveryFrame() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        val dir = context.getExternalFilesDir("faces")
+        val picture = dir?.walkTopDown()?.filter { it.isFile }?.sortedBy { it.path }
+            ?.mapNotNull { BitmapFactory.decodeFile(it.path) }?.firstOrNull()
+        Assume.assumeTrue("no picture in $dir", picture != null)
+
+        val mtcnn = MTCNN(context.assets)
+        val frames = stream(picture!!)
+        repeat(WARMUP) { mtcnn.detectFaces(frames[0], MIN_FACE_SIZE) }
+
+        var detected = 0
+        var start = SystemClock.elapsedRealtimeNanos()
+        for (frame in frames) detected += mtcnn.detectFaces(frame, MIN_FACE_SIZE).size
+        val detectMs = (SystemClock.elapsedRealtimeNanos() - start) / 1e6 / FRAMES
+        Log.i(TAG, String.format(Locale.US, "detectFaces=%.2f ms/frame faces=%d", detectMs, detected))
+
+        for (interval in intArrayOf(5, 10, 30)) {
+            val tracker = FaceTracker(mtcnn)
+            tracker.setKeyframeInterval(interval)
+            var tracked = 0
+            val ids = HashSet<Int>()
+            start = SystemClock.elapsedRealtimeNanos()
+            for (frame in frames) {
+                val boxes = tracker.track(frame, MIN_FACE_SIZE)
+                tracked += boxes.size
+                boxes.forEach { ids.add(it.trackId) }
+            }
+            val trackMs = (SystemClock.elapsedRealtimeNanos() - start) / 1e6 / FRAMES
+            Log.i(TAG, String.format(Locale.US, "keyframeInterval=%d track=%.2f ms/frame (x%.2f) faces=%d trackIds=%d",
+                interval, trackMs, detectMs / trackMs, tracked, ids.size))
+        }
+    }
+
+    /**
+     * FRAMES windows of the picture scaled to (WIDTH + PAN) x (HEIGHT + PAN), moving back and forth
+     */
+    private fun stream(picture: Bitmap): List<Bitmap> {
+        val scaled = Bitmap.createScaledBitmap(picture, WIDTH + PAN, HEIGHT + PAN, true)
+        return (0 until FRAMES).map {
+            val offset = PAN - Math.abs(it % (2 * PAN) - PAN)
+            Bitmap.createBitmap(scaled, offset, offset, WIDTH, HEIGHT)
+        }
+    }
+}
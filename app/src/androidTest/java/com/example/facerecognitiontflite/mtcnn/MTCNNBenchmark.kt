@@ -0,0 +1,53 @@
+package com.example.facerecognitiontflite.mtcnn
+
+import android.graphics.Bitmap
+import android.os.SystemClock
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.*
+
+/**
+ * MTCNN detection wall time, run on the device and read the results in logcat (tag MTCNNBenchmark)
+ */
+@RunWith(AndroidJUnit4::class)
+class MTCNNBenchmark {
+    private val TAG = "MTCNNBenchmark"
+    private val WIDTH = 640
+    private val HEIGHT = 480
+    private val MIN_FACE_SIZE = 20
+    private val WARMUP = 3
+    private val RUNS = 20
+
+    @Test
+    fun pyramidWallTimeVersusCores() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        val mtcnn = MTCNN(context.assets)
+        val bitmap = noiseBitmap()
+        val cores = Runtime.getRuntime().availableProcessors()
+
+        for (workers in 1..cores) {
+            val threadsPerInterpreter = Math.max(1, cores / workers)
+            mtcnn.setPyramidParallelism(workers, threadsPerInterpreter)
+            val ms = time(mtcnn, bitmap)
+            Log.i(TAG, String.format(Locale.US, "workers=%d threads/interpreter=%d detectFaces=%.2f ms",
+                workers, threadsPerInterpreter, ms))
+        }
+        mtcnn.setPyramidParallelism(1, 1)
+    }
+
+    private fun time(mtcnn: MTCNN, bitmap: Bitmap): Double {
+        repeat(WARMUP) { mtcnn.detectFaces(bitmap, MIN_FACE_SIZE) }
+        val start = SystemClock.elapsedRealtimeNanos()
+        repeat(RUNS) { mtcnn.detectFaces(bitmap, MIN_FACE_SIZE) }
+        return (SystemClock.elapsedRealtimeNanos() - start) / 1e6 / RUNS
+    }
+
+    private fun noiseBitmap(): Bitmap {
+        val random = Random(42)
+        val pixels = IntArray(WIDTH * HEIGHT) { 0xFF000000.toInt() or random.nextInt(0x1000000) }
+        return Bitmap.createBitmap(pixels, WIDTH, HEIGHT, Bitmap.Config.ARGB_8888)
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.facerecognitiontflite;
+
+import android.graphics.Bitmap;
+
+import com.example.facerecognitiontflite.mtcnn.Box;
+import com.example.facerecognitiontflite.mtcnn.YuvFrame;
+
+/**
+ * Detected face ready for anti spoofing and embedding
+ * The landmarks refer to frame, or to yuv for a camera frame (frame is null then),
+ * crop is the square face crop of that image
+ */
+public class AlignedFace {
+    public final Bitmap frame;
+    public final YuvFrame yuv;
+    public final Box box;
+    public final Bitmap crop;
+
+    public AlignedFace(Bitmap frame, Box box, Bitmap crop) {
+        this(frame, null, box, crop);
+    }
+
+    public AlignedFace(YuvFrame yuv, Box box, Bitmap crop) {
+        this(null, yuv, box, crop);
+    }
+
+    private AlignedFace(Bitmap frame, YuvFrame yuv, Box box, Bitmap crop) {
+        this.frame = frame;
+        this.yuv = yuv;
+        this.box = box;
+        this.crop = crop;
+    }
+}
@@ -0,0 +1,405 @@
+package com.example.facerecognitiontflite;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streaming parser of the .json base data
+ * A file holds one person {"embedding": ["|f|f|...", ...], ...} or a bundle of persons
+ * [{"nik": "...", "embedding": [...]}, ...]. The bytes are read straight from the stream and the
+ * floats of every embedding string are written directly into one flat template matrix, without
+ * building a JSON tree or any per-number string. Keys other than "nik" and "embedding" are skipped.
+ * Malformed input throws a MalformedException with the byte offset of the error.
+ */
+public class EmbeddingParser {
+    private static final int BUFFER_SIZE = 8192;
+
+    // Exact powers of ten in double precision
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final int dimension;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private InputStream input;
+    private int position;
+    private int limit;
+    private long consumed;      // bytes of the stream before buffer[0]
+    private Result result;
+
+    /**
+     * Error of the input, offset is the byte offset in the stream
+     */
+    public static class MalformedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public final long offset;
+
+        MalformedException(String message, long offset) {
+            super(message + " at offset " + offset);
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Templates of the parsed persons, the templates of person p are the rows [first[p], first[p] + count[p])
+     */
+    public static class Result {
+        public final int dimension;
+        public int personCount;
+        public String[] niks;           // null when the person has no "nik" key
+        public int[] first;
+        public int[] count;
+        public int templateCount;
+        public float[] templates;       // templateCount rows of dimension floats
+
+        Result(int dimension, int capacity) {
+            this.dimension = dimension;
+            niks = new String[4];
+            first = new int[4];
+            count = new int[4];
+            templates = new float[Math.max(1, capacity) * dimension];
+        }
+
+        /**
+         * Person holding copies of the templates of person p
+         */
+        public Person person(int p) {
+            Person person = new Person();
+            for (int t = first[p]; t < first[p] + count[p]; t++) {
+                person.addEmbedding(Arrays.copyOfRange(templates, t * dimension, (t + 1) * dimension));
+            }
+            return person;
+        }
+    }
+
+    /**
+     * @param dimension : embedding size, every embedding string must hold exactly dimension floats
+     */
+    public EmbeddingParser(int dimension) {
+        this.dimension = dimension;
+    }
+
+    /**
+     * Parse a stream, it is read to the end but not closed
+     * @param input : .json base data
+     * @throws MalformedException when the input is not valid base data
+     */
+    public Result parse(InputStream input) throws IOException {
+        return parse(input, 16);
+    }
+
+    /**
+     * Parse a stream, it is read to the end but not closed
+     * @param input : .json base data
+     * @param capacity : expected number of templates, the matrix grows when there are more
+     * @throws MalformedException when the input is not valid base data
+     */
+    public Result parse(InputStream input, int capacity) throws IOException {
+        this.input = input;
+        position = 0;
+        limit = 0;
+        consumed = 0;
+        result = new Result(dimension, capacity);
+        try {
+            int c = skipWhitespace();
+            if (c == '[') {
+                position++;
+                if (skipWhitespace() == ']') {
+                    position++;
+                } else {
+                    while (true) {
+                        parsePerson();
+                        if (!nextElement(']')) break;
+                    }
+                }
+            } else {
+                parsePerson();
+            }
+            if (skipWhitespace() != -1) {
+                throw error("Unexpected content after the base data");
+            }
+            return result;
+        } finally {
+            this.input = null;
+        }
+    }
+
+    private void parsePerson() throws IOException {
+        expect('{');
+        Result r = result;
+        int p = r.personCount;
+        if (p == r.first.length) {
+            r.niks = Arrays.copyOf(r.niks, p * 2);
+            r.first = Arrays.copyOf(r.first, p * 2);
+            r.count = Arrays.copyOf(r.count, p * 2);
+        }
+        r.first[p] = r.templateCount;
+        r.personCount++;
+        if (skipWhitespace() == '}') {
+            position++;
+            return;
+        }
+        while (true) {
+            String key = parseString();
+            expect(':');
+            if (key.equals("embedding")) {
+                parseEmbeddings(p);
+            } else if (key.equals("nik")) {
+                r.niks[p] = skipWhitespace() == '"' ? parseString() : parseLiteral();
+            } else {
+                skipValue();
+            }
+            if (!nextElement('}')) break;
+        }
+    }
+
+    private void parseEmbeddings(int p) throws IOException {
+        expect('[');
+        if (skipWhitespace() == ']') {
+            position++;
+            return;
+        }
+        while (true) {
+            parseEmbedding();
+            result.count[p]++;
+            if (!nextElement(']')) break;
+        }
+    }
+
+    /**
+     * One "|f|f|..." string, its floats are written into the next row of the matrix
+     */
+    private void parseEmbedding() throws IOException {
+        Result r = result;
+        if ((r.templateCount + 1) * dimension > r.templates.length) {
+            r.templates = Arrays.copyOf(r.templates, Math.max(r.templates.length * 2, (r.templateCount + 1) * dimension));
+        }
+        skipWhitespace();
+        long start = offset();
+        expect('"');
+        float[] templates = r.templates;
+        int row = r.templateCount * dimension;
+        int d = 0;
+        while (true) {
+            int c = peek();
+            if (c == '"') {
+                position++;
+                break;
+            }
+            if (c == '|') {
+                position++;
+                continue;
+            }
+            if (c == -1) throw error("Unterminated embedding");
+            if (d == dimension) throw error("More than " + dimension + " values in the embedding");
+            templates[row + d++] = parseFloat();
+        }
+        if (d != dimension) {
+            throw new MalformedException(d + " values instead of " + dimension + " in the embedding", start);
+        }
+        r.templateCount++;
+    }
+
+    /**
+     * Decimal float : [sign] digits [. digits] [(e|E) [sign] digits]
+     */
+    private float parseFloat() throws IOException {
+        long start = offset();
+        boolean negative = false;
+        int c = peek();
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            position++;
+        }
+        long mantissa = 0;
+        int digits = 0;         // significant digits kept in mantissa
+        int scale = 0;          // decimal exponent of the mantissa
+        boolean anyDigit = false;
+        boolean fraction = false;
+        while (true) {
+            c = peek();
+            if (c >= '0' && c <= '9') {
+                anyDigit = true;
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0) digits++;
+                    if (fraction) scale--;
+                } else if (!fraction) {
+                    scale++;    // digits beyond the precision of the mantissa
+                }
+                position++;
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+                position++;
+            } else {
+                break;
+            }
+        }
+        if (!anyDigit) throw new MalformedException("Malformed number", start);
+        if (c == 'e' || c == 'E') {
+            position++;
+            boolean negativeExponent = false;
+            c = peek();
+            if (c == '-' || c == '+') {
+                negativeExponent = c == '-';
+                position++;
+            }
+            int exponent = 0;
+            boolean exponentDigit = false;
+            while ((c = peek()) >= '0' && c <= '9') {
+                exponent = Math.min(exponent * 10 + (c - '0'), 1000);
+                exponentDigit = true;
+                position++;
+            }
+            if (!exponentDigit) throw new MalformedException("Malformed number", start);
+            scale += negativeExponent ? -exponent : exponent;
+        }
+        if (c != '|' && c != '"') {
+            throw error("Unexpected character '" + (char) c + "' in number");
+        }
+
+        // Exact when the mantissa and the power of ten are exact doubles, the usual case for printed floats
+        double value;
+        if (mantissa == 0) {
+            value = 0;
+        } else if (mantissa < (1L << 53) && scale >= -22 && scale <= 22) {
+            value = scale < 0 ? mantissa / POWERS_OF_TEN[-scale] : mantissa * POWERS_OF_TEN[scale];
+        } else {
+            value = Double.parseDouble(mantissa + "E" + scale);
+        }
+        return (float) (negative ? -value : value);
+    }
+
+    private String parseString() throws IOException {
+        expect('"');
+        StringBuilder builder = new StringBuilder();
+        byte[] bytes = new byte[16];
+        int length = 0;
+        while (true) {
+            int c = next();
+            if (c == -1) throw error("Unterminated string");
+            if (c == '"') break;
+            if (c == '\\') {
+                c = next();
+                if (c == -1) throw error("Unterminated string");
+                if (c == 'u') {
+                    builder.append(new String(bytes, 0, length, StandardCharsets.UTF_8));
+                    length = 0;
+                    int code = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int h = Character.digit(next(), 16);
+                        if (h < 0) throw error("Malformed \\u escape");
+                        code = code * 16 + h;
+                    }
+                    builder.append((char) code);
+                    continue;
+                }
+                c = c == 'n' ? '\n' : c == 't' ? '\t' : c == 'r' ? '\r' : c == 'b' ? '\b' : c == 'f' ? '\f' : c;
+            }
+            if (length == bytes.length) bytes = Arrays.copyOf(bytes, length * 2);
+            bytes[length++] = (byte) c;
+        }
+        return builder.append(new String(bytes, 0, length, StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * Number, true, false or null
+     */
+    private String parseLiteral() throws IOException {
+        StringBuilder builder = new StringBuilder();
+        int c;
+        while ((c = peek()) != -1 && (Character.isLetterOrDigit(c) || c == '-' || c == '+' || c == '.')) {
+            builder.append((char) c);
+            position++;
+        }
+        if (builder.length() == 0) throw error("Expected a value");
+        return builder.toString();
+    }
+
+    private void skipValue() throws IOException {
+        int c = skipWhitespace();
+        if (c == '"') {
+            parseString();
+        } else if (c == '{' || c == '[') {
+            int close = c == '{' ? '}' : ']';
+            position++;
+            if (skipWhitespace() == close) {
+                position++;
+                return;
+            }
+            while (true) {
+                if (close == '}') {
+                    parseString();
+                    expect(':');
+                }
+                skipValue();
+                if (!nextElement(close)) break;
+            }
+        } else {
+            parseLiteral();
+        }
+    }
+
+    /**
+     * After an element : true on ',', false on close
+     */
+    private boolean nextElement(int close) throws IOException {
+        int c = skipWhitespace();
+        if (c == ',') {
+            position++;
+            return true;
+        }
+        if (c == close) {
+            position++;
+            return false;
+        }
+        throw error("Expected ',' or '" + (char) close + "'");
+    }
+
+    private void expect(int expected) throws IOException {
+        if (skipWhitespace() != expected) {
+            throw error("Expected '" + (char) expected + "'");
+        }
+        position++;
+    }
+
+    private int skipWhitespace() throws IOException {
+        int c;
+        while ((c = peek()) == ' ' || c == '\n' || c == '\r' || c == '\t') {
+            position++;
+        }
+        return c;
+    }
+
+    private int next() throws IOException {
+        int c = peek();
+        if (c != -1) position++;
+        return c;
+    }
+
+    private int peek() throws IOException {
+        if (position == limit) {
+            consumed += limit;
+            position = 0;
+            limit = Math.max(0, input.read(buffer, 0, buffer.length));
+            if (limit == 0) return -1;
+        }
+        return buffer[position] & 0xFF;
+    }
+
+    private long offset() {
+        return consumed + position;
+    }
+
+    private MalformedException error(String message) {
+        return new MalformedException(message, offset());
+    }
+}
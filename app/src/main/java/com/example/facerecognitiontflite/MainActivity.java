@@ -1,8 +1,9 @@
 package com.example.facerecognitiontflite;
 
-import android.content.SharedPreferences;
 import android.graphics.Bitmap;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.TextView;
@@ -12,9 +13,13 @@ import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.example.facerecognitiontflite.faceantispoof.FaceAntiSpoofing;
+import com.example.facerecognitiontflite.gallery.Gallery;
+import com.example.facerecognitiontflite.gallery.GalleryFile;
 import com.example.facerecognitiontflite.livenessfirebase.LivenessApp;
 import com.example.facerecognitiontflite.mobilefacenet.MobileFaceNet;
 import com.example.facerecognitiontflite.mtcnn.MTCNN;
+import com.example.facerecognitiontflite.verification.ConcurrentVerifier;
+import com.example.facerecognitiontflite.verification.VerificationPipeline;
 import java.io.IOException;
 
 import id.privy.livenessfirebasesdk.entity.LivenessItem;
@@ -24,6 +29,8 @@ public class MainActivity extends AppCompatActivity {
     private MTCNN mtcnn;
     private MobileFaceNet mobileFaceNet;
     private FaceAntiSpoofing faceantispoofing;
+    private ConcurrentVerifier verifier;
+    private VerificationPipeline<Bitmap> pipeline;
 
     private Button buttonStart;
     private Button buttonWFO;
@@ -31,14 +38,15 @@ public class MainActivity extends AppCompatActivity {
     private ImageView imageView;
     private TextView resultTextView;
 
-    private Person person;
+    private volatile GalleryFile baseData;
+    private final Gallery.Match match = new Gallery.Match();
 
     private final int MIN_BASE_DATA = 3;
     private final int TIMEOUT = 3;
     private int err_verified_counter = 0;
 
-    private SharedPreferences mPref;
-    private boolean is_wfo = true;
+    private volatile boolean is_wfo = true;
+    private volatile float mtcnnThreshold = 0.55f;
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
@@ -84,7 +92,7 @@ public class MainActivity extends AppCompatActivity {
                 public void success(LivenessItem livenessItem) {
                     Bitmap bitmap = livenessItem.getImageBitmap();
                     imageView.setImageBitmap(bitmap);
-                    compareFace(person, bitmap);
+                    compareFace(baseData, bitmap);
                 }
 
                 @Override
@@ -93,6 +101,13 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (pipeline != null) pipeline.shutdown();
+        if (verifier != null) verifier.shutdown();
+    }
+
     private void initContent(){
         buttonStart = findViewById(R.id.btn_start);
         buttonWFH = findViewById(R.id.btn_wfh);
@@ -102,66 +117,62 @@ public class MainActivity extends AppCompatActivity {
     }
 
     /**
-     * Compare Face between the face in bitmap image and Person data
-     * @param person : Person data contains the face-embedding for respective user
+     * Compare Face between the face in bitmap image and the base data
+     * Detection, anti spoofing, embedding and matching run on the pipeline worker, the outcome is shown
+     * on the main thread. A new picture cancels the comparison in flight.
+     * @param baseData : gallery file contains the face-embedding for respective user
      * @param bitmap : Input bitmap image containing face image
      */
-    private void compareFace(Person person, Bitmap bitmap){
-        // Doing face detection and face crop
-        Bitmap bitmapCrop = MyUtil.cropFace(mtcnn, bitmap);
-        if (bitmapCrop == null){
-            Toast.makeText(this, "No face detected", Toast.LENGTH_SHORT).show();
-            return;
-        }
-
+    private void compareFace(GalleryFile baseData, Bitmap bitmap){
         // Check if the person data is less than the minimum number of base data
-        if (person.getEmbeddingSize() < MIN_BASE_DATA){
+        if (baseData == null || baseData.templateCount(0) < MIN_BASE_DATA){
             Toast.makeText(this, "Face hasn't been registered offline", Toast.LENGTH_SHORT).show();
             // TODO : Add online face verification
             return;
         }
 
-        float[] distances = new float[person.getEmbeddingSize()];
-        float[][] embeddings = new float[2][MobileFaceNet.EMBEDDING_SIZE];
-
-        // Doing Face Anti Spoofing only for WFH
-        if (!is_wfo) {
-            float score = faceantispoofing.antiSpoofing(bitmapCrop);
-            if (score > FaceAntiSpoofing.THRESHOLD) {
-                Toast.makeText(this, "Face is spoof", Toast.LENGTH_SHORT).show();
-                return;
+        pipeline.submit(bitmap, new VerificationPipeline.Callback() {
+            @Override
+            public void onResult(VerificationPipeline.Result result) {
+                showResult(result);
             }
-        }
-
-        // Generate face embedding from given bitmap of cropped face using MobileFaceNet model
-        embeddings[0] = mobileFaceNet.generateEmbedding(bitmapCrop);
-
-        // Calculate cosine distance
-        for (int i = 0; i<person.getEmbeddingSize(); i++){
-            embeddings[1] = person.getEmbedding(i);
-            distances[i] = mobileFaceNet.cosineDistance(embeddings);
-        }
-
-        // Find the minimum cosine distance
-        float min_distance = distances[MyUtil.findMinimumDistance(distances)];
 
-        // If distance < Threshold : True
-        if (min_distance < MobileFaceNet.THRESHOLD){
-            // TODO : Add action when face is Verified
-            Toast.makeText(this, "Face is verified", Toast.LENGTH_SHORT).show();
-            resultTextView.setTextColor(getResources().getColor(android.R.color.holo_green_light));
-            resultTextView.setText("Verified");
-        } else {
-            err_verified_counter += 1;
-            if (err_verified_counter > TIMEOUT) {
-                Toast.makeText(this, "Online face verification", Toast.LENGTH_SHORT).show();
-                // TODO : Add online face verification
-            }
-            else {
-                Toast.makeText(this, "Face is not verified", Toast.LENGTH_SHORT).show();
+            @Override
+            public void onError(Exception e) {
+                e.printStackTrace();
             }
-            resultTextView.setText("Not Verified");
-            resultTextView.setTextColor(getResources().getColor(android.R.color.holo_red_light));
+        });
+    }
+
+    /**
+     * Show the outcome of compareFace, on the main thread
+     * @param result : pipeline result
+     */
+    private void showResult(VerificationPipeline.Result result){
+        switch (result.status) {
+            case NO_FACE:
+                Toast.makeText(this, "No face detected", Toast.LENGTH_SHORT).show();
+                return;
+            case SPOOF:
+                Toast.makeText(this, "Face is spoof", Toast.LENGTH_SHORT).show();
+                return;
+            case VERIFIED:
+                // TODO : Add action when face is Verified
+                Toast.makeText(this, "Face is verified", Toast.LENGTH_SHORT).show();
+                resultTextView.setTextColor(getResources().getColor(android.R.color.holo_green_light));
+                resultTextView.setText("Verified");
+                return;
+            default:
+                err_verified_counter += 1;
+                if (err_verified_counter > TIMEOUT) {
+                    Toast.makeText(this, "Online face verification", Toast.LENGTH_SHORT).show();
+                    // TODO : Add online face verification
+                }
+                else {
+                    Toast.makeText(this, "Face is not verified", Toast.LENGTH_SHORT).show();
+                }
+                resultTextView.setText("Not Verified");
+                resultTextView.setTextColor(getResources().getColor(android.R.color.holo_red_light));
         }
     }
 
@@ -175,6 +186,19 @@ public class MainActivity extends AppCompatActivity {
             mtcnn = new MTCNN(getAssets());
             mobileFaceNet = new MobileFaceNet(getAssets());
             faceantispoofing = new FaceAntiSpoofing(getAssets());
+            verifier = new ConcurrentVerifier(faceantispoofing, mobileFaceNet);
+            // Stages read baseData and is_wfo when they run, the results are posted to the main thread
+            // The models are only touched on the pipeline worker, the MTCNN threshold of the mode included
+            Handler mainHandler = new Handler(Looper.getMainLooper());
+            pipeline = new VerificationPipeline<>(
+                    bitmap -> {
+                        mtcnn.setThreshold(mtcnnThreshold);
+                        return MyUtil.alignFace(mtcnn, bitmap, mobileFaceNet.getAlignment() == MobileFaceNet.Alignment.CROP);
+                    },
+                    face -> verifier.verify(face, !is_wfo),
+                    embedding -> baseData.match(0, embedding, match).distance,
+                    mainHandler::post);
+            pipeline.setOnCancel(verifier::cancel);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -185,20 +209,33 @@ public class MainActivity extends AppCompatActivity {
      * @param nik
      */
     private void loadBaseData(String nik){
-        mPref = getPreferences(MODE_PRIVATE);
+        String key;
+        String filename;
+        // Drop the comparison in flight, it ran with the thresholds and base data of the other mode
+        pipeline.cancel();
         if (is_wfo){
-            // Adjust the MTCNN threshold
-            mtcnn.setThreshold(0.55f);
+            // Adjust the MTCNN threshold, applied by the pipeline worker before its next detection
+            mtcnnThreshold = 0.55f;
             // Adjust the Mobile Facenet threshold
-            mobileFaceNet.setThreshold(0.4f);
+            pipeline.setThreshold(0.4f);
             // Load WFO base data
-            person = MyUtil.loadSharedPreference(this, mPref, "Person-WFO", nik + "-wfo.json");
+            key = "Person-WFO";
+            filename = nik + "-wfo.json";
         } else {
-            // Adjust the MTCNN threshold
-            mtcnn.setThreshold(0.6f);
+            // Adjust the MTCNN threshold, applied by the pipeline worker before its next detection
+            mtcnnThreshold = 0.6f;
             // Adjust the Mobile Facenet threshold
-            mobileFaceNet.setThreshold(0.3f);// Load WFH base data
-            person = MyUtil.loadSharedPreference(this, mPref, "Person-WFH", nik + "-wfh.json");
+            pipeline.setThreshold(0.3f);
+            // Load WFH base data
+            key = "Person-WFH";
+            filename = nik + "-wfh.json";
+        }
+        // Map the binary base data, converted from the .json file on the first load
+        try {
+            baseData = MyUtil.loadGalleryFile(this, key, filename);
+        } catch (IOException e) {
+            e.printStackTrace();
+            baseData = null;
         }
     }
 
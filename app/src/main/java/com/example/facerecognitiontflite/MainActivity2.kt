@@ -1,9 +1,6 @@
 package com.example.facerecognitiontflite
 
 import android.Manifest
-import android.content.SharedPreferences
-import android.graphics.Bitmap
-import android.graphics.BitmapFactory
 import android.os.Bundle
 import android.os.Handler
 import android.util.Log
@@ -12,9 +9,14 @@ import android.widget.Toast
 import androidx.appcompat.app.AppCompatActivity
 import androidx.lifecycle.Observer
 import com.example.facerecognitiontflite.faceantispoof.FaceAntiSpoofing
+import com.example.facerecognitiontflite.gallery.Gallery
+import com.example.facerecognitiontflite.gallery.GalleryFile
+import com.example.facerecognitiontflite.livenessfirebase.PreviewFrameProcessor
 import com.example.facerecognitiontflite.mobilefacenet.MobileFaceNet
 import com.example.facerecognitiontflite.mtcnn.MTCNN
-import com.google.android.gms.vision.CameraSource.PictureCallback
+import com.example.facerecognitiontflite.mtcnn.YuvFrame
+import com.example.facerecognitiontflite.verification.ConcurrentVerifier
+import com.example.facerecognitiontflite.verification.StreamingVerifier
 import id.privy.livenessfirebasesdk.common.*
 import id.privy.livenessfirebasesdk.event.LivenessEventProvider
 import id.privy.livenessfirebasesdk.vision.VisionDetectionProcessor
@@ -28,7 +30,8 @@ class MainActivity2 : AppCompatActivity(){
     private val motionInstructions = arrayOf("Lihat ke kiri", "Lihat ke kanan")
     private val MIN_BASE_DATA = 3
     private val TIMEOUT = 3
-    private var is_wfo = false
+    private val MAX_MISSED_FRAMES = 30
+    @Volatile private var is_wfo = false
 
     internal var graphicOverlay: GraphicOverlay? = null
     internal var preview: CameraSourcePreview? = null
@@ -36,16 +39,25 @@ class MainActivity2 : AppCompatActivity(){
     private var visionDetectionProcessor: VisionDetectionProcessor? = null
     private var cameraSource: CameraSource? = null
 
-    private lateinit var mPref: SharedPreferences
-    private lateinit var person: Person
+    @Volatile private var baseData: GalleryFile? = null
+    private val match = Gallery.Match()
+
+    // Preview frames are verified on the camera processing thread while streaming
+    private val stream = StreamingVerifier(8)
+    @Volatile private var streaming = false
+    private var missedFrames = 0
 
     private var err_verified_counter = 0
     private var success = false
     private var isDebug = false
 
+    // Log the stage timings and the score of every streamed frame in logcat
+    private var logging = false
+
     private lateinit var faceantispoofing: FaceAntiSpoofing
     private lateinit var mobileFaceNet: MobileFaceNet
     private lateinit var mtcnn: MTCNN
+    private lateinit var verifier: ConcurrentVerifier
 
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
@@ -115,20 +127,24 @@ class MainActivity2 : AppCompatActivity(){
         }
     }
 
-    @Suppress("DEPRECATION")
     private fun onDefaultEvent() {
-        if (success) {
+        if (success && !streaming) {
+            // Check if the person data is less than the minimum number of base data, once before streaming
+            val baseData = baseData
+            if (baseData == null || baseData.templateCount(0) < MIN_BASE_DATA) {
+                Toast.makeText(this, "Face hasn't been registered offline", Toast.LENGTH_SHORT).show()
+                // TODO : Add online face verification
+                restartLiveness()
+                return
+            }
             progress_bar.visibility = View.VISIBLE
             Handler().postDelayed({
-                cameraSource?.takePicture(null, PictureCallback {
-                    val verified = processBitmap(true, BitmapFactory.decodeByteArray(it, 0, it.size))
-                    if (verified) {
-                        // TODO : Add action when face is Verified
-                        restartLiveness()
-                    } else {
-                        restartLiveness()
-                    }
-                })
+                // Start a new stream, the next preview frames go to processFrame
+                if (success && !streaming) {
+                    stream.reset()
+                    missedFrames = 0
+                    streaming = true
+                }
             }, 600)
         }
     }
@@ -140,6 +156,7 @@ class MainActivity2 : AppCompatActivity(){
 
     override fun onPause() {
         super.onPause()
+        streaming = false
         preview?.stop()
         LivenessEventProvider.getEventLiveData().postValue(null)
     }
@@ -147,6 +164,7 @@ class MainActivity2 : AppCompatActivity(){
     override fun onDestroy() {
         super.onDestroy()
         cameraSource?.release()
+        if (this::verifier.isInitialized) verifier.shutdown()
     }
 
     private fun createCameraSource() {
@@ -175,7 +193,8 @@ class MainActivity2 : AppCompatActivity(){
             isDebugMode(isDebug)
         }
 
-        cameraSource?.setMachineLearningFrameProcessor(visionDetectionProcessor)
+        // The liveness processor sees every frame, processFrame only while streaming
+        cameraSource?.setMachineLearningFrameProcessor(PreviewFrameProcessor(visionDetectionProcessor!!, this::processFrame))
     }
 
     private fun startCameraSource() {
@@ -193,90 +212,75 @@ class MainActivity2 : AppCompatActivity(){
         }
     }
 
-    fun processBitmap(success: Boolean, bitmap: Bitmap?) : Boolean {
-        if (bitmap != null) {
-            if (success) {
-                // Crop face using MTCNN
-                val bitmapCrop = MyUtil.cropFace(mtcnn,(BitmapUtils.processBitmap(bitmap)))
-                if (bitmapCrop == null) {
-                    Toast.makeText(this, "No face detected", Toast.LENGTH_SHORT).show()
-                    progress_bar.visibility = View.GONE
-                    return false
-                }
-                // Check if the person data is less than the minimum number of base data
-                if (person.embeddingSize < MIN_BASE_DATA) {
-                    Toast.makeText(this, "Face hasn't been registered offline", Toast.LENGTH_SHORT).show()
-                    // TODO : Add online face verification
-                    // return true if verified
-                    // return false if not verified
-                    progress_bar.visibility = View.GONE
-                    return false
-                }
-                // Doing Face Anti Spoofing only for WFH
-                if (!is_wfo) {
-                    val score: Float = faceantispoofing.antiSpoofing(bitmapCrop)
-                    if (score > FaceAntiSpoofing.THRESHOLD) {
-                        Toast.makeText(this, "Face is spoof", Toast.LENGTH_SHORT).show()
-                        progress_bar.visibility = View.GONE
-                        return false
-                    }
-                }
-                // Doing face verification using mobile facenet model
-                val verified = verify(bitmapCrop)
-                if (verified) {
+    /**
+     * Verification over the camera preview frames, without the JPEG round trip
+     * Runs on the camera processing thread. Every frame adds its spoof score and distance to the stream,
+     * the outcome is shown once the stream is confident instead of on a single picture.
+     * @param frame : upright NV21 preview frame, only valid during the call
+     */
+    private fun processFrame(frame: YuvFrame) {
+        if (!streaming) return
+        val baseData = baseData ?: return
+        // Detect face using MTCNN straight on the YUV frame, a frame without face is skipped
+        val face = MyUtil.alignFace(mtcnn, frame, redetect())
+        if (face == null) {
+            missedFrames += 1
+            if (missedFrames > MAX_MISSED_FRAMES) finishStream(null)
+            return
+        }
+        // Embedding and Face Anti Spoofing (only for WFH) of this frame, no embedding for a spoof frame
+        val result = verifier.verify(face, !is_wfo)
+        val spoofScore = if (is_wfo) Float.NaN else result.spoofScore
+        val distance = result.embedding?.let { baseData.match(0, it, match).distance } ?: Float.NaN
+        val decision = stream.add(spoofScore, distance)
+        if (logging) {
+            Log.d("VERIFY", String.format(Locale.US, "antiSpoof=%.1f ms embedding=%.1f ms total=%.1f ms overlap=%.1f ms",
+                result.antiSpoofNanos / 1e6, result.embeddingNanos / 1e6, result.totalNanos / 1e6, result.overlapNanos() / 1e6))
+            Log.d("STREAM", String.format(Locale.US, "frame=%d spoof=%.3f distance=%.3f decision=%s",
+                stream.frames(), spoofScore, distance, decision))
+        }
+        if (decision != StreamingVerifier.Decision.PENDING) {
+            finishStream(decision)
+        }
+    }
+
+    /**
+     * Stop streaming and show the outcome on the main thread
+     * @param decision : stream decision, null when no face was found
+     */
+    private fun finishStream(decision: StreamingVerifier.Decision?) {
+        streaming = false
+        runOnUiThread {
+            progress_bar.visibility = View.GONE
+            when (decision) {
+                null -> Toast.makeText(this, "No face detected", Toast.LENGTH_SHORT).show()
+                StreamingVerifier.Decision.SPOOF -> Toast.makeText(this, "Face is spoof", Toast.LENGTH_SHORT).show()
+                StreamingVerifier.Decision.VERIFIED -> {
                     Toast.makeText(this, "Face is verified", Toast.LENGTH_SHORT).show()
-                    progress_bar.visibility = View.GONE
-                    return true
-                } else {
+                    // TODO : Add action when face is Verified
+                }
+                else -> {
                     err_verified_counter += 1
                     if (err_verified_counter > TIMEOUT) {
                         Toast.makeText(this, "Online face verification", Toast.LENGTH_SHORT).show()
                         // TODO : Add online face verification
-                        // return true if verified
-                        // return false if not verified
-                        progress_bar.visibility = View.GONE
-                        return false
                     } else {
                         Toast.makeText(this, "Face is not verified", Toast.LENGTH_SHORT).show()
-                        progress_bar.visibility = View.GONE
-                        return false
                     }
                 }
             }
+            restartLiveness()
         }
-        return false
-    }
-
-    override fun onRequestPermissionsResult(requestCode: Int, permissions: Array<out String>, grantResults: IntArray) {
-        super.onRequestPermissionsResult(requestCode, permissions, grantResults)
-        createCameraSource()
     }
 
     /**
-     * Compare Face between the face in bitmap image and Person data
-     * @param person : Person data contains the face-embedding for respective user
-     * @param bitmap : Input bitmap image containing face image
+     * The embedding preprocessing of the base data needs the upright redetected crop
      */
-    private fun verify(bitmapCrop: Bitmap) : Boolean {
-        val distances = FloatArray(person.embeddingSize)
-        val embeddings = Array(2) { FloatArray(MobileFaceNet.EMBEDDING_SIZE) }
-
-        // Generate face embedding from given bitmap of cropped face using MobileFaceNet model
-        embeddings[0] = mobileFaceNet.generateEmbedding(bitmapCrop)
-
-        // Calculate cosine distance
-        for (i in 0 until person.embeddingSize) {
-            embeddings[1] = person.getEmbedding(i)
-            val distance = mobileFaceNet.cosineDistance(embeddings)
-            Log.d("DIST", distance.toString())
-            distances[i] = distance
-        }
-
-        // Find the minimum cosine distance
-        val min_distance = distances[MyUtil.findMinimumDistance(distances)]
+    private fun redetect() = mobileFaceNet.alignment == MobileFaceNet.Alignment.CROP
 
-        // If distance < Threshold : True
-        return min_distance <= MobileFaceNet.THRESHOLD
+    override fun onRequestPermissionsResult(requestCode: Int, permissions: Array<out String>, grantResults: IntArray) {
+        super.onRequestPermissionsResult(requestCode, permissions, grantResults)
+        createCameraSource()
     }
 
     /**
@@ -289,6 +293,7 @@ class MainActivity2 : AppCompatActivity(){
             mtcnn = MTCNN(getAssets())
             mobileFaceNet = MobileFaceNet(getAssets())
             faceantispoofing = FaceAntiSpoofing(getAssets())
+            verifier = ConcurrentVerifier(faceantispoofing, mobileFaceNet)
         } catch (e : IOException) {
             e.printStackTrace()
         }
@@ -299,20 +304,35 @@ class MainActivity2 : AppCompatActivity(){
      * @param nik
      */
     private fun loadBaseData(nik: String){
-        mPref = getPreferences(MODE_PRIVATE)
+        val key: String
+        val filename: String
+        val distanceThreshold: Float
         if (is_wfo){
             // Adjust the MTCNN threshold
             mtcnn.setThreshold(0.55f);
             // Adjust the Mobile Facenet threshold
-            mobileFaceNet.setThreshold(0.4f);
+            distanceThreshold = 0.4f
             // Load WFO base data
-            person = MyUtil.loadSharedPreference(this, mPref, "Person-WFO", nik + "-wfo.json");
+            key = "Person-WFO"
+            filename = nik + "-wfo.json"
         } else {
             // Adjust the MTCNN threshold
             mtcnn.setThreshold(0.6f);
             // Adjust the Mobile Facenet threshold
-            mobileFaceNet.setThreshold(0.3f);// Load WFH base data
-            person = MyUtil.loadSharedPreference(this, mPref, "Person-WFH", nik + "-wfh.json");
+            distanceThreshold = 0.3f
+            // Load WFH base data
+            key = "Person-WFH"
+            filename = nik + "-wfh.json"
+        }
+        // Start a new stream with the thresholds of the mode, before any frame is streamed
+        stream.setThresholds(FaceAntiSpoofing.THRESHOLD, distanceThreshold)
+        stream.reset()
+        // Map the binary base data, converted from the .json file on the first load
+        baseData = try {
+            MyUtil.loadGalleryFile(this, key, filename)
+        } catch (e : IOException) {
+            e.printStackTrace()
+            null
         }
     }
 }
\ No newline at end of file
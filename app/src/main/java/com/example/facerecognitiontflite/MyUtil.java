@@ -1,35 +1,32 @@
 package com.example.facerecognitiontflite;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
-import android.graphics.Matrix;
-import android.graphics.Point;
 import android.graphics.Rect;
 import android.util.Log;
 
+import com.example.facerecognitiontflite.gallery.GalleryFile;
 import com.example.facerecognitiontflite.mobilefacenet.MobileFaceNet;
 import com.example.facerecognitiontflite.mtcnn.Align;
 import com.example.facerecognitiontflite.mtcnn.Box;
 import com.example.facerecognitiontflite.mtcnn.MTCNN;
-import com.google.gson.Gson;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import com.example.facerecognitiontflite.mtcnn.YuvFrame;
 
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
 import java.util.Vector;
 
 public class MyUtil {
+    // Side of the region rotated upright around a face, relative to the face size
+    private static final float REDETECT_PADDING = 2.0f;
 
     /**
      * Load TFlite model file
@@ -75,81 +72,6 @@ public class MyUtil {
         return floatValues;
     }
 
-    /**
-     * Zoom picture
-     * @param bitmap
-     * @param scale
-     * @return
-     */
-    public static Bitmap bitmapResize(Bitmap bitmap, float scale) {
-        int width = bitmap.getWidth();
-        int height = bitmap.getHeight();
-        Matrix matrix = new Matrix();
-        matrix.postScale(scale, scale);
-        return Bitmap.createBitmap(
-                bitmap, 0, 0, width, height, matrix, true);
-    }
-
-    /**
-     * Image transpose
-     * @param in
-     * @return
-     */
-    public static float[][][] transposeImage(float[][][] in) {
-        int h = in.length;
-        int w = in[0].length;
-        int channel = in[0][0].length;
-        float[][][] out = new float[w][h][channel];
-        for (int i = 0; i < h; i++) {
-            for (int j = 0; j < w; j++) {
-                out[j][i] = in[i][j] ;
-            }
-        }
-        return out;
-    }
-
-    /**
-     * 4-dimensional image batch matrix width and height transposition
-     * @param in
-     * @return
-     */
-    public static float[][][][] transposeBatch(float[][][][] in) {
-        int batch = in.length;
-        int h = in[0].length;
-        int w = in[0][0].length;
-        int channel = in[0][0][0].length;
-        float[][][][] out = new float[batch][w][h][channel];
-        for (int i = 0; i < batch; i++) {
-            for (int j = 0; j < h; j++) {
-                for (int k = 0; k < w; k++) {
-                    out[i][k][j] = in[i][j][k] ;
-                }
-            }
-        }
-        return out;
-    }
-
-    /**
-     * Intercept the specified rectangular box in the box (cross-border processing),
-     * and resize to size*size, then store the returned data.
-     * @param bitmap
-     * @param box
-     * @param size
-     * return
-     */
-    public static float[][][] cropAndResize(Bitmap bitmap, Box box, int size) {
-        // crop and resize
-        Matrix matrix = new Matrix();
-        float scaleW = 1.0f * size / box.width();
-        float scaleH = 1.0f * size / box.height();
-        matrix.postScale(scaleW, scaleH);
-        Rect rect = box.transform2Rect();
-        Bitmap croped = Bitmap.createBitmap(
-                bitmap, rect.left, rect.top, box.width(), box.height(), matrix, true);
-
-        return normalizeImage(croped);
-    }
-
     /**
      * Cut out the face according to the size of rect
      * @param bitmap
@@ -187,30 +109,149 @@ public class MyUtil {
      * @return Bitmap of cropped faces
      */
     public static Bitmap cropFace(MTCNN mtcnn, Bitmap bitmap){
+        AlignedFace face = alignFace(mtcnn, bitmap, true);
+        return face == null ? null : face.crop;
+    }
+
+    /**
+     * Detect the largest face and keep its landmarks for alignment
+     * With redetect the padded region around the face is rotated upright from the eyes landmarks and the
+     * face detected again with the full cascade, crop is then the square crop the base data was enrolled
+     * from (MobileFaceNet.Alignment.CROP). Without redetect the face is detected once and MobileFaceNet
+     * aligns it from the landmarks (MobileFaceNet.Alignment.WARP).
+     * @param mtcnn : MTCNN Face Detector
+     * @param bitmap : Input bitmap image
+     * @param redetect : rotate the face region with the eyes landmarks and run the detection again
+     * @return detected face, null when no face is found
+     */
+    public static AlignedFace alignFace(MTCNN mtcnn, Bitmap bitmap, boolean redetect){
         if (bitmap == null){
             return null;
         }
 
-        // Face Alignment
-        Bitmap bitmapTemp = bitmap.copy(bitmap.getConfig(), false);
-        Vector<Box> boxes = mtcnn.detectFaces(bitmapTemp, bitmapTemp.getWidth() / 5);
-        if (boxes.size() == 0){
+        // Face Detection
+        int minFaceSize = bitmap.getWidth() / 5;
+        Box box = mtcnn.detectLargestFace(bitmap, minFaceSize);
+        if (box == null){
+            return null;
+        }
+        if (redetect){
+            Rect region = redetectRegion(box, bitmap.getWidth(), bitmap.getHeight());
+            return redetect(mtcnn, crop(bitmap, region), box, minFaceSize);
+        }
+        return new AlignedFace(bitmap, box, cropSquare(bitmap, box));
+    }
+
+    /**
+     * Detect the largest face of a camera frame
+     * The frame is never converted as a whole : without redetect the crop is the only part converted to a
+     * Bitmap and MobileFaceNet aligns the face from the landmarks, with redetect only the region rotated
+     * upright around the face is converted, as alignFace(MTCNN, Bitmap, true) does for the base data.
+     * @param mtcnn : MTCNN Face Detector
+     * @param frame : YUV camera frame with its rotation
+     * @param redetect : rotate the face region with the eyes landmarks and run the detection again
+     * @return detected face, null when no face is found
+     */
+    public static AlignedFace alignFace(MTCNN mtcnn, YuvFrame frame, boolean redetect){
+        if (frame == null){
             return null;
         }
-        Point[] landmark = boxes.get(MyUtil.findLargestFace(boxes)).landmark;
-        bitmapTemp = Align.face_align(bitmapTemp, landmark);
 
         // Face Detection
-        boxes = mtcnn.detectFaces(bitmapTemp, bitmapTemp.getWidth() / 5);
+        int minFaceSize = frame.getWidth() / 5;
+        Box box = mtcnn.detectLargestFace(frame, minFaceSize);
+        if (box == null){
+            return null;
+        }
+        if (redetect){
+            Rect region = redetectRegion(box, frame.getWidth(), frame.getHeight());
+            return redetect(mtcnn, toBitmap(frame, region), box, minFaceSize);
+        }
+
+        Box square = new Box();
+        System.arraycopy(box.box, 0, square.box, 0, 4);
+        square.toSquareShape();
+        square.limitSquare(frame.getWidth(), frame.getHeight());
+
+        Rect rect = square.transform2Rect();
+        // Same region as MyUtil.crop
+        int left = Math.max(0, rect.left);
+        int top = Math.max(0, rect.top);
+        Rect crop = new Rect(left, top, left + Math.abs(rect.right - rect.left), top + Math.abs(rect.bottom - rect.top));
+        return new AlignedFace(frame, box, toBitmap(frame, crop));
+    }
+
+    /**
+     * Region rotated upright around a face : a square of REDETECT_PADDING times the face size, limited
+     * to the image. It holds the square crop of the face at any eyes angle.
+     * @param box : face found by the first detection
+     * @param w : image width
+     * @param h : image height
+     * @return region in image coordinates
+     */
+    private static Rect redetectRegion(Box box, int w, int h){
+        int size = Math.round(Math.max(box.width(), box.height()) * REDETECT_PADDING);
+        int centerX = (box.left() + box.right()) / 2;
+        int centerY = (box.top() + box.bottom()) / 2;
+        int left = Math.max(0, centerX - size / 2);
+        int top = Math.max(0, centerY - size / 2);
+        return new Rect(left, top, Math.min(w, left + size), Math.min(h, top + size));
+    }
+
+    /**
+     * Face Alignment of the region, then detection on the upright region as the enrollment did
+     * The rotation angle only depends on the eyes, the landmarks do not need to be moved to the region.
+     * @param mtcnn : MTCNN Face Detector
+     * @param region : pixels of redetectRegion
+     * @param box : face found by the first detection
+     * @param minFaceSize : smallest face of the first detection, the same pyramid scales are used
+     * @return face detected in the upright region, null when it is lost
+     */
+    private static AlignedFace redetect(MTCNN mtcnn, Bitmap region, Box box, int minFaceSize){
+        Bitmap frame = Align.face_align(region, box.landmark);
+        Vector<Box> boxes = mtcnn.detectFaces(frame, minFaceSize);
         if (boxes.size() == 0){
             return null;
         }
-        Box box = boxes.get(MyUtil.findLargestFace(boxes));
-        box.toSquareShape();
-        box.limitSquare(bitmapTemp.getWidth(), bitmapTemp.getHeight());
+        Box face = boxes.get(findLargestFace(boxes));
+        return new AlignedFace(frame, face, cropSquare(frame, face));
+    }
 
-        Rect rect = box.transform2Rect();
-        return MyUtil.crop(bitmapTemp, rect);
+    /**
+     * Square crop of a face, limited to the image
+     * @param bitmap : image the face was detected in
+     * @param box : detected face
+     * @return Bitmap of the cropped face
+     */
+    private static Bitmap cropSquare(Bitmap bitmap, Box box){
+        Box square = new Box();
+        System.arraycopy(box.box, 0, square.box, 0, 4);
+        square.toSquareShape();
+        square.limitSquare(bitmap.getWidth(), bitmap.getHeight());
+        return crop(bitmap, square.transform2Rect());
+    }
+
+    /**
+     * Convert the whole upright camera frame to a Bitmap
+     * @param frame : YUV camera frame with its rotation
+     * @return ARGB bitmap of the upright frame
+     */
+    public static Bitmap toBitmap(YuvFrame frame){
+        return toBitmap(frame, new Rect(0, 0, frame.getWidth(), frame.getHeight()));
+    }
+
+    /**
+     * Convert a region of the upright camera frame to a Bitmap
+     * @param frame : YUV camera frame with its rotation
+     * @param rect : region in upright coordinates, inside the frame
+     * @return ARGB bitmap of the region
+     */
+    private static Bitmap toBitmap(YuvFrame frame, Rect rect){
+        int width = rect.right - rect.left;
+        int height = rect.bottom - rect.top;
+        int[] pixels = new int[width * height];
+        frame.convert(pixels, 0, width, rect.left, rect.top, rect.right, rect.bottom);
+        return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
     }
 
     /**
@@ -246,97 +287,73 @@ public class MyUtil {
     }
 
     /**
-     * Load Shared Preference
-     * @param key : whether the user is WFO or WFH (if WFO then use Person-WFO, else use Person-WFH)
+     * Load the base data as a memory-mapped gallery file
+     * The .json base data is converted once into the app files directory, the next loads only map the file
+     * @param key : whether the user is WFO or WFH (Person-WFO or Person-WFH), name of the gallery file
      * @param filename : .json file that contains the face-embedding for respective user
-     * @return Person data contains the face-embedding for respective user
-     * (if there's no base data then the return will be null)
+     * @return gallery file holding the user at person index 0 (without templates if there's no base data)
+     * @throws IOException when the .json base data is malformed, no gallery file is written then
      */
-    public static Person loadSharedPreference(Context context, SharedPreferences mPref, String key, String filename){
-        // Load the data if already saved in SharedPreference
-        Gson gson = new Gson();
-        String json = mPref.getString(key, "");
-        Person person = gson.fromJson(json, Person.class);
-
-        // Load the data from .json file if the person data is null then save it in Shared Preference
-        if (person == null && !filename.equals("")) {
-            person = parseJSON(context, filename);
-            saveSharedPreference(mPref, person, key);
+    public static GalleryFile loadGalleryFile(Context context, String key, String filename) throws IOException {
+        File file = new File(context.getFilesDir(), key + ".gal");
+        if (file.exists()) {
+            try {
+                return GalleryFile.open(file);
+            } catch (IOException e) {
+                // Corrupted or older format, convert it again
+                Log.w("GalleryFile", "Converting " + filename + " again : " + e.getMessage());
+            }
         }
-        if (person == null) person = new Person();
-        return person;
-    }
-
-    /**
-     * Save Shared Preference
-     * @param person : Person data contains the face-embedding for respective user
-     * @param key : whether the user is WFO or WFH (if WFO then use Person-WFO, else use Person-WFH)
-     */
-    public static void saveSharedPreference(SharedPreferences mPref, Person person, String key){
-        SharedPreferences.Editor prefsEditor = mPref.edit();
-        Gson gson = new Gson();
-        String json = gson.toJson(person);
-        prefsEditor.putString(key, json);
-        prefsEditor.apply();
+        convertBaseData(context, filename, file);
+        return GalleryFile.open(file);
     }
 
     /**
-     * Parse JSON file
+     * Convert .json base data to a gallery file (FLOAT32 encoding)
+     * A malformed or unreadable .json throws before anything is written, the gallery file is left as it was
      * @param filename : .json file that contains the face-embedding for respective user
-     * @return Person data contains the face-embedding for respective user
+     * @param file : gallery file, replaced atomically
      */
-    private static Person parseJSON(Context context, String filename){
-        try {
-            Person person = new Person();
-            String str_json = loadJSONFromAsset(context, filename);
-            if (str_json == null) return new Person();
-            JSONObject obj = new JSONObject(str_json);
-            JSONArray str_embeddings = obj.getJSONArray("embedding");
-
-            for (int i=0; i<str_embeddings.length(); i++){
-                float[] embedding = new float[MobileFaceNet.EMBEDDING_SIZE];
-                int embedding_counter = 0;
-                String str_embedding = str_embeddings.get(i).toString().substring(1);
+    public static void convertBaseData(Context context, String filename, File file) throws IOException {
+        Person person = filename.equals("") ? new Person() : parseJSON(context, filename);
+        GalleryFile.Writer writer = new GalleryFile.Writer(MobileFaceNet.EMBEDDING_SIZE, GalleryFile.FLOAT32);
+        writer.add(0, person);
 
-                int j = 0;
-                while(j<str_embedding.length()){
-                    StringBuilder num = new StringBuilder();
-                    while (str_embedding.charAt(j) != '|'){
-                        num.append(str_embedding.charAt(j));
-                        j += 1;
-                        if (j >= str_embedding.length()) break;
-                    }
-                    j += 1;
-                    embedding[embedding_counter] = (Float.parseFloat(num.toString()));
-                    embedding_counter += 1;
-                }
-                Log.d("EMB", Arrays.toString(embedding));
-                person.addEmbedding(embedding);
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            try (FileOutputStream output = new FileOutputStream(temp)) {
+                writer.write(output.getChannel());
             }
-            return person;
-        } catch (JSONException e) {
-            e.printStackTrace();
+            if (!temp.renameTo(file)) {
+                throw new IOException("Cannot write " + file);
+            }
+        } catch (IOException e) {
+            // Never leave a partial file behind
+            temp.delete();
+            throw e;
         }
-        return null;
     }
 
     /**
-     * Load JSON from Assets folder
+     * Parse JSON file
      * @param filename : .json file that contains the face-embedding for respective user
-     * @return String of JSON
+     * @return Person data contains the face-embedding for respective user (empty if the file doesn't exist)
+     * @throws IOException : EmbeddingParser.MalformedException if it is malformed, or if it cannot be read
      */
-    private static String loadJSONFromAsset(Context context, String filename){
-        String json = null;
+    private static Person parseJSON(Context context, String filename) throws IOException {
+        InputStream is;
+        try {
+            is = context.getAssets().open(filename);
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+            return new Person();
+        }
         try {
-            InputStream is = context.getAssets().open(filename);
-            int size = is.available();
-            byte[] buffer = new byte[size];
-            is.read(buffer);
+            EmbeddingParser parser = new EmbeddingParser(MobileFaceNet.EMBEDDING_SIZE);
+            EmbeddingParser.Result result = parser.parse(is);
+            return result.personCount == 0 ? new Person() : result.person(0);
+        } finally {
             is.close();
-            json = new String(buffer, StandardCharsets.UTF_8);
-        } catch (IOException ex) {
-            ex.printStackTrace();
         }
-        return json;
     }
 }
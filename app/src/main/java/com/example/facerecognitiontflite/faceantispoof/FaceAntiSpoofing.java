@@ -5,10 +5,15 @@ import android.graphics.Bitmap;
 import android.util.Log;
 
 import com.example.facerecognitiontflite.MyUtil;
+import com.example.facerecognitiontflite.mtcnn.PixelResampler;
+import com.example.facerecognitiontflite.mtcnn.TensorBuffer;
 
 import org.tensorflow.lite.Interpreter;
 
 import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -20,36 +25,167 @@ public class FaceAntiSpoofing {
 
     public static final int ROUTE_INDEX = 6; // Route index during training
 
-    private final Interpreter interpreter;
+    private static final float IMAGE_STD = 255;
+
+    private static final String TAG = "FaceAntiSpoofing";
+
+    private final MappedByteBuffer model;
+    private final Interpreter.Options options;
+    private final PixelResampler resampler = new PixelResampler();
+    private int[] pixels = new int[0];
+    private boolean logging = false;
+
+    // Full 256x256 pass, and the optional low-resolution pre-screen of the cascade
+    private final Pass full;
+    private Pass prescreen;
+    private float bandBelow;
+    private float bandAbove;
+
+    /**
+     * One interpreter with its input size
+     * Input [1][size][size][3] written in place, outputs and their indices resolved once, reused between calls
+     */
+    private class Pass {
+        final int size;
+        final Interpreter interpreter;
+        final TensorBuffer input = new TensorBuffer();
+        final Object[] inputs = new Object[1];
+        final float[][] clss_pred = new float[1][8];
+        final float[][] leaf_node_mask = new float[1][8];
+        final Map<Integer, Object> outputs = new HashMap<>();
+        final int[] scaledPixels;
+
+        Pass(int size) {
+            this.size = size;
+            interpreter = new Interpreter(model, options);
+            if (size != INPUT_IMAGE_SIZE) {
+                interpreter.resizeInput(0, new int[]{1, size, size, 3});
+                interpreter.allocateTensors();
+            }
+            outputs.put(interpreter.getOutputIndex("Identity"), clss_pred);
+            outputs.put(interpreter.getOutputIndex("Identity_1"), leaf_node_mask);
+            input.resize(size * size * 3);
+            scaledPixels = new int[size * size];
+        }
+
+        /**
+         * Score of the pixels read by readPixels
+         */
+        float run(int w, int h) {
+            // [1] Resize to size x size, bilinear at any scale as createScaledBitmap : THRESHOLD was tuned on it
+            int[] scaled = pixels;
+            if (w != size || h != size) {
+                resampler.resizeBilinear(pixels, w, h, scaledPixels, size, size);
+                scaled = scaledPixels;
+            }
+
+            // [2] Normalize to [0, 1] straight into the input, proposed testing (1, size, size, 3)
+            FloatBuffer floats = input.floats();
+            for (int i = 0, idx = 0; i < size * size; i++, idx += 3) {
+                int val = scaled[i];
+                floats.put(idx, ((val >> 16) & 0xFF) / IMAGE_STD);
+                floats.put(idx + 1, ((val >> 8) & 0xFF) / IMAGE_STD);
+                floats.put(idx + 2, (val & 0xFF) / IMAGE_STD);
+            }
+
+            // [3] Run
+            inputs[0] = input.buffer();
+            interpreter.runForMultipleInputsOutputs(inputs, outputs);
+
+            if (logging) {
+                Log.i(TAG, size + " " + Arrays.toString(clss_pred[0]));
+                Log.i(TAG, size + " " + Arrays.toString(leaf_node_mask[0]));
+            }
+            return leaf_score1(clss_pred, leaf_node_mask);
+        }
+    }
 
     public FaceAntiSpoofing(AssetManager assetManager) throws IOException {
-        Interpreter.Options options = new Interpreter.Options();
+        options = new Interpreter.Options();
         options.setNumThreads(4);
-        interpreter = new Interpreter(MyUtil.loadModelFile(assetManager, MODEL_FILE), options);
+        model = MyUtil.loadModelFile(assetManager, MODEL_FILE);
+        full = new Pass(INPUT_IMAGE_SIZE);
+    }
+
+    /**
+     * Log the model outputs of every call, disabled by default
+     * @param logging
+     */
+    public void setLogging(boolean logging) {
+        this.logging = logging;
+    }
+
+    /**
+     * Enable the cascade : antiSpoofing first scores a size x size downscale of the face with the same
+     * model, the full 256x256 pass only runs when that score is in [THRESHOLD - bandBelow, THRESHOLD + bandAbove]
+     * @param size : pre-screen input size, 0 or INPUT_IMAGE_SIZE disables the cascade
+     * @param bandBelow : uncertainty band under THRESHOLD
+     * @param bandAbove : uncertainty band over THRESHOLD
+     * @throws IllegalArgumentException when the model does not accept that input size
+     */
+    public void setCascade(int size, float bandBelow, float bandAbove) {
+        this.bandBelow = bandBelow;
+        this.bandAbove = bandAbove;
+        if (size <= 0 || size == INPUT_IMAGE_SIZE) {
+            closePrescreen();
+            return;
+        }
+        if (prescreen != null && prescreen.size == size) return;
+        closePrescreen();
+        try {
+            prescreen = new Pass(size);
+        } catch (IllegalStateException e) {
+            throw new IllegalArgumentException("Input size " + size + " not supported by " + MODEL_FILE, e);
+        }
     }
 
+    private void closePrescreen() {
+        if (prescreen != null) {
+            prescreen.interpreter.close();
+            prescreen = null;
+        }
+    }
+
+    /**
+     * Spoof score of a face, through the cascade when it is enabled
+     * Nothing is allocated once the pixel buffer fits the bitmap.
+     * @param bitmap : face crop
+     * @return score, > THRESHOLD is considered an attack
+     */
     public float antiSpoofing(Bitmap bitmap) {
-        // proposed testing (1, 256, 256, 3)
-        Bitmap bitmapScale = Bitmap.createScaledBitmap(bitmap, INPUT_IMAGE_SIZE, INPUT_IMAGE_SIZE, true);
-
-        float[][][] img = normalizeImage(bitmapScale);
-        float[][][][] input = new float[1][][][];
-        input[0] = img;
-        float[][] clss_pred = new float[1][8];
-        float[][] leaf_node_mask = new float[1][8];
-        Map<Integer, Object> outputs = new HashMap<>();
-        outputs.put(interpreter.getOutputIndex("Identity"), clss_pred);
-        outputs.put(interpreter.getOutputIndex("Identity_1"), leaf_node_mask);
-        interpreter.runForMultipleInputsOutputs(new Object[]{input}, outputs);
-
-        Log.i("FaceAntiSpoofing", "[" + clss_pred[0][0] + ", " + clss_pred[0][1] + ", "
-                + clss_pred[0][2] + ", " + clss_pred[0][3] + ", " + clss_pred[0][4] + ", "
-                + clss_pred[0][5] + ", " + clss_pred[0][6] + ", " + clss_pred[0][7] + "]");
-        Log.i("FaceAntiSpoofing", "[" + leaf_node_mask[0][0] + ", " + leaf_node_mask[0][1] + ", "
-                + leaf_node_mask[0][2] + ", " + leaf_node_mask[0][3] + ", " + leaf_node_mask[0][4] + ", "
-                + leaf_node_mask[0][5] + ", " + leaf_node_mask[0][6] + ", " + leaf_node_mask[0][7] + "]");
-
-        return leaf_score1(clss_pred, leaf_node_mask);
+        int w = bitmap.getWidth();
+        int h = bitmap.getHeight();
+        readPixels(bitmap, w, h);
+        if (prescreen != null) {
+            float score = prescreen.run(w, h);
+            if (score < THRESHOLD - bandBelow || score > THRESHOLD + bandAbove) {
+                return score;
+            }
+        }
+        return full.run(w, h);
+    }
+
+    /**
+     * Spoof score of a face at one resolution, without the cascade
+     * @param bitmap : face crop
+     * @param size : INPUT_IMAGE_SIZE, or the size of the cascade pre-screen
+     */
+    public float antiSpoofing(Bitmap bitmap, int size) {
+        Pass pass = size == INPUT_IMAGE_SIZE ? full : prescreen;
+        if (pass == null || pass.size != size) {
+            throw new IllegalArgumentException("No pass of size " + size + ", see setCascade");
+        }
+        int w = bitmap.getWidth();
+        int h = bitmap.getHeight();
+        readPixels(bitmap, w, h);
+        return pass.run(w, h);
+    }
+
+    private void readPixels(Bitmap bitmap, int w, int h) {
+        if (pixels.length < w * h) {
+            pixels = new int[w * h];
+        }
+        bitmap.getPixels(pixels, 0, w, 0, 0, w, h);
     }
 
     private float leaf_score1(float[][] clss_pred, float[][] leaf_node_mask) {
@@ -60,10 +196,6 @@ public class FaceAntiSpoofing {
         return score;
     }
 
-    private float leaf_score2(float[][] clss_pred) {
-        return clss_pred[0][ROUTE_INDEX];
-    }
-
 
     public static float[][][] normalizeImage(Bitmap bitmap) {
         int h = bitmap.getHeight();
@@ -0,0 +1,140 @@
+package com.example.facerecognitiontflite.gallery;
+
+import com.example.facerecognitiontflite.Person;
+
+import java.util.Arrays;
+
+/**
+ * Face templates of one person stored L2-normalized in one flat array
+ * The norms are computed once when a template is added, so the cosine distance to a probe is
+ * 1 - dot(probe, template) / |probe| and matching is a single pass over the array.
+ */
+public class Gallery {
+    private final int dimension;
+    private float[] templates;
+    private int size;
+
+    /**
+     * Best match of a probe, reused between calls
+     */
+    public static class Match {
+        public int index = -1;          // template index, -1 when the gallery is empty
+        public float distance = 1.0f;   // cosine distance in [0, 1]
+    }
+
+    public Gallery(int dimension) {
+        this(dimension, 16);
+    }
+
+    /**
+     * @param dimension : embedding size
+     * @param capacity : initial number of templates
+     */
+    public Gallery(int dimension, int capacity) {
+        this.dimension = dimension;
+        this.templates = new float[Math.max(1, capacity) * dimension];
+    }
+
+    /**
+     * Gallery holding every embedding of person
+     */
+    public static Gallery fromPerson(Person person, int dimension) {
+        Gallery gallery = new Gallery(dimension, person.getEmbeddingSize());
+        for (int i = 0; i < person.getEmbeddingSize(); i++) {
+            gallery.add(person.getEmbedding(i));
+        }
+        return gallery;
+    }
+
+    /**
+     * Add a template, it is copied and L2-normalized
+     * @param embedding : face embedding
+     */
+    public void add(float[] embedding) {
+        if (embedding.length != dimension) {
+            throw new IllegalArgumentException("Embedding size " + embedding.length + " != " + dimension);
+        }
+        if ((size + 1) * dimension > templates.length) {
+            templates = Arrays.copyOf(templates, templates.length * 2);
+        }
+        normalize(embedding, templates, size * dimension);
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    /**
+     * Find the template closest to the probe, nothing is allocated
+     * @param probe : face embedding, not necessarily normalized
+     * @param result : receives the index and the cosine distance of the best template
+     * @return result
+     */
+    public Match match(float[] probe, Match result) {
+        result.index = -1;
+        result.distance = 1.0f;
+        float norm = (float) Math.sqrt(dot(probe, 0, probe, 0, dimension));
+        if (size == 0 || norm == 0) return result;
+
+        float best = -Float.MAX_VALUE;
+        for (int t = 0, offset = 0; t < size; t++, offset += dimension) {
+            float similarity = dot(probe, 0, templates, offset, dimension);
+            if (similarity > best) {
+                best = similarity;
+                result.index = t;
+            }
+        }
+        result.distance = Math.min(1, Math.max(0, 1 - best / norm));
+        return result;
+    }
+
+    /**
+     * Normalized templates, template t at [t * dimension, (t + 1) * dimension), valid until the next add
+     */
+    float[] data() {
+        return templates;
+    }
+
+    /**
+     * Cosine distance between the probe and template t
+     */
+    public float distance(float[] probe, int t) {
+        float norm = (float) Math.sqrt(dot(probe, 0, probe, 0, dimension));
+        if (norm == 0) return 1.0f;
+        return Math.min(1, Math.max(0, 1 - dot(probe, 0, templates, t * dimension, dimension) / norm));
+    }
+
+    /**
+     * L2-normalize embedding into dst[offset .. offset + embedding.length), a zero embedding stays zero
+     */
+    static void normalize(float[] embedding, float[] dst, int offset) {
+        float norm = (float) Math.sqrt(dot(embedding, 0, embedding, 0, embedding.length));
+        float scale = norm > 0 ? 1.0f / norm : 0.0f;
+        for (int d = 0; d < embedding.length; d++) {
+            dst[offset + d] = embedding[d] * scale;
+        }
+    }
+
+    /**
+     * Dot product unrolled by 4 with independent accumulators
+     */
+    static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+            s1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+            s2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+            s3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+}
@@ -0,0 +1,444 @@
+package com.example.facerecognitiontflite.gallery;
+
+import android.content.res.AssetManager;
+
+import com.example.facerecognitiontflite.MyUtil;
+import com.example.facerecognitiontflite.Person;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Binary gallery file, memory-mapped and read in place
+ * Layout, little-endian :
+ *   header  HEADER_SIZE bytes : magic, version, encoding, dimension, person count, template count,
+ *           template stride, index CRC32, data CRC32, header CRC32, zero padding
+ *   index   one INDEX_ENTRY bytes entry per person sorted by id : long id, int first template, int template count
+ *   data    template count * stride bytes, starting at a multiple of 16
+ *           FLOAT32 : dimension L2-normalized floats
+ *           INT8    : float scale then dimension symmetric int8 values, see Int8Gallery
+ * Opening only checks the header and the index, verify() checks the template data.
+ */
+public class GalleryFile {
+    public static final int MAGIC = 0x4C414746;     // "FGAL"
+    public static final int VERSION = 1;
+    public static final int FLOAT32 = 0;
+    public static final int INT8 = 1;
+
+    private static final int HEADER_SIZE = 64;
+    private static final int HEADER_CRC_OFFSET = 36;
+    private static final int INDEX_ENTRY = 16;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final int encoding;
+    private final int dimension;
+    private final int personCount;
+    private final int templateCount;
+    private final int stride;
+    private final int dataCrc;
+    private final ByteBuffer index;
+    private final ByteBuffer data;
+    private final FloatBuffer floats;
+    private final byte[] probeCodes;
+
+    private GalleryFile(ByteBuffer buffer) throws IOException {
+        ByteBuffer b = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (b.capacity() < HEADER_SIZE || b.getInt(0) != MAGIC) {
+            throw new IOException("Not a gallery file");
+        }
+        if (b.getInt(4) != VERSION) {
+            throw new IOException("Unsupported gallery file version " + b.getInt(4));
+        }
+        if (b.getInt(HEADER_CRC_OFFSET) != crc(b, 0, HEADER_CRC_OFFSET)) {
+            throw new IOException("Corrupted gallery file header");
+        }
+        encoding = b.getInt(8);
+        dimension = b.getInt(12);
+        personCount = b.getInt(16);
+        templateCount = b.getInt(20);
+        stride = b.getInt(24);
+        dataCrc = b.getInt(32);
+        if ((encoding != FLOAT32 && encoding != INT8) || stride != templateStride(encoding, dimension)) {
+            throw new IOException("Unsupported gallery file encoding " + encoding);
+        }
+        int indexSize = personCount * INDEX_ENTRY;
+        int dataOffset = dataOffset(personCount);
+        if ((long) dataOffset + (long) templateCount * stride > b.capacity()) {
+            throw new IOException("Truncated gallery file");
+        }
+        if (b.getInt(28) != crc(b, HEADER_SIZE, indexSize)) {
+            throw new IOException("Corrupted gallery file index");
+        }
+        index = slice(b, HEADER_SIZE, indexSize);
+        data = slice(b, dataOffset, templateCount * stride);
+        floats = encoding == FLOAT32 ? data.asFloatBuffer() : null;
+        probeCodes = encoding == INT8 ? new byte[dimension] : null;
+    }
+
+    /**
+     * Map a gallery file
+     * @param file : file written by Writer
+     * @throws IOException when the file is not a valid gallery file
+     */
+    public static GalleryFile open(File file) throws IOException {
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            FileChannel channel = input.getChannel();
+            return new GalleryFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Map a gallery file stored uncompressed in the assets, like the models
+     */
+    public static GalleryFile open(AssetManager assetManager, String path) throws IOException {
+        return new GalleryFile(MyUtil.loadModelFile(assetManager, path));
+    }
+
+    /**
+     * Read a gallery file already in memory, the buffer is not copied
+     */
+    public static GalleryFile wrap(ByteBuffer buffer) throws IOException {
+        return new GalleryFile(buffer);
+    }
+
+    /**
+     * Check the CRC32 of the template data, reads the whole file
+     * @throws IOException when the data is corrupted
+     */
+    public void verify() throws IOException {
+        if (crc(data, 0, data.capacity()) != dataCrc) {
+            throw new IOException("Corrupted gallery file data");
+        }
+    }
+
+    public int encoding() {
+        return encoding;
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    public int personCount() {
+        return personCount;
+    }
+
+    public int templateCount() {
+        return templateCount;
+    }
+
+    public long personId(int person) {
+        return index.getLong(person * INDEX_ENTRY);
+    }
+
+    /**
+     * Index of the first template of a person, its templates are contiguous
+     * @param person : person index in [0, personCount)
+     */
+    public int firstTemplate(int person) {
+        return index.getInt(person * INDEX_ENTRY + 8);
+    }
+
+    /**
+     * Number of templates of a person
+     * @param person : person index in [0, personCount)
+     */
+    public int templateCount(int person) {
+        return index.getInt(person * INDEX_ENTRY + 12);
+    }
+
+    /**
+     * Index of the person with the given id, binary search
+     * @return the person index, -1 when the id is not in the file
+     */
+    public int find(long personId) {
+        int low = 0, high = personCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long id = personId(middle);
+            if (id < personId) low = middle + 1;
+            else if (id > personId) high = middle - 1;
+            else return middle;
+        }
+        return -1;
+    }
+
+    /**
+     * Copy of a template, L2-normalized (dequantized for INT8)
+     * @param t : template index in [0, templateCount)
+     * @param dst : receives dimension floats
+     */
+    public void template(int t, float[] dst) {
+        if (encoding == FLOAT32) {
+            for (int d = 0; d < dimension; d++) {
+                dst[d] = floats.get(t * dimension + d);
+            }
+        } else {
+            int offset = t * stride;
+            float scale = data.getFloat(offset);
+            for (int d = 0; d < dimension; d++) {
+                dst[d] = data.get(offset + 4 + d) * scale;
+            }
+        }
+    }
+
+    /**
+     * Find the template of a person closest to the probe, scored in place in the mapping
+     * The INT8 encoding reuses an internal probe buffer, only one thread may match at a time.
+     * @param person : person index in [0, personCount)
+     * @param probe : face embedding, not necessarily normalized
+     * @param result : receives the template index within the person and the cosine distance
+     * @return result
+     */
+    public Gallery.Match match(int person, float[] probe, Gallery.Match result) {
+        result.index = -1;
+        result.distance = 1.0f;
+        float norm = (float) Math.sqrt(Gallery.dot(probe, 0, probe, 0, dimension));
+        int first = firstTemplate(person);
+        int count = templateCount(person);
+        if (count == 0 || norm == 0) return result;
+
+        float probeScale = encoding == INT8 ? Int8Gallery.quantize(probe, probeCodes, 0, dimension) : 0;
+        float best = -Float.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            float similarity = similarity(probe, probeScale, first + i);
+            if (similarity > best) {
+                best = similarity;
+                result.index = i;
+            }
+        }
+        result.distance = Math.min(1, Math.max(0, 1 - best / norm));
+        return result;
+    }
+
+    /**
+     * dot(probe, template t), the probe is not normalized
+     */
+    private float similarity(float[] probe, float probeScale, int t) {
+        if (encoding == FLOAT32) {
+            int offset = t * dimension;
+            float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+            int d = 0;
+            for (; d + 3 < dimension; d += 4) {
+                s0 += probe[d] * floats.get(offset + d);
+                s1 += probe[d + 1] * floats.get(offset + d + 1);
+                s2 += probe[d + 2] * floats.get(offset + d + 2);
+                s3 += probe[d + 3] * floats.get(offset + d + 3);
+            }
+            for (; d < dimension; d++) {
+                s0 += probe[d] * floats.get(offset + d);
+            }
+            return (s0 + s1) + (s2 + s3);
+        }
+        int offset = t * stride;
+        int codes = offset + 4;
+        int s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int d = 0;
+        for (; d + 3 < dimension; d += 4) {
+            s0 += probeCodes[d] * data.get(codes + d);
+            s1 += probeCodes[d + 1] * data.get(codes + d + 1);
+            s2 += probeCodes[d + 2] * data.get(codes + d + 2);
+            s3 += probeCodes[d + 3] * data.get(codes + d + 3);
+        }
+        for (; d < dimension; d++) {
+            s0 += probeCodes[d] * data.get(codes + d);
+        }
+        return ((s0 + s1) + (s2 + s3)) * probeScale * data.getFloat(offset);
+    }
+
+    /**
+     * Builds a gallery file, e.g. from the JSON base data (see MyUtil.convertBaseData)
+     */
+    public static class Writer {
+        private final int dimension;
+        private final int encoding;
+        private final List<Long> ids = new ArrayList<>();
+        private final List<List<float[]>> templates = new ArrayList<>();
+        private final Map<Long, Integer> persons = new HashMap<>();
+
+        /**
+         * @param dimension : embedding size
+         * @param encoding : FLOAT32 or INT8
+         */
+        public Writer(int dimension, int encoding) {
+            if (encoding != FLOAT32 && encoding != INT8) {
+                throw new IllegalArgumentException("Unknown encoding " + encoding);
+            }
+            this.dimension = dimension;
+            this.encoding = encoding;
+        }
+
+        /**
+         * Add every template of person
+         * @param personId : id of the person in the file, e.g. the NIK
+         */
+        public Writer add(long personId, Person person) {
+            for (int i = 0; i < person.getEmbeddingSize(); i++) {
+                add(personId, person.getEmbedding(i));
+            }
+            if (person.getEmbeddingSize() == 0) {
+                templatesOf(personId);
+            }
+            return this;
+        }
+
+        /**
+         * Add one template of a person, it is copied
+         */
+        public Writer add(long personId, float[] embedding) {
+            if (embedding.length != dimension) {
+                throw new IllegalArgumentException("Embedding size " + embedding.length + " != " + dimension);
+            }
+            templatesOf(personId).add(embedding.clone());
+            return this;
+        }
+
+        private List<float[]> templatesOf(long personId) {
+            Integer i = persons.get(personId);
+            if (i == null) {
+                i = ids.size();
+                persons.put(personId, i);
+                ids.add(personId);
+                templates.add(new ArrayList<float[]>());
+            }
+            return templates.get(i);
+        }
+
+        /**
+         * Write the file at the position of the channel, the channel is not closed
+         * The index and the data are streamed in chunks, the header with their CRC32 is written last.
+         * @throws IOException when the file would exceed the 2 GB a GalleryFile can map
+         */
+        public void write(FileChannel channel) throws IOException {
+            // [1] Persons sorted by id
+            Integer[] order = new Integer[ids.size()];
+            for (int i = 0; i < order.length; i++) order[i] = i;
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Long.compare(ids.get(a), ids.get(b));
+                }
+            });
+            long templateCount = 0;
+            for (List<float[]> list : templates) templateCount += list.size();
+
+            int stride = templateStride(encoding, dimension);
+            long indexEnd = HEADER_SIZE + (long) order.length * INDEX_ENTRY;
+            long dataOffset = (indexEnd + 15) & ~15L;
+            long size = dataOffset + templateCount * stride;
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Gallery file of " + templateCount + " templates too large : " + size + " bytes");
+            }
+            long start = channel.position();
+            ByteBuffer chunk = ByteBuffer.allocate(Math.max(CHUNK_SIZE, stride)).order(ByteOrder.LITTLE_ENDIAN);
+
+            // [2] Index, after the room of the header
+            channel.position(start + HEADER_SIZE);
+            CRC32 indexCrc = new CRC32();
+            int t = 0;
+            for (int p = 0; p < order.length; p++) {
+                List<float[]> list = templates.get(order[p]);
+                if (chunk.remaining() < INDEX_ENTRY) flush(channel, chunk, indexCrc);
+                chunk.putLong(ids.get(order[p]));
+                chunk.putInt(t);
+                chunk.putInt(list.size());
+                t += list.size();
+            }
+            flush(channel, chunk, indexCrc);
+            for (long i = indexEnd; i < dataOffset; i++) chunk.put((byte) 0);
+            flush(channel, chunk, null);
+
+            // [3] Data
+            CRC32 dataCrc = new CRC32();
+            float[] normalized = new float[dimension];
+            byte[] codes = new byte[dimension];
+            for (int p = 0; p < order.length; p++) {
+                for (float[] embedding : templates.get(order[p])) {
+                    if (chunk.remaining() < stride) flush(channel, chunk, dataCrc);
+                    Gallery.normalize(embedding, normalized, 0);
+                    if (encoding == FLOAT32) {
+                        for (int d = 0; d < dimension; d++) {
+                            chunk.putFloat(normalized[d]);
+                        }
+                    } else {
+                        chunk.putFloat(Int8Gallery.quantize(normalized, codes, 0, dimension));
+                        chunk.put(codes);
+                    }
+                }
+            }
+            flush(channel, chunk, dataCrc);
+
+            // [4] Header
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(0, MAGIC);
+            header.putInt(4, VERSION);
+            header.putInt(8, encoding);
+            header.putInt(12, dimension);
+            header.putInt(16, order.length);
+            header.putInt(20, (int) templateCount);
+            header.putInt(24, stride);
+            header.putInt(28, (int) indexCrc.getValue());
+            header.putInt(32, (int) dataCrc.getValue());
+            header.putInt(HEADER_CRC_OFFSET, crc(header, 0, HEADER_CRC_OFFSET));
+            while (header.hasRemaining()) {
+                channel.write(header, start + header.position());
+            }
+            channel.position(start + size);
+        }
+
+        /**
+         * Write the chunk and clear it
+         * @param crc : updated with the written bytes, may be null
+         */
+        private static void flush(FileChannel channel, ByteBuffer chunk, CRC32 crc) throws IOException {
+            chunk.flip();
+            if (crc != null) crc.update(chunk.array(), chunk.arrayOffset(), chunk.limit());
+            while (chunk.hasRemaining()) {
+                channel.write(chunk);
+            }
+            chunk.clear();
+        }
+    }
+
+    private static int templateStride(int encoding, int dimension) {
+        return encoding == FLOAT32 ? dimension * 4 : dimension + 4;
+    }
+
+    private static int dataOffset(int personCount) {
+        return (HEADER_SIZE + personCount * INDEX_ENTRY + 15) & ~15;
+    }
+
+    private static ByteBuffer slice(ByteBuffer b, int offset, int length) {
+        ByteBuffer view = b.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int crc(ByteBuffer b, int offset, int length) {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[8192];
+        ByteBuffer view = b.duplicate();
+        view.position(offset);
+        int remaining = length;
+        while (remaining > 0) {
+            int n = Math.min(chunk.length, remaining);
+            view.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+            remaining -= n;
+        }
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.facerecognitiontflite.gallery;
+
+import com.example.facerecognitiontflite.Person;
+
+import java.util.Arrays;
+
+/**
+ * Face templates of one person stored L2-normalized as IEEE float16, 2x smaller than Gallery
+ * The templates are never widened back to float[] : the kernel converts every half value through
+ * a 64K-entry table while accumulating the dot product with the float probe.
+ */
+public class HalfGallery {
+    // float value of every half bit pattern
+    private static final float[] HALF_TO_FLOAT = new float[1 << 16];
+
+    static {
+        for (int h = 0; h < HALF_TO_FLOAT.length; h++) {
+            HALF_TO_FLOAT[h] = toFloat((short) h);
+        }
+    }
+
+    private final int dimension;
+    private short[] templates;
+    private int size;
+    // add() scratch, the template before the float16 rounding
+    private final float[] normalized;
+
+    public HalfGallery(int dimension) {
+        this(dimension, 16);
+    }
+
+    /**
+     * @param dimension : embedding size
+     * @param capacity : initial number of templates
+     */
+    public HalfGallery(int dimension, int capacity) {
+        this.dimension = dimension;
+        this.templates = new short[Math.max(1, capacity) * dimension];
+        this.normalized = new float[dimension];
+    }
+
+    /**
+     * Gallery holding every embedding of person
+     */
+    public static HalfGallery fromPerson(Person person, int dimension) {
+        HalfGallery gallery = new HalfGallery(dimension, person.getEmbeddingSize());
+        for (int i = 0; i < person.getEmbeddingSize(); i++) {
+            gallery.add(person.getEmbedding(i));
+        }
+        return gallery;
+    }
+
+    /**
+     * Add a template, it is L2-normalized then rounded to float16
+     * @param embedding : face embedding
+     */
+    public void add(float[] embedding) {
+        if (embedding.length != dimension) {
+            throw new IllegalArgumentException("Embedding size " + embedding.length + " != " + dimension);
+        }
+        if ((size + 1) * dimension > templates.length) {
+            templates = Arrays.copyOf(templates, templates.length * 2);
+        }
+        int offset = size * dimension;
+        Gallery.normalize(embedding, normalized, 0);
+        for (int i = 0; i < dimension; i++) {
+            templates[offset + i] = toHalf(normalized[i]);
+        }
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    /**
+     * Bytes held by the templates
+     */
+    public long memoryBytes() {
+        return (long) size * dimension * 2;
+    }
+
+    /**
+     * Find the template closest to the probe, nothing is allocated
+     * @param probe : face embedding, not necessarily normalized
+     * @param result : receives the index and the cosine distance of the best template
+     * @return result
+     */
+    public Gallery.Match match(float[] probe, Gallery.Match result) {
+        result.index = -1;
+        result.distance = 1.0f;
+        float norm = (float) Math.sqrt(Gallery.dot(probe, 0, probe, 0, dimension));
+        if (size == 0 || norm == 0) return result;
+
+        float best = -Float.MAX_VALUE;
+        for (int t = 0, offset = 0; t < size; t++, offset += dimension) {
+            float similarity = dot(probe, templates, offset, dimension);
+            if (similarity > best) {
+                best = similarity;
+                result.index = t;
+            }
+        }
+        result.distance = Math.min(1, Math.max(0, 1 - best / norm));
+        return result;
+    }
+
+    /**
+     * Cosine distance between the probe and template t
+     */
+    public float distance(float[] probe, int t) {
+        float norm = (float) Math.sqrt(Gallery.dot(probe, 0, probe, 0, dimension));
+        if (norm == 0) return 1.0f;
+        return Math.min(1, Math.max(0, 1 - dot(probe, templates, t * dimension, dimension) / norm));
+    }
+
+    /**
+     * Dot product of a float vector and a half vector, unrolled by 4 with independent accumulators
+     */
+    static float dot(float[] a, short[] b, int bOffset, int length) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            s0 += a[i] * HALF_TO_FLOAT[b[bOffset + i] & 0xFFFF];
+            s1 += a[i + 1] * HALF_TO_FLOAT[b[bOffset + i + 1] & 0xFFFF];
+            s2 += a[i + 2] * HALF_TO_FLOAT[b[bOffset + i + 2] & 0xFFFF];
+            s3 += a[i + 3] * HALF_TO_FLOAT[b[bOffset + i + 3] & 0xFFFF];
+        }
+        for (; i < length; i++) {
+            s0 += a[i] * HALF_TO_FLOAT[b[bOffset + i] & 0xFFFF];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Round a float to the nearest float16 (ties to even), overflow gives infinity
+     */
+    static short toHalf(float value) {
+        int bits = Float.floatToIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = (bits >>> 23) & 0xFF;
+        int mantissa = bits & 0x7FFFFF;
+        if (exponent == 0xFF) {
+            // Infinity or NaN
+            return (short) (sign | 0x7C00 | (mantissa != 0 ? 0x200 : 0));
+        }
+        int e = exponent - 127 + 15;
+        if (e >= 0x1F) {
+            return (short) (sign | 0x7C00);
+        }
+        if (e <= 0) {
+            // Subnormal half, or zero
+            if (e < -10) return (short) sign;
+            mantissa |= 0x800000;
+            int shift = 14 - e;
+            int half = mantissa >> shift;
+            int rest = mantissa & ((1 << shift) - 1);
+            int halfway = 1 << (shift - 1);
+            if (rest > halfway || (rest == halfway && (half & 1) != 0)) half++;
+            return (short) (sign | half);
+        }
+        int half = (e << 10) | (mantissa >> 13);
+        int rest = mantissa & 0x1FFF;
+        if (rest > 0x1000 || (rest == 0x1000 && (half & 1) != 0)) half++;   // may carry into the exponent
+        return (short) (sign | half);
+    }
+
+    /**
+     * Exact float value of a float16
+     */
+    static float toFloat(short half) {
+        int h = half & 0xFFFF;
+        int sign = (h & 0x8000) << 16;
+        int exponent = (h >>> 10) & 0x1F;
+        int mantissa = h & 0x3FF;
+        if (exponent == 0) {
+            float value = mantissa * (1.0f / (1 << 24));
+            return sign != 0 ? -value : value;
+        }
+        if (exponent == 0x1F) {
+            return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa << 13));
+        }
+        return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+    }
+}
@@ -0,0 +1,589 @@
+package com.example.facerecognitiontflite.gallery;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Approximate 1:N identification with a Hierarchical Navigable Small World graph (Malkov & Yashunin)
+ * Templates are L2-normalized so the similarity is a dot product, the distance is 1 - similarity.
+ * Layer 0 links are stored in one flat array (count then ids, 2 * m slots per node), the few nodes
+ * of the upper layers keep their own array. remove() only marks the templates as deleted : they are
+ * still used to navigate the graph but never returned, until the index is rebuilt.
+ * The methods are synchronized, the search scratch is shared.
+ */
+public class HnswIndex {
+    private static final int MAGIC = 0x484E5357;    // "HNSW"
+    private static final int VERSION = 2;
+
+    private final int dimension;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final Random random;
+    private int ef = 64;
+
+    private float[] vectors;
+    private int[] personIds;
+    private int[] levels;
+    private int[] layer0;
+    private int[][] upper;
+    private long[] deleted;
+    private int size;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    // Search scratch
+    private int[] visited;
+    private int epoch;
+    private final NodeHeap candidates = new NodeHeap(true);
+    private final NodeHeap results = new NodeHeap(false);
+    private int[] selectedIds = new int[0];
+    private float[] selectedScores = new float[0];
+    private int[] neighbourOrder = new int[0];
+    private final float[] query;
+
+    public HnswIndex(int dimension) {
+        this(dimension, 16, 200, 42);
+    }
+
+    /**
+     * @param dimension : embedding size
+     * @param m : links per node on the upper layers, 2 * m on layer 0
+     * @param efConstruction : candidate list size while inserting (build quality)
+     * @param seed : seed of the level generator
+     */
+    public HnswIndex(int dimension, int m, int efConstruction, long seed) {
+        this.dimension = dimension;
+        this.m = Math.max(2, m);
+        this.maxM0 = 2 * this.m;
+        this.efConstruction = Math.max(this.m, efConstruction);
+        this.levelMultiplier = 1.0 / Math.log(this.m);
+        this.random = new Random(seed);
+        this.query = new float[dimension];
+        allocate(16);
+    }
+
+    /**
+     * Recall / latency knob : size of the candidate list of a search, larger is slower and more accurate
+     * @param ef : at least k is used
+     */
+    public synchronized void setEf(int ef) {
+        this.ef = Math.max(1, ef);
+    }
+
+    public synchronized int getEf() {
+        return ef;
+    }
+
+    /**
+     * Number of templates, deleted included
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Insert a template, it is copied and L2-normalized
+     * @param personId : id returned by search, e.g. the NIK
+     * @param embedding : face embedding
+     */
+    public synchronized void add(int personId, float[] embedding) {
+        if (embedding.length != dimension) {
+            throw new IllegalArgumentException("Embedding size " + embedding.length + " != " + dimension);
+        }
+        if (size == personIds.length) allocate(size * 2);
+        int node = size++;
+        Gallery.normalize(embedding, vectors, node * dimension);
+        personIds[node] = personId;
+        int level = (int) (-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+        levels[node] = level;
+        upper[node] = level > 0 ? new int[level * (m + 1)] : null;
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+
+        // [1] Greedy descent to the level of the new node
+        System.arraycopy(vectors, node * dimension, query, 0, dimension);
+        int ep = entryPoint;
+        for (int lc = maxLevel; lc > level; lc--) {
+            ep = greedy(ep, lc);
+        }
+
+        // [2] Link the node on every level it belongs to
+        for (int lc = Math.min(level, maxLevel); lc >= 0; lc--) {
+            searchLayer(ep, efConstruction, lc, false);
+            int count = drainResults();
+            ep = selectedIds[0];
+            count = selectNeighbors(node, count, m);
+            setLinks(node, lc, selectedIds, count);
+            int[] neighbours = Arrays.copyOf(selectedIds, count);
+            for (int neighbour : neighbours) {
+                addLink(neighbour, node, lc);
+            }
+        }
+
+        if (level > maxLevel) {
+            entryPoint = node;
+            maxLevel = level;
+        }
+    }
+
+    /**
+     * Delete every template of a person
+     * @return number of templates deleted
+     */
+    public synchronized int remove(int personId) {
+        int count = 0;
+        for (int node = 0; node < size; node++) {
+            if (personIds[node] == personId && !isDeleted(node)) {
+                deleted[node >> 6] |= 1L << node;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * k persons closest to the probe (best template of every person)
+     * @param probe : face embedding, not necessarily normalized
+     * @param k : number of persons
+     * @return persons sorted by increasing cosine distance, at most k
+     */
+    public synchronized IdentificationIndex.Result search(float[] probe, int k) {
+        IdentificationIndex.Result result = new IdentificationIndex.Result(k);
+        if (entryPoint < 0 || k == 0) return result;
+        Gallery.normalize(probe, query, 0);
+
+        int ep = entryPoint;
+        for (int lc = maxLevel; lc > 0; lc--) {
+            ep = greedy(ep, lc);
+        }
+        searchLayer(ep, Math.max(ef, k), 0, true);
+        int count = drainResults();
+
+        // Best first, keep the first template of every person
+        for (int i = 0; i < count && result.count < k; i++) {
+            int personId = personIds[selectedIds[i]];
+            boolean seen = false;
+            for (int j = 0; j < result.count; j++) {
+                if (result.personIds[j] == personId) {
+                    seen = true;
+                    break;
+                }
+            }
+            if (seen) continue;
+            result.personIds[result.count] = personId;
+            result.distances[result.count] = Math.min(1, Math.max(0, 1 - selectedScores[i]));
+            result.count++;
+        }
+        return result;
+    }
+
+    /**
+     * Bytes used by the index, for the benchmark report
+     */
+    public synchronized long memoryBytes() {
+        // vector, person id, level and layer 0 links of every template, plus the upper layers
+        long bytes = 4L * size * (dimension + 2 + maxM0 + 1) + 8L * ((size + 63) >> 6);
+        for (int node = 0; node < size; node++) {
+            if (upper[node] != null) bytes += 4L * upper[node].length + 16;
+        }
+        return bytes;
+    }
+
+    /**
+     * Write the index : header, then per node its person id, level, deleted flag, vector and links,
+     * then the CRC32 of everything before. Only the used links are written.
+     */
+    public synchronized void write(OutputStream outputStream) throws IOException {
+        CRC32 crc = new CRC32();
+        DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(outputStream), crc));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(dimension);
+        out.writeInt(m);
+        out.writeInt(efConstruction);
+        out.writeInt(ef);
+        out.writeInt(size);
+        out.writeInt(entryPoint);
+        out.writeInt(maxLevel);
+        for (int node = 0; node < size; node++) {
+            out.writeInt(personIds[node]);
+            out.writeByte(levels[node]);
+            out.writeBoolean(isDeleted(node));
+            for (int d = 0; d < dimension; d++) {
+                out.writeFloat(vectors[node * dimension + d]);
+            }
+            for (int lc = 0; lc <= levels[node]; lc++) {
+                int[] links = links(node, lc);
+                int offset = linkOffset(node, lc);
+                int count = links[offset];
+                out.writeByte(count);
+                for (int i = 1; i <= count; i++) {
+                    out.writeInt(links[offset + i]);
+                }
+            }
+        }
+        out.writeInt((int) crc.getValue());
+        out.flush();
+    }
+
+    /**
+     * Read an index written by write()
+     * @throws IOException when the header is out of range, the CRC32 does not match or a link, the entry
+     * point or the top level does not fit the nodes read
+     */
+    public static HnswIndex read(InputStream inputStream) throws IOException {
+        CRC32 crc = new CRC32();
+        DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(inputStream), crc));
+        if (in.readInt() != MAGIC) throw new IOException("Not an HNSW index");
+        int version = in.readInt();
+        if (version != VERSION) throw new IOException("Unsupported HNSW index version " + version);
+        int dimension = in.readInt();
+        int m = in.readInt();
+        int efConstruction = in.readInt();
+        if (dimension <= 0 || m <= 0 || m > 127) throw new IOException("Corrupted HNSW index header");
+        HnswIndex index = new HnswIndex(dimension, m, efConstruction, 42);
+        index.ef = in.readInt();
+        int size = in.readInt();
+        int entryPoint = in.readInt();
+        int maxLevel = in.readInt();
+        if (index.ef < 1 || size < 0 || entryPoint < -1 || entryPoint >= size || (entryPoint < 0) != (size == 0)
+                || maxLevel < -1 || maxLevel > 255 || (maxLevel < 0) != (size == 0)) {
+            throw new IOException("Corrupted HNSW index header");
+        }
+        // The arrays of size nodes must fit in an int index
+        if ((long) size * dimension > Integer.MAX_VALUE || (long) size * (index.maxM0 + 1) > Integer.MAX_VALUE) {
+            throw new IOException("HNSW index too large : " + size + " nodes");
+        }
+        // Grown while the nodes are read, a truncated file fails before the full size is allocated
+        index.allocate(Math.max(16, Math.min(size, 1024)));
+        index.size = size;
+        index.entryPoint = entryPoint;
+        index.maxLevel = maxLevel;
+        for (int node = 0; node < size; node++) {
+            if (node == index.personIds.length) index.allocate((int) Math.min(size, 2L * node));
+            index.personIds[node] = in.readInt();
+            int level = in.readUnsignedByte();
+            if (level > maxLevel) throw new IOException("Corrupted HNSW index level");
+            index.levels[node] = level;
+            index.upper[node] = level > 0 ? new int[level * (index.m + 1)] : null;
+            if (in.readBoolean()) index.deleted[node >> 6] |= 1L << node;
+            for (int d = 0; d < dimension; d++) {
+                index.vectors[node * dimension + d] = in.readFloat();
+            }
+            for (int lc = 0; lc <= level; lc++) {
+                int[] links = index.links(node, lc);
+                int offset = index.linkOffset(node, lc);
+                int count = in.readUnsignedByte();
+                if (count > index.capacity(lc)) throw new IOException("Corrupted HNSW index");
+                links[offset] = count;
+                for (int i = 1; i <= count; i++) {
+                    links[offset + i] = in.readInt();
+                }
+            }
+        }
+        int expected = (int) crc.getValue();
+        if (in.readInt() != expected) throw new IOException("Corrupted HNSW index");
+
+        // Every link must reach a node of that level, the entry point must be on the top level
+        if (entryPoint >= 0 && index.levels[entryPoint] != maxLevel) throw new IOException("Corrupted HNSW index entry point");
+        for (int node = 0; node < size; node++) {
+            for (int lc = 0; lc <= index.levels[node]; lc++) {
+                int[] links = index.links(node, lc);
+                int offset = index.linkOffset(node, lc);
+                for (int i = 1; i <= links[offset]; i++) {
+                    int neighbour = links[offset + i];
+                    if (neighbour < 0 || neighbour >= size || index.levels[neighbour] < lc) {
+                        throw new IOException("Corrupted HNSW index link " + node + " -> " + neighbour);
+                    }
+                }
+            }
+        }
+        return index;
+    }
+
+    private boolean isDeleted(int node) {
+        return (deleted[node >> 6] & (1L << node)) != 0;
+    }
+
+    private int capacity(int level) {
+        return level == 0 ? maxM0 : m;
+    }
+
+    private int[] links(int node, int level) {
+        return level == 0 ? layer0 : upper[node];
+    }
+
+    private int linkOffset(int node, int level) {
+        return level == 0 ? node * (maxM0 + 1) : (level - 1) * (m + 1);
+    }
+
+    private float similarity(int node) {
+        return Gallery.dot(query, 0, vectors, node * dimension, dimension);
+    }
+
+    private float similarity(int a, int b) {
+        return Gallery.dot(vectors, a * dimension, vectors, b * dimension, dimension);
+    }
+
+    /**
+     * Closest node to the query on one level, walking from ep
+     */
+    private int greedy(int ep, int level) {
+        float best = similarity(ep);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] links = links(ep, level);
+            int offset = linkOffset(ep, level);
+            for (int i = 1; i <= links[offset]; i++) {
+                int neighbour = links[offset + i];
+                float score = similarity(neighbour);
+                if (score > best) {
+                    best = score;
+                    ep = neighbour;
+                    changed = true;
+                }
+            }
+        }
+        return ep;
+    }
+
+    /**
+     * Best-first search of one level, the ef best nodes are left in results
+     * @param skipDeleted : deleted nodes are visited but not kept
+     */
+    private void searchLayer(int ep, int ef, int level, boolean skipDeleted) {
+        if (++epoch == 0) {
+            Arrays.fill(visited, 0);
+            epoch = 1;
+        }
+        candidates.clear();
+        results.clear();
+        float score = similarity(ep);
+        visited[ep] = epoch;
+        candidates.push(ep, score);
+        if (!skipDeleted || !isDeleted(ep)) results.push(ep, score);
+
+        while (candidates.size() > 0) {
+            if (results.size() >= ef && candidates.peekScore() < results.peekScore()) break;
+            int current = candidates.peekId();
+            candidates.pop();
+            int[] links = links(current, level);
+            int offset = linkOffset(current, level);
+            for (int i = 1; i <= links[offset]; i++) {
+                int neighbour = links[offset + i];
+                if (visited[neighbour] == epoch) continue;
+                visited[neighbour] = epoch;
+                score = similarity(neighbour);
+                if (results.size() < ef || score > results.peekScore()) {
+                    candidates.push(neighbour, score);
+                    if (!skipDeleted || !isDeleted(neighbour)) {
+                        results.push(neighbour, score);
+                        if (results.size() > ef) results.pop();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Move results into selectedIds / selectedScores, best first
+     * @return number of nodes
+     */
+    private int drainResults() {
+        int count = results.size();
+        if (selectedIds.length < count) {
+            selectedIds = new int[count];
+            selectedScores = new float[count];
+        }
+        for (int i = count - 1; i >= 0; i--) {
+            selectedIds[i] = results.peekId();
+            selectedScores[i] = results.peekScore();
+            results.pop();
+        }
+        return count;
+    }
+
+    /**
+     * Neighbour selection heuristic : a candidate is kept when it is closer to the base node than to
+     * every candidate already kept, the slots left are filled with the closest candidates pruned
+     * @param base : node being linked
+     * @param count : candidates in selectedIds, best first
+     * @param max : maximum number of neighbours
+     * @return number of neighbours, moved to the front of selectedIds
+     */
+    private int selectNeighbors(int base, int count, int max) {
+        int kept = 0;
+        int pruned = count;
+        if (neighbourOrder.length < count) {
+            neighbourOrder = new int[count];
+        }
+        int[] order = neighbourOrder;
+        for (int i = 0; i < count && kept < max; i++) {
+            int candidate = selectedIds[i];
+            if (candidate == base) continue;
+            boolean good = true;
+            for (int j = 0; j < kept; j++) {
+                if (similarity(candidate, order[j]) > selectedScores[i]) {
+                    good = false;
+                    break;
+                }
+            }
+            if (good) {
+                order[kept++] = candidate;
+            } else {
+                order[--pruned] = candidate;
+            }
+        }
+        // Pruned candidates were stored from the end, the closest last
+        for (int i = count - 1; i >= pruned && kept < max; i--) {
+            order[kept++] = order[i];
+        }
+        System.arraycopy(order, 0, selectedIds, 0, kept);
+        return kept;
+    }
+
+    private void setLinks(int node, int level, int[] ids, int count) {
+        int[] links = links(node, level);
+        int offset = linkOffset(node, level);
+        links[offset] = count;
+        System.arraycopy(ids, 0, links, offset + 1, count);
+    }
+
+    /**
+     * Link node from neighbour, when the neighbour is full its links are selected again
+     */
+    private void addLink(int neighbour, int node, int level) {
+        int[] links = links(neighbour, level);
+        int offset = linkOffset(neighbour, level);
+        int count = links[offset];
+        int capacity = capacity(level);
+        if (count < capacity) {
+            links[offset + 1 + count] = node;
+            links[offset] = count + 1;
+            return;
+        }
+
+        // Candidates : the current links and the new node, sorted by similarity to the neighbour
+        if (selectedIds.length < count + 1) {
+            selectedIds = new int[count + 1];
+            selectedScores = new float[count + 1];
+        }
+        for (int i = 0; i < count; i++) {
+            selectedIds[i] = links[offset + 1 + i];
+        }
+        selectedIds[count] = node;
+        for (int i = 0; i <= count; i++) {
+            selectedScores[i] = similarity(neighbour, selectedIds[i]);
+        }
+        for (int i = 1; i <= count; i++) {
+            int id = selectedIds[i];
+            float score = selectedScores[i];
+            int j = i - 1;
+            while (j >= 0 && selectedScores[j] < score) {
+                selectedIds[j + 1] = selectedIds[j];
+                selectedScores[j + 1] = selectedScores[j];
+                j--;
+            }
+            selectedIds[j + 1] = id;
+            selectedScores[j + 1] = score;
+        }
+        int kept = selectNeighbors(neighbour, count + 1, capacity);
+        setLinks(neighbour, level, selectedIds, kept);
+    }
+
+    private void allocate(int capacity) {
+        vectors = vectors == null ? new float[capacity * dimension] : Arrays.copyOf(vectors, capacity * dimension);
+        personIds = personIds == null ? new int[capacity] : Arrays.copyOf(personIds, capacity);
+        levels = levels == null ? new int[capacity] : Arrays.copyOf(levels, capacity);
+        layer0 = layer0 == null ? new int[capacity * (maxM0 + 1)] : Arrays.copyOf(layer0, capacity * (maxM0 + 1));
+        upper = upper == null ? new int[capacity][] : Arrays.copyOf(upper, capacity);
+        deleted = deleted == null ? new long[(capacity + 63) >> 6] : Arrays.copyOf(deleted, (capacity + 63) >> 6);
+        visited = new int[capacity];
+        epoch = 0;
+    }
+
+    /**
+     * Binary heap of (node, score), max-heap or min-heap on the score
+     */
+    private static class NodeHeap {
+        private final boolean max;
+        private int[] ids = new int[64];
+        private float[] scores = new float[64];
+        private int size;
+
+        NodeHeap(boolean max) {
+            this.max = max;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        int peekId() {
+            return ids[0];
+        }
+
+        float peekScore() {
+            return scores[0];
+        }
+
+        void push(int id, float score) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >> 1;
+                if (!before(score, scores[parent])) break;
+                ids[i] = ids[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            ids[i] = id;
+            scores[i] = score;
+        }
+
+        void pop() {
+            int id = ids[--size];
+            float score = scores[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && before(scores[child + 1], scores[child])) child++;
+                if (!before(scores[child], score)) break;
+                ids[i] = ids[child];
+                scores[i] = scores[child];
+                i = child;
+            }
+            ids[i] = id;
+            scores[i] = score;
+        }
+
+        private boolean before(float a, float b) {
+            return max ? a > b : a < b;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.example.facerecognitiontflite.gallery;
+
+import com.example.facerecognitiontflite.Person;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 1:N identification over the templates of every enrolled person
+ * The L2-normalized templates are stored in blocks of BLOCK templates, every block is dimension-major
+ * ([dimension][BLOCK]) so scoring a block is BLOCK independent multiply-adds per probe value over
+ * contiguous memory. The blocks are scanned in parallel with fork/join and the search returns the
+ * k persons with the smallest cosine distance (best template of every person).
+ * add() must not run concurrently with search(), searches can run concurrently.
+ */
+public class IdentificationIndex {
+    public static final int BLOCK = 64;
+
+    // Blocks scanned by one fork/join leaf
+    private static final int LEAF_BLOCKS = 16;
+
+    private final int dimension;
+    private final ForkJoinPool pool;
+    private float[][] blocks = new float[16][];
+    private int[] personIds = new int[16 * BLOCK];
+    private int size;
+
+    /**
+     * Top-k persons of a search, sorted by increasing distance
+     */
+    public static class Result {
+        public int count;
+        public final int[] personIds;
+        public final float[] distances;
+
+        Result(int k) {
+            personIds = new int[k];
+            distances = new float[k];
+        }
+    }
+
+    public IdentificationIndex(int dimension) {
+        this(dimension, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param dimension : embedding size
+     * @param pool : pool running the scan
+     */
+    public IdentificationIndex(int dimension, ForkJoinPool pool) {
+        this.dimension = dimension;
+        this.pool = pool;
+    }
+
+    /**
+     * Add every template of person
+     * @param personId : id returned by search, e.g. the NIK
+     */
+    public void add(int personId, Person person) {
+        for (int i = 0; i < person.getEmbeddingSize(); i++) {
+            add(personId, person.getEmbedding(i));
+        }
+    }
+
+    /**
+     * Add one template, it is copied and L2-normalized
+     * @param personId : id returned by search, e.g. the NIK
+     * @param embedding : face embedding
+     */
+    public void add(int personId, float[] embedding) {
+        if (embedding.length != dimension) {
+            throw new IllegalArgumentException("Embedding size " + embedding.length + " != " + dimension);
+        }
+        int block = size / BLOCK;
+        int column = size % BLOCK;
+        if (block == blocks.length) {
+            blocks = Arrays.copyOf(blocks, blocks.length * 2);
+            personIds = Arrays.copyOf(personIds, blocks.length * BLOCK);
+        }
+        if (blocks[block] == null) {
+            blocks[block] = new float[dimension * BLOCK];
+        }
+        float[] normalized = new float[dimension];
+        Gallery.normalize(embedding, normalized, 0);
+        float[] values = blocks[block];
+        for (int d = 0; d < dimension; d++) {
+            values[d * BLOCK + column] = normalized[d];
+        }
+        personIds[size] = personId;
+        size++;
+    }
+
+    /**
+     * Number of templates
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * k persons closest to the probe
+     * @param probe : face embedding, not necessarily normalized
+     * @param k : number of persons
+     * @return persons sorted by increasing cosine distance, at most k
+     */
+    public Result search(float[] probe, int k) {
+        return search(probe, k, pool);
+    }
+
+    /**
+     * Same as search(probe, k) with the scan running on the given pool
+     */
+    public Result search(float[] probe, int k, ForkJoinPool pool) {
+        float[] normalized = new float[dimension];
+        Gallery.normalize(probe, normalized, 0);
+        int blockCount = (size + BLOCK - 1) / BLOCK;
+        TopK top = pool.invoke(new ScanTask(normalized, k, 0, blockCount));
+
+        Result result = new Result(k);
+        top.sort();
+        result.count = top.count;
+        for (int i = 0; i < top.count; i++) {
+            result.personIds[i] = top.personIds[i];
+            result.distances[i] = Math.min(1, Math.max(0, 1 - top.scores[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Scan of the blocks [from, to), split in halves down to LEAF_BLOCKS blocks
+     */
+    private class ScanTask extends RecursiveTask<TopK> {
+        private static final long serialVersionUID = 1L;
+
+        private final float[] probe;
+        private final int k;
+        private final int from;
+        private final int to;
+
+        ScanTask(float[] probe, int k, int from, int to) {
+            this.probe = probe;
+            this.k = k;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected TopK compute() {
+            if (to - from <= LEAF_BLOCKS) {
+                return scan();
+            }
+            int middle = (from + to) >>> 1;
+            ScanTask left = new ScanTask(probe, k, from, middle);
+            left.fork();
+            TopK top = new ScanTask(probe, k, middle, to).compute();
+            top.merge(left.join());
+            return top;
+        }
+
+        private TopK scan() {
+            TopK top = new TopK(k);
+            float[] scores = new float[BLOCK];
+            for (int b = from; b < to; b++) {
+                float[] values = blocks[b];
+                Arrays.fill(scores, 0);
+                for (int d = 0, offset = 0; d < dimension; d++, offset += BLOCK) {
+                    float p = probe[d];
+                    for (int j = 0; j < BLOCK; j++) {
+                        scores[j] += p * values[offset + j];
+                    }
+                }
+                int base = b * BLOCK;
+                int count = Math.min(BLOCK, size - base);
+                for (int j = 0; j < count; j++) {
+                    if (scores[j] > top.min() || top.count < k) {
+                        top.offer(personIds[base + j], scores[j]);
+                    }
+                }
+            }
+            return top;
+        }
+    }
+
+    /**
+     * Best k persons by similarity, one entry per person
+     */
+    static class TopK {
+        final int k;
+        final int[] personIds;
+        final float[] scores;
+        int count;
+        private int minIndex;
+
+        TopK(int k) {
+            this.k = k;
+            personIds = new int[k];
+            scores = new float[k];
+        }
+
+        /**
+         * Smallest similarity kept, only meaningful when count == k
+         */
+        float min() {
+            return count == 0 ? -Float.MAX_VALUE : scores[minIndex];
+        }
+
+        void offer(int personId, float score) {
+            if (k == 0) return;
+            for (int i = 0; i < count; i++) {
+                if (personIds[i] == personId) {
+                    if (score > scores[i]) {
+                        scores[i] = score;
+                        updateMin();
+                    }
+                    return;
+                }
+            }
+            if (count < k) {
+                personIds[count] = personId;
+                scores[count] = score;
+                count++;
+                updateMin();
+            } else if (score > scores[minIndex]) {
+                personIds[minIndex] = personId;
+                scores[minIndex] = score;
+                updateMin();
+            }
+        }
+
+        void merge(TopK other) {
+            for (int i = 0; i < other.count; i++) {
+                offer(other.personIds[i], other.scores[i]);
+            }
+        }
+
+        private void updateMin() {
+            minIndex = 0;
+            for (int i = 1; i < count; i++) {
+                if (scores[i] < scores[minIndex]) minIndex = i;
+            }
+        }
+
+        /**
+         * Sort by decreasing similarity
+         */
+        void sort() {
+            for (int i = 1; i < count; i++) {
+                int id = personIds[i];
+                float score = scores[i];
+                int j = i - 1;
+                while (j >= 0 && scores[j] < score) {
+                    personIds[j + 1] = personIds[j];
+                    scores[j + 1] = scores[j];
+                    j--;
+                }
+                personIds[j + 1] = id;
+                scores[j + 1] = score;
+            }
+        }
+    }
+}
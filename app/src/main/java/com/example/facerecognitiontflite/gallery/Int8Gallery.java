@@ -0,0 +1,152 @@
+package com.example.facerecognitiontflite.gallery;
+
+import com.example.facerecognitiontflite.Person;
+
+import java.util.Arrays;
+
+/**
+ * Face templates of one person stored as symmetric int8, 4x smaller than Gallery
+ * Every L2-normalized template is scaled by 127 / max|value| and rounded, its scale is kept in a float.
+ * The probe is quantized the same way, so a template is scored with integer multiply-adds and one
+ * float multiply : dot = sum(p[i] * t[i]) * probeScale * templateScale.
+ * match() reuses an internal probe buffer, only one thread may match at a time.
+ */
+public class Int8Gallery {
+    private final int dimension;
+    private byte[] templates;
+    private float[] scales;
+    private int size;
+    private final byte[] probeCodes;
+
+    public Int8Gallery(int dimension) {
+        this(dimension, 16);
+    }
+
+    /**
+     * @param dimension : embedding size
+     * @param capacity : initial number of templates
+     */
+    public Int8Gallery(int dimension, int capacity) {
+        this.dimension = dimension;
+        this.templates = new byte[Math.max(1, capacity) * dimension];
+        this.scales = new float[Math.max(1, capacity)];
+        this.probeCodes = new byte[dimension];
+    }
+
+    /**
+     * Gallery holding every embedding of person
+     */
+    public static Int8Gallery fromPerson(Person person, int dimension) {
+        Int8Gallery gallery = new Int8Gallery(dimension, person.getEmbeddingSize());
+        for (int i = 0; i < person.getEmbeddingSize(); i++) {
+            gallery.add(person.getEmbedding(i));
+        }
+        return gallery;
+    }
+
+    /**
+     * Add a template, it is L2-normalized then quantized
+     * @param embedding : face embedding
+     */
+    public void add(float[] embedding) {
+        if (embedding.length != dimension) {
+            throw new IllegalArgumentException("Embedding size " + embedding.length + " != " + dimension);
+        }
+        if (size == scales.length) {
+            scales = Arrays.copyOf(scales, size * 2);
+            templates = Arrays.copyOf(templates, size * 2 * dimension);
+        }
+        float norm = (float) Math.sqrt(Gallery.dot(embedding, 0, embedding, 0, dimension));
+        scales[size] = quantize(embedding, templates, size * dimension, dimension) / (norm > 0 ? norm : 1);
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    /**
+     * Bytes held by the templates and their scales
+     */
+    public long memoryBytes() {
+        return (long) size * (dimension + 4);
+    }
+
+    /**
+     * Find the template closest to the probe, nothing is allocated
+     * @param probe : face embedding, not necessarily normalized
+     * @param result : receives the index and the cosine distance of the best template
+     * @return result
+     */
+    public Gallery.Match match(float[] probe, Gallery.Match result) {
+        result.index = -1;
+        result.distance = 1.0f;
+        float norm = (float) Math.sqrt(Gallery.dot(probe, 0, probe, 0, dimension));
+        if (size == 0 || norm == 0) return result;
+
+        float probeScale = quantize(probe, probeCodes, 0, dimension) / norm;
+        float best = -Float.MAX_VALUE;
+        for (int t = 0, offset = 0; t < size; t++, offset += dimension) {
+            float similarity = dot(probeCodes, 0, templates, offset, dimension) * scales[t];
+            if (similarity > best) {
+                best = similarity;
+                result.index = t;
+            }
+        }
+        result.distance = Math.min(1, Math.max(0, 1 - best * probeScale));
+        return result;
+    }
+
+    /**
+     * Cosine distance between the probe and template t
+     */
+    public float distance(float[] probe, int t) {
+        float norm = (float) Math.sqrt(Gallery.dot(probe, 0, probe, 0, dimension));
+        if (norm == 0) return 1.0f;
+        float probeScale = quantize(probe, probeCodes, 0, dimension) / norm;
+        float similarity = dot(probeCodes, 0, templates, t * dimension, dimension) * scales[t] * probeScale;
+        return Math.min(1, Math.max(0, 1 - similarity));
+    }
+
+    /**
+     * Symmetric int8 quantization : dst = round(src * 127 / max|src|)
+     * @return the step of one code, max|src| / 127
+     */
+    static float quantize(float[] src, byte[] dst, int offset, int length) {
+        float max = 0;
+        for (int i = 0; i < length; i++) {
+            max = Math.max(max, Math.abs(src[i]));
+        }
+        if (max == 0) {
+            Arrays.fill(dst, offset, offset + length, (byte) 0);
+            return 0;
+        }
+        float scale = 127 / max;
+        for (int i = 0; i < length; i++) {
+            dst[offset + i] = (byte) Math.round(src[i] * scale);
+        }
+        return max / 127;
+    }
+
+    /**
+     * Integer dot product unrolled by 4 with independent accumulators, |sum| <= length * 127 * 127
+     */
+    static int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        int s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+            s1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+            s2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+            s3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+}
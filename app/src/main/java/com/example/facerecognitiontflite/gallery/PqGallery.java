@@ -0,0 +1,136 @@
+package com.example.facerecognitiontflite.gallery;
+
+import com.example.facerecognitiontflite.Person;
+
+import java.util.Arrays;
+
+/**
+ * Identification over product-quantized templates, see ProductQuantizer
+ * Every template is codeSize() bytes (32 bytes for 32 subspaces) instead of dimension floats.
+ * A search builds the lookup table of the probe once, scores every code with codeSize() table reads,
+ * and when the exact templates are kept re-ranks the best candidates with the exact cosine distance.
+ * add() must not run concurrently with search(), searches can run concurrently.
+ */
+public class PqGallery {
+    private final ProductQuantizer quantizer;
+    private final Gallery exact;
+    private int rerank = 32;
+
+    private byte[] codes;
+    private int[] personIds;
+    private int size;
+
+    /**
+     * @param quantizer : trained codebooks
+     * @param keepExact : also keep the float templates for re-ranking, costs dimension * 4 bytes per template
+     */
+    public PqGallery(ProductQuantizer quantizer, boolean keepExact) {
+        this.quantizer = quantizer;
+        this.exact = keepExact ? new Gallery(quantizer.dimension()) : null;
+        this.codes = new byte[16 * quantizer.codeSize()];
+        this.personIds = new int[16];
+    }
+
+    /**
+     * Number of approximate candidates re-ranked with the exact distance, when the exact templates are kept
+     * @param rerank
+     */
+    public void setRerank(int rerank) {
+        this.rerank = Math.max(1, rerank);
+    }
+
+    /**
+     * Add every template of person
+     * @param personId : id returned by search, e.g. the NIK
+     */
+    public void add(int personId, Person person) {
+        for (int i = 0; i < person.getEmbeddingSize(); i++) {
+            add(personId, person.getEmbedding(i));
+        }
+    }
+
+    /**
+     * Add one template, it is encoded (and copied when the exact templates are kept)
+     * @param personId : id returned by search, e.g. the NIK
+     * @param embedding : face embedding
+     */
+    public void add(int personId, float[] embedding) {
+        if (embedding.length != quantizer.dimension()) {
+            throw new IllegalArgumentException("Embedding size " + embedding.length + " != " + quantizer.dimension());
+        }
+        int codeSize = quantizer.codeSize();
+        if (size == personIds.length) {
+            personIds = Arrays.copyOf(personIds, size * 2);
+            codes = Arrays.copyOf(codes, size * 2 * codeSize);
+        }
+        quantizer.encode(embedding, codes, size * codeSize);
+        personIds[size] = personId;
+        if (exact != null) {
+            exact.add(embedding);
+        }
+        size++;
+    }
+
+    /**
+     * Number of templates
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Bytes held by the codes and the person ids, plus the exact templates when kept
+     */
+    public long memoryBytes() {
+        long bytes = (long) size * (quantizer.codeSize() + 4);
+        if (exact != null) {
+            bytes += (long) size * quantizer.dimension() * 4;
+        }
+        return bytes;
+    }
+
+    /**
+     * k persons closest to the probe
+     * @param probe : face embedding, not necessarily normalized
+     * @param k : number of persons
+     * @return persons sorted by increasing cosine distance, at most k. The distances are approximate
+     * unless the exact templates are kept.
+     */
+    public IdentificationIndex.Result search(float[] probe, int k) {
+        int dimension = quantizer.dimension();
+        int codeSize = quantizer.codeSize();
+        float[] normalized = new float[dimension];
+        Gallery.normalize(probe, normalized, 0);
+        float[] table = new float[codeSize * ProductQuantizer.CENTROIDS];
+        quantizer.table(normalized, table);
+
+        // [1] Approximate scan, candidates are templates (template index as id) when re-ranking, persons otherwise
+        IdentificationIndex.TopK candidates = new IdentificationIndex.TopK(exact != null ? Math.max(k, rerank) : k);
+        for (int t = 0, offset = 0; t < size; t++, offset += codeSize) {
+            float score = quantizer.similarity(table, codes, offset);
+            if (candidates.count < candidates.k || score > candidates.min()) {
+                candidates.offer(exact != null ? t : personIds[t], score);
+            }
+        }
+
+        // [2] Exact re-ranking of the candidates, one entry per person
+        IdentificationIndex.TopK top = candidates;
+        if (exact != null) {
+            top = new IdentificationIndex.TopK(k);
+            float[] templates = exact.data();
+            for (int i = 0; i < candidates.count; i++) {
+                int t = candidates.personIds[i];
+                top.offer(personIds[t], Gallery.dot(normalized, 0, templates, t * dimension, dimension));
+            }
+        }
+
+        IdentificationIndex.Result result = new IdentificationIndex.Result(k);
+        top.sort();
+        result.count = Math.min(k, top.count);
+        for (int i = 0; i < result.count; i++) {
+            result.personIds[i] = top.personIds[i];
+            result.distances[i] = Math.min(1, Math.max(0, 1 - top.scores[i]));
+        }
+        return result;
+    }
+}
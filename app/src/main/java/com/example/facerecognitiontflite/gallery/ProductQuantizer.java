@@ -0,0 +1,177 @@
+package com.example.facerecognitiontflite.gallery;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Product quantization codec for L2-normalized embeddings
+ * The embedding is split into subspaces of dimension / subspaces values, every subspace is encoded
+ * by the index of its nearest centroid (k-means codebook of 256 centroids), one byte per subspace.
+ * With 256 dimensions and 32 subspaces a template takes 32 bytes instead of 1 KB.
+ * A probe is compared with codes through a lookup table of its similarity to every centroid
+ * (asymmetric distance computation, the probe itself is not quantized).
+ */
+public class ProductQuantizer {
+    public static final int CENTROIDS = 256;
+
+    private final int dimension;
+    private final int subspaces;
+    private final int subDimension;
+    private final float[] codebook;     // [subspace][centroid][subDimension]
+
+    private ProductQuantizer(int dimension, int subspaces, float[] codebook) {
+        this.dimension = dimension;
+        this.subspaces = subspaces;
+        this.subDimension = dimension / subspaces;
+        this.codebook = codebook;
+    }
+
+    /**
+     * Train the codebooks with k-means on sample embeddings
+     * @param samples : training embeddings, normalized here
+     * @param subspaces : number of subspaces, must divide the dimension
+     * @param iterations : k-means iterations
+     * @param seed : seed of the centroid initialization
+     */
+    public static ProductQuantizer train(float[][] samples, int subspaces, int iterations, long seed) {
+        if (samples.length == 0) {
+            throw new IllegalArgumentException("No training sample");
+        }
+        int dimension = samples[0].length;
+        if (dimension % subspaces != 0) {
+            throw new IllegalArgumentException(subspaces + " subspaces do not divide dimension " + dimension);
+        }
+        int subDimension = dimension / subspaces;
+        int n = samples.length;
+        float[] data = new float[n * dimension];
+        for (int i = 0; i < n; i++) {
+            Gallery.normalize(samples[i], data, i * dimension);
+        }
+
+        Random random = new Random(seed);
+        float[] codebook = new float[subspaces * CENTROIDS * subDimension];
+        int[] counts = new int[CENTROIDS];
+        float[] sums = new float[CENTROIDS * subDimension];
+        for (int s = 0; s < subspaces; s++) {
+            int base = s * CENTROIDS * subDimension;
+            int offset = s * subDimension;
+
+            // [1] Initialize with random samples, every sample once when there are fewer samples than centroids
+            for (int c = 0; c < CENTROIDS; c++) {
+                int sample = n > CENTROIDS || c >= n ? random.nextInt(n) : c;
+                System.arraycopy(data, sample * dimension + offset, codebook, base + c * subDimension, subDimension);
+            }
+
+            // [2] Lloyd iterations
+            for (int iteration = 0; iteration < iterations; iteration++) {
+                Arrays.fill(counts, 0);
+                Arrays.fill(sums, 0);
+                for (int i = 0; i < n; i++) {
+                    int c = nearest(codebook, base, data, i * dimension + offset, subDimension);
+                    counts[c]++;
+                    for (int d = 0; d < subDimension; d++) {
+                        sums[c * subDimension + d] += data[i * dimension + offset + d];
+                    }
+                }
+                for (int c = 0; c < CENTROIDS; c++) {
+                    if (counts[c] == 0) {
+                        // Empty cluster : restart it on a random sample
+                        int sample = random.nextInt(n);
+                        System.arraycopy(data, sample * dimension + offset, codebook, base + c * subDimension, subDimension);
+                        continue;
+                    }
+                    for (int d = 0; d < subDimension; d++) {
+                        codebook[base + c * subDimension + d] = sums[c * subDimension + d] / counts[c];
+                    }
+                }
+            }
+        }
+        return new ProductQuantizer(dimension, subspaces, codebook);
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    /**
+     * Bytes per code
+     */
+    public int codeSize() {
+        return subspaces;
+    }
+
+    /**
+     * Encode an embedding, it is normalized first
+     * @param embedding : face embedding
+     * @param codes : receives codeSize() bytes at offset
+     * @param offset : offset of the code in codes
+     */
+    public void encode(float[] embedding, byte[] codes, int offset) {
+        float[] normalized = new float[dimension];
+        Gallery.normalize(embedding, normalized, 0);
+        for (int s = 0; s < subspaces; s++) {
+            codes[offset + s] = (byte) nearest(codebook, s * CENTROIDS * subDimension, normalized,
+                    s * subDimension, subDimension);
+        }
+    }
+
+    /**
+     * Approximate normalized embedding of a code
+     */
+    public void decode(byte[] codes, int offset, float[] embedding) {
+        for (int s = 0; s < subspaces; s++) {
+            int c = codes[offset + s] & 0xFF;
+            System.arraycopy(codebook, (s * CENTROIDS + c) * subDimension, embedding, s * subDimension, subDimension);
+        }
+    }
+
+    /**
+     * Similarity lookup table of a probe : table[s * CENTROIDS + c] = dot(probe subspace s, centroid c)
+     * @param probe : normalized probe
+     * @param table : subspaces * CENTROIDS floats
+     */
+    public void table(float[] probe, float[] table) {
+        for (int s = 0; s < subspaces; s++) {
+            int base = s * CENTROIDS * subDimension;
+            for (int c = 0; c < CENTROIDS; c++) {
+                table[s * CENTROIDS + c] = Gallery.dot(probe, s * subDimension, codebook, base + c * subDimension, subDimension);
+            }
+        }
+    }
+
+    /**
+     * Approximate similarity of the probe of table to a code
+     */
+    public float similarity(float[] table, byte[] codes, int offset) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int s = 0;
+        for (; s + 3 < subspaces; s += 4) {
+            s0 += table[s * CENTROIDS + (codes[offset + s] & 0xFF)];
+            s1 += table[(s + 1) * CENTROIDS + (codes[offset + s + 1] & 0xFF)];
+            s2 += table[(s + 2) * CENTROIDS + (codes[offset + s + 2] & 0xFF)];
+            s3 += table[(s + 3) * CENTROIDS + (codes[offset + s + 3] & 0xFF)];
+        }
+        for (; s < subspaces; s++) {
+            s0 += table[s * CENTROIDS + (codes[offset + s] & 0xFF)];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    private static int nearest(float[] codebook, int base, float[] vector, int offset, int subDimension) {
+        int best = 0;
+        float bestDistance = Float.MAX_VALUE;
+        for (int c = 0; c < CENTROIDS; c++) {
+            float distance = 0;
+            int centroid = base + c * subDimension;
+            for (int d = 0; d < subDimension; d++) {
+                float diff = vector[offset + d] - codebook[centroid + d];
+                distance += diff * diff;
+            }
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = c;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.facerecognitiontflite.gallery;
+
+import com.example.facerecognitiontflite.Person;
+
+import java.util.Arrays;
+
+/**
+ * Two-stage 1:N identification : binary sign-hash prefilter, then exact cosine re-ranking
+ * Every template is packed into one sign bit per dimension (4 longs for 256 dimensions), the whole
+ * gallery is ranked by Hamming distance with Long.bitCount and only the best candidates are scored
+ * with the exact cosine distance on the L2-normalized float templates.
+ * add() must not run concurrently with search(), searches can run concurrently.
+ */
+public class SignHashIndex {
+    private final int dimension;
+    private final int words;
+    private final Gallery exact;
+    private int candidates = 256;
+
+    private long[] hashes;
+    private int[] personIds;
+    private int size;
+
+    public SignHashIndex(int dimension) {
+        this.dimension = dimension;
+        this.words = (dimension + 63) / 64;
+        this.exact = new Gallery(dimension);
+        this.hashes = new long[16 * words];
+        this.personIds = new int[16];
+    }
+
+    /**
+     * Number of prefilter candidates re-ranked with the exact cosine distance
+     * @param candidates
+     */
+    public void setCandidates(int candidates) {
+        this.candidates = Math.max(1, candidates);
+    }
+
+    /**
+     * Add every template of person
+     * @param personId : id returned by search, e.g. the NIK
+     */
+    public void add(int personId, Person person) {
+        for (int i = 0; i < person.getEmbeddingSize(); i++) {
+            add(personId, person.getEmbedding(i));
+        }
+    }
+
+    /**
+     * Add one template, its sign bits are packed and a normalized copy is kept for re-ranking
+     * @param personId : id returned by search, e.g. the NIK
+     * @param embedding : face embedding, e.g. from MobileFaceNet.generateEmbedding
+     */
+    public void add(int personId, float[] embedding) {
+        if (embedding.length != dimension) {
+            throw new IllegalArgumentException("Embedding size " + embedding.length + " != " + dimension);
+        }
+        if (size == personIds.length) {
+            personIds = Arrays.copyOf(personIds, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2 * words);
+        }
+        hash(embedding, hashes, size * words);
+        personIds[size] = personId;
+        exact.add(embedding);
+        size++;
+    }
+
+    /**
+     * Number of templates
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * k persons closest to the probe
+     * @param probe : face embedding, not necessarily normalized
+     * @param k : number of persons
+     * @return persons sorted by increasing cosine distance, at most k
+     */
+    public IdentificationIndex.Result search(float[] probe, int k) {
+        long[] probeHash = new long[words];
+        hash(probe, probeHash, 0);
+
+        // [1] Histogram of the Hamming distances, gives the distance threshold of the best candidates
+        int[] histogram = new int[dimension + 1];
+        for (int t = 0, offset = 0; t < size; t++, offset += words) {
+            histogram[hamming(probeHash, hashes, offset)]++;
+        }
+        int limit = Math.min(candidates, size);
+        int threshold = 0;
+        int below = 0;      // candidates strictly closer than threshold
+        while (threshold < dimension && below + histogram[threshold] < limit) {
+            below += histogram[threshold];
+            threshold++;
+        }
+        int ties = limit - below;
+
+        // [2] Exact re-ranking of the candidates, ties at the threshold in gallery order
+        float[] normalized = new float[dimension];
+        Gallery.normalize(probe, normalized, 0);
+        float[] templates = exact.data();
+        IdentificationIndex.TopK top = new IdentificationIndex.TopK(k);
+        for (int t = 0, offset = 0; t < size; t++, offset += words) {
+            int distance = hamming(probeHash, hashes, offset);
+            if (distance > threshold) continue;
+            if (distance == threshold) {
+                if (ties == 0) continue;
+                ties--;
+            }
+            top.offer(personIds[t], Gallery.dot(normalized, 0, templates, t * dimension, dimension));
+        }
+
+        IdentificationIndex.Result result = new IdentificationIndex.Result(k);
+        top.sort();
+        result.count = top.count;
+        for (int i = 0; i < top.count; i++) {
+            result.personIds[i] = top.personIds[i];
+            result.distances[i] = Math.min(1, Math.max(0, 1 - top.scores[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Pack the sign of every value, bit d % 64 of word d / 64 is set when value d is negative
+     */
+    static void hash(float[] embedding, long[] dst, int offset) {
+        int words = (embedding.length + 63) / 64;
+        for (int w = 0; w < words; w++) {
+            long bits = 0;
+            int end = Math.min(embedding.length, (w + 1) * 64);
+            for (int d = w * 64; d < end; d++) {
+                if (embedding[d] < 0) bits |= 1L << (d & 63);
+            }
+            dst[offset + w] = bits;
+        }
+    }
+
+    private int hamming(long[] probeHash, long[] hashes, int offset) {
+        int distance = 0;
+        for (int w = 0; w < words; w++) {
+            distance += Long.bitCount(probeHash[w] ^ hashes[offset + w]);
+        }
+        return distance;
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.facerecognitiontflite.livenessfirebase
+
+import android.graphics.Bitmap
+import com.example.facerecognitiontflite.mtcnn.YuvFrame
+import id.privy.livenessfirebasesdk.common.FrameMetadata
+import id.privy.livenessfirebasesdk.common.GraphicOverlay
+import id.privy.livenessfirebasesdk.common.VisionImageProcessor
+import java.nio.ByteBuffer
+
+/**
+ * Liveness frame processor that also hands every NV21 preview frame to onFrame
+ * onFrame runs on the camera processing thread after the liveness processor, the camera drops the
+ * frames that arrive meanwhile. The frame bytes are only valid during onFrame, the camera reuses
+ * the buffer afterwards.
+ * @param processor : liveness processor, e.g. VisionDetectionProcessor
+ * @param onFrame : upright YUV frame consumer
+ */
+class PreviewFrameProcessor(private val processor: VisionImageProcessor,
+                            private val onFrame: (YuvFrame) -> Unit) : VisionImageProcessor {
+    // Copy of the frames without an accessible array (direct or read-only buffers), reused between frames
+    private var copy = ByteArray(0)
+
+    override fun process(data: ByteBuffer, frameMetadata: FrameMetadata, graphicOverlay: GraphicOverlay) {
+        processor.process(data, frameMetadata, graphicOverlay)
+        // FrameMetadata rotation is in quarter turns
+        val rotation = frameMetadata.rotation * 90
+        if (data.hasArray()) {
+            onFrame(YuvFrame.fromNv21(data.array(), data.arrayOffset() + data.position(),
+                frameMetadata.width, frameMetadata.height, rotation))
+        } else {
+            if (copy.size < data.remaining()) {
+                copy = ByteArray(data.remaining())
+            }
+            data.duplicate().get(copy, 0, data.remaining())
+            onFrame(YuvFrame.fromNv21(copy, frameMetadata.width, frameMetadata.height, rotation))
+        }
+    }
+
+    override fun process(bitmap: Bitmap, graphicOverlay: GraphicOverlay) {
+        processor.process(bitmap, graphicOverlay)
+    }
+
+    override fun stop() {
+        processor.stop()
+    }
+}
@@ -2,13 +2,14 @@ package com.example.facerecognitiontflite.livenessfirebase
 
 import android.Manifest
 import android.graphics.Bitmap
-import android.graphics.BitmapFactory
 import android.os.Bundle
 import android.os.Handler
 import android.util.Log
 import androidx.appcompat.app.AppCompatActivity
 import androidx.lifecycle.Observer
+import com.example.facerecognitiontflite.MyUtil
 import com.example.facerecognitiontflite.R
+import com.example.facerecognitiontflite.mtcnn.YuvFrame
 import id.privy.livenessfirebasesdk.common.*
 import id.privy.livenessfirebasesdk.event.LivenessEventProvider
 import id.privy.livenessfirebasesdk.vision.VisionDetectionProcessor
@@ -31,6 +32,9 @@ class SimpleLivenessActivity : AppCompatActivity() {
 
     private var success = false
 
+    // Set once the challenge is done, the next preview frame is the result
+    @Volatile private var capture = false
+
     private lateinit var successText: String
 
     private var isDebug = false
@@ -100,6 +104,7 @@ class SimpleLivenessActivity : AppCompatActivity() {
 
     override fun onPause() {
         super.onPause()
+        capture = false
         preview?.stop()
         LivenessEventProvider.getEventLiveData().postValue(null)
     }
@@ -140,7 +145,7 @@ class SimpleLivenessActivity : AppCompatActivity() {
         visionDetectionProcessor!!.isSimpleLiveness(true, this, motion)
         visionDetectionProcessor!!.isDebugMode(isDebug)
 
-        cameraSource!!.setMachineLearningFrameProcessor(visionDetectionProcessor)
+        cameraSource!!.setMachineLearningFrameProcessor(PreviewFrameProcessor(visionDetectionProcessor!!, this::captureFrame))
     }
 
     private fun startCameraSource() {
@@ -161,7 +166,8 @@ class SimpleLivenessActivity : AppCompatActivity() {
     fun navigateBack(success: Boolean, bitmap: Bitmap?) {
         if (bitmap != null) {
             if (success) {
-                LivenessApp.setCameraResultData(BitmapUtils.processBitmap(bitmap))
+                // The preview frame is already upright
+                LivenessApp.setCameraResultData(bitmap)
                 finish()
             }
             else {
@@ -187,11 +193,21 @@ class SimpleLivenessActivity : AppCompatActivity() {
     private fun onDefaultEvent() {
         if (success) {
             Handler().postDelayed({
-                cameraSource!!.takePicture(null, com.google.android.gms.vision.CameraSource.PictureCallback {
-                    navigateBack(true, BitmapFactory.decodeByteArray(it, 0, it.size))
-                })
+                capture = true
             }, 500)
         }
     }
 
+    /**
+     * Convert the preview frame once the challenge is done, instead of taking and decoding a picture
+     * Runs on the camera processing thread
+     * @param frame : upright NV21 preview frame, only valid during the call
+     */
+    private fun captureFrame(frame: YuvFrame) {
+        if (!capture) return
+        capture = false
+        val bitmap = MyUtil.toBitmap(frame)
+        runOnUiThread { navigateBack(true, bitmap) }
+    }
+
 }
\ No newline at end of file
@@ -2,12 +2,20 @@ package com.example.facerecognitiontflite.mobilefacenet;
 
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
+import android.graphics.Point;
 
+import com.example.facerecognitiontflite.AlignedFace;
 import com.example.facerecognitiontflite.MyUtil;
+import com.example.facerecognitiontflite.mtcnn.Align;
+import com.example.facerecognitiontflite.mtcnn.PixelResampler;
+import com.example.facerecognitiontflite.mtcnn.TensorBuffer;
+import com.example.facerecognitiontflite.mtcnn.YuvFrame;
 
 import org.tensorflow.lite.Interpreter;
 
 import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.List;
 
 /**
  * MobileFaceNet : Face Verification
@@ -20,40 +28,228 @@ public class MobileFaceNet {
 
     public static final int EMBEDDING_SIZE = 256;
 
-    public static float THRESHOLD = 0.3f;
+    public static final float THRESHOLD = 0.3f;     // default distance threshold (WFH), callers keep the one of their mode
+
+    /**
+     * Face preprocessing before the embedding, probes and base data must use the same one
+     */
+    public enum Alignment {
+        CROP,   // square crop of the upright face (MyUtil.alignFace with redetect) resized to 112x112, the enrolled base data and thresholds
+        WARP    // similarity warp of the oNet landmarks onto the 112x112 template, needs base data enrolled and thresholds tuned with it
+    }
+
+    private static final int INPUT_FLOATS = INPUT_IMAGE_SIZE * INPUT_IMAGE_SIZE * 3;
 
     private final Interpreter interpreter;
 
+    // Input [n][112][112][3] written in place by the warp, output [n][256], reused between calls
+    private final int[] inputShape = {1, INPUT_IMAGE_SIZE, INPUT_IMAGE_SIZE, 3};
+    private int batchSize = 1;
+    private int maxBatchSize = 8;
+    private final TensorBuffer input = new TensorBuffer();
+    private final TensorBuffer output = new TensorBuffer();
+    private final PixelResampler resampler = new PixelResampler();
+    private int[] regionPixels = new int[0];
+    private Alignment alignment = Alignment.CROP;
+
     public MobileFaceNet(AssetManager assetManager) throws IOException {
         Interpreter.Options options = new Interpreter.Options();
         options.setNumThreads(4);
+        options.setCancellable(true);
         interpreter = new Interpreter(MyUtil.loadModelFile(assetManager, MODEL_FILE), options);
     }
 
     /**
-     * Set Mobile FaceNet threshold
-     * @param threshold
+     * Cancel the run in progress on another thread, the cancelled run throws IllegalStateException
+     * The flag stays set until setCancelled(false), see ConcurrentVerifier
+     * @param cancelled
      */
-    public void setThreshold(float threshold){
-        this.THRESHOLD = threshold;
+    public void setCancelled(boolean cancelled){
+        interpreter.setCancelled(cancelled);
     }
 
     /**
      * Generate Embedding from respective bitmap
+     * The bitmap is resized (bilinear) straight into the reused input, like generateEmbeddings
      * @param bitmap : input bitmap image
      * @return
      */
     public float[] generateEmbedding(Bitmap bitmap){
-        Bitmap bitmapResize = Bitmap.createScaledBitmap(bitmap, INPUT_IMAGE_SIZE, INPUT_IMAGE_SIZE,true);
+        resizeBatch(1);
+        input.resize(INPUT_FLOATS);
+        resize(bitmap, 0);
+        return runSingle();
+    }
+
+    /**
+     * Set the largest batch run by generateEmbeddings, see MobileFaceNetBenchmark to tune it on a device
+     * @param maxBatchSize
+     */
+    public void setMaxBatchSize(int maxBatchSize){
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+    }
+
+    /**
+     * Generate Embeddings of several face bitmaps, maxBatchSize faces per interpreter run
+     * Every bitmap is resized (bilinear) straight into the reused batch input.
+     * @param bitmaps : input bitmap images
+     * @return embeddings, face i is at [i * EMBEDDING_SIZE, (i + 1) * EMBEDDING_SIZE)
+     */
+    public float[] generateEmbeddings(List<Bitmap> bitmaps){
+        int n = bitmaps.size();
+        float[] embeddings = new float[n * EMBEDDING_SIZE];
+        for (int start = 0; start < n; start += maxBatchSize) {
+            int count = Math.min(maxBatchSize, n - start);
+            resizeBatch(count);
+
+            // [1] Fill the batch input
+            input.resize(count * INPUT_FLOATS);
+            for (int i = 0; i < count; i++) {
+                resize(bitmaps.get(start + i), i * INPUT_FLOATS);
+            }
 
-        int[] ddims = {1, INPUT_IMAGE_SIZE, INPUT_IMAGE_SIZE, 3};
-        float[][][][] datasets = new float[ddims[0]][ddims[1]][ddims[2]][ddims[3]];
+            // [2] Run the batch
+            output.resize(count * EMBEDDING_SIZE);
+            interpreter.run(input.buffer(), output.buffer());
 
-        datasets[0] = MyUtil.normalizeImage(bitmapResize);
+            // [3] Copy the embeddings
+            FloatBuffer result = output.floats();
+            result.rewind();
+            result.get(embeddings, start * EMBEDDING_SIZE, count * EMBEDDING_SIZE);
+        }
+        return embeddings;
+    }
+
+    /**
+     * Resize the whole bitmap into the input at offset
+     */
+    private void resize(Bitmap bitmap, int offset){
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (regionPixels.length < width * height) {
+            regionPixels = new int[width * height];
+        }
+        bitmap.getPixels(regionPixels, 0, width, 0, 0, width, height);
+        float[] m = {
+                (float) width / INPUT_IMAGE_SIZE, 0, 0,
+                0, (float) height / INPUT_IMAGE_SIZE, 0
+        };
+        resampler.warpAffine(regionPixels, width, height, m, INPUT_IMAGE_SIZE, input.floats(), offset);
+    }
+
+    /**
+     * Run the single face input into the reused output
+     * @return copy of the embedding, owned by the caller
+     */
+    private float[] runSingle(){
+        output.resize(EMBEDDING_SIZE);
+        interpreter.run(input.buffer(), output.buffer());
+        float[] embedding = new float[EMBEDDING_SIZE];
+        FloatBuffer result = output.floats();
+        result.rewind();
+        result.get(embedding);
+        return embedding;
+    }
+
+    /**
+     * Resize the interpreter input batch dimension, nothing is done when it did not change
+     */
+    private void resizeBatch(int n){
+        if (n == batchSize) return;
+        inputShape[0] = n;
+        interpreter.resizeInput(0, inputShape);
+        batchSize = n;
+    }
+
+    /**
+     * Set the face preprocessing of generateEmbedding(AlignedFace), CROP by default
+     * @param alignment
+     */
+    public void setAlignment(Alignment alignment){
+        this.alignment = alignment;
+    }
+
+    public Alignment getAlignment(){
+        return alignment;
+    }
+
+    /**
+     * Generate Embedding of a detected face with the preprocessing set by setAlignment
+     * @param face : face from MyUtil.alignFace, with redetect for Alignment.CROP
+     * @return
+     */
+    public float[] generateEmbedding(AlignedFace face){
+        if (alignment == Alignment.CROP) {
+            return generateEmbedding(face.crop);
+        }
+        if (face.yuv != null) {
+            return generateEmbedding(face.yuv, face.box.landmark);
+        }
+        return generateEmbedding(face.frame, face.box.landmark);
+    }
+
+    /**
+     * Generate Embedding of the face with the given landmarks
+     * The landmarks are mapped onto the 112x112 template with a similarity transform and only
+     * the face region of the frame is warped, in one pass, into the model input
+     * @param frame : image the landmarks refer to
+     * @param landmarks : face landmarks from oNet
+     * @return
+     */
+    public float[] generateEmbedding(Bitmap frame, Point[] landmarks){
+        return generateEmbedding(frame, null, frame.getWidth(), frame.getHeight(), landmarks);
+    }
+
+    /**
+     * Same as generateEmbedding(Bitmap, Point[]) on a camera frame, only the face region is converted from YUV
+     * @param frame : upright camera frame the landmarks refer to
+     * @param landmarks : face landmarks from oNet
+     * @return
+     */
+    public float[] generateEmbedding(YuvFrame frame, Point[] landmarks){
+        return generateEmbedding(null, frame, frame.getWidth(), frame.getHeight(), landmarks);
+    }
+
+    private float[] generateEmbedding(Bitmap bitmap, YuvFrame yuv, int width, int height, Point[] landmarks){
+        float[] m = Align.similarityTransform(landmarks, INPUT_IMAGE_SIZE);
+
+        // [1] Footprint of the aligned face in the frame, +1 pixel for the bilinear neighbours
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int corner = 0; corner < 4; corner++) {
+            float u = (corner & 1) * INPUT_IMAGE_SIZE;
+            float v = (corner >> 1) * INPUT_IMAGE_SIZE;
+            float x = m[0] * u + m[1] * v + m[2];
+            float y = m[3] * u + m[4] * v + m[5];
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+        }
+        int left = Math.max(0, Math.min(width - 1, (int) Math.floor(minX) - 1));
+        int top = Math.max(0, Math.min(height - 1, (int) Math.floor(minY) - 1));
+        int right = Math.max(left, Math.min(width - 1, (int) Math.ceil(maxX) + 1));
+        int bottom = Math.max(top, Math.min(height - 1, (int) Math.ceil(maxY) + 1));
+        int regionW = right - left + 1;
+        int regionH = bottom - top + 1;
+
+        // [2] Read only that region
+        if (regionPixels.length < regionW * regionH) {
+            regionPixels = new int[regionW * regionH];
+        }
+        if (yuv != null) {
+            yuv.convert(regionPixels, 0, regionW, left, top, right + 1, bottom + 1);
+        } else {
+            bitmap.getPixels(regionPixels, 0, regionW, left, top, regionW, regionH);
+        }
 
-        float[][] embeddings = new float[1][EMBEDDING_SIZE];
-        interpreter.run(datasets, embeddings);
-        return embeddings[0];
+        // [3] Warp into the model input, relative to the region
+        m[2] -= left;
+        m[5] -= top;
+        resizeBatch(1);
+        input.resize(INPUT_FLOATS);
+        resampler.warpAffine(regionPixels, regionW, regionH, m, INPUT_IMAGE_SIZE, input.floats(), 0);
+        return runSingle();
     }
 
     /**
@@ -69,8 +265,8 @@ public class MobileFaceNet {
         float normB = 0.0f;
         for (int i=0; i<embeddings1.length; i++){
             dotProduct = dotProduct + (embeddings1[i] * embeddings2[i]);
-            normA = (float)(normA + (Math.pow(embeddings1[i], 2.0)));
-            normB = (float)(normB + (Math.pow(embeddings1[i], 2.0)));
+            normA = normA + (embeddings1[i] * embeddings1[i]);
+            normB = normB + (embeddings2[i] * embeddings2[i]);
         }
         float distance = (float)(1-(dotProduct / (Math.sqrt(normA) * Math.sqrt(normB))));
         return Math.min(1, Math.max(0, distance));
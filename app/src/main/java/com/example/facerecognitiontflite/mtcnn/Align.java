@@ -8,6 +8,14 @@ import android.graphics.Point;
  * Face Alignment using face landamarks
  */
 public class Align {
+    // Canonical position of the five landmarks in a 112x112 face (eyes, nose, mouth corners)
+    private static final float[][] TEMPLATE_112 = {
+            {38.2946f, 51.6963f},
+            {73.5318f, 51.5014f},
+            {56.0252f, 71.7366f},
+            {41.5493f, 92.3655f},
+            {70.7299f, 92.2041f}
+    };
 
     /**
      * @param bitmap : input bitmap image
@@ -28,4 +36,44 @@ public class Align {
         matrix.setRotate(-fAngle);
         return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
     }
+
+    /**
+     * Least squares similarity transform (rotation, uniform scale, translation) mapping the
+     * canonical template of a size*size face onto the detected landmarks
+     * @param landmarks : face landmarks from oNet
+     * @param size : aligned face size
+     * @return destination to source transform {m0, m1, m2, m3, m4, m5} : x = m0 * u + m1 * v + m2, y = m3 * u + m4 * v + m5
+     */
+    public static float[] similarityTransform(Point[] landmarks, int size) {
+        float ratio = size / 112.0f;
+        int n = TEMPLATE_112.length;
+        float qx = 0, qy = 0, px = 0, py = 0;
+        for (int i = 0; i < n; i++) {
+            qx += TEMPLATE_112[i][0] * ratio;
+            qy += TEMPLATE_112[i][1] * ratio;
+            px += landmarks[i].x;
+            py += landmarks[i].y;
+        }
+        qx /= n;
+        qy /= n;
+        px /= n;
+        py /= n;
+
+        float norm = 0, dot = 0, cross = 0;
+        for (int i = 0; i < n; i++) {
+            float ux = TEMPLATE_112[i][0] * ratio - qx;
+            float uy = TEMPLATE_112[i][1] * ratio - qy;
+            float vx = landmarks[i].x - px;
+            float vy = landmarks[i].y - py;
+            norm += ux * ux + uy * uy;
+            dot += ux * vx + uy * vy;
+            cross += ux * vy - uy * vx;
+        }
+        float a = dot / norm;
+        float b = cross / norm;
+        return new float[]{
+                a, -b, px - (a * qx - b * qy),
+                b, a, py - (b * qx + a * qy)
+        };
+    }
 }
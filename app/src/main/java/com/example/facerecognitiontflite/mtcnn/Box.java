@@ -14,12 +14,14 @@ public class Box {
     public float[] bbr;         // bounding box regression
     public boolean deleted;
     public Point[] landmark;    // facial landmark. Only ONet outputs Landmark
+    public int trackId;         // same id for the same face across frames, set by FaceTracker (-1 otherwise)
 
     public Box() {
         box = new int[4];
         bbr = new float[4];
         deleted = false;
         landmark = new Point[5];
+        trackId = -1;
     }
 
     public int left() {
@@ -61,6 +63,15 @@ public class Box {
         return width() * height();
     }
 
+    // Intersection over union with another box
+    public float iou(Box other) {
+        int w = Math.min(box[2], other.box[2]) - Math.max(box[0], other.box[0]) + 1;
+        int h = Math.min(box[3], other.box[3]) - Math.max(box[1], other.box[1]) + 1;
+        if (w <= 0 || h <= 0) return 0;
+        int inter = w * h;
+        return (float) inter / (area() + other.area() - inter);
+    }
+
     // Bounding Box Regression
     public void calibrate() {
         int w = box[2] - box[0] + 1;
@@ -0,0 +1,257 @@
+package com.example.facerecognitiontflite.mtcnn;
+
+import android.graphics.Point;
+
+import java.util.Arrays;
+import java.util.Vector;
+
+/**
+ * Candidate boxes of the detection cascade stored as parallel primitive arrays
+ * Same conventions as Box : inclusive coordinates, bbr is the bounding box regression and
+ * landmarks are only written by oNet. Deleted boxes are flagged in a bitmask and removed by compact().
+ */
+public class BoxList {
+    private int size;
+
+    int[] x1;           // left
+    int[] y1;           // top
+    int[] x2;           // right
+    int[] y2;           // bottom
+    float[] score;      // probability
+    float[] bbr;        // bounding box regression, 4 per box
+    int[] landmark;     // facial landmark, x0..x4 then y0..y4, 10 per box
+    private long[] deleted;
+    private long[] order = new long[0];  // scratch of keepLargest
+
+    public BoxList() {
+        this(64);
+    }
+
+    public BoxList(int capacity) {
+        capacity = Math.max(1, capacity);
+        x1 = new int[capacity];
+        y1 = new int[capacity];
+        x2 = new int[capacity];
+        y2 = new int[capacity];
+        score = new float[capacity];
+        bbr = new float[capacity * 4];
+        landmark = new int[capacity * 10];
+        deleted = new long[(capacity + 63) >> 6];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(deleted, 0, (size + 63) >> 6, 0L);
+        size = 0;
+    }
+
+    /**
+     * Append a box, the regression and landmarks are reset
+     * @return index of the new box
+     */
+    public int add(int left, int top, int right, int bottom, float score) {
+        if (size == x1.length) grow(size * 2);
+        int i = size++;
+        x1[i] = left;
+        y1[i] = top;
+        x2[i] = right;
+        y2[i] = bottom;
+        this.score[i] = score;
+        Arrays.fill(bbr, i * 4, i * 4 + 4, 0f);
+        Arrays.fill(landmark, i * 10, i * 10 + 10, 0);
+        return i;
+    }
+
+    /**
+     * Append the boxes of other which are not deleted
+     */
+    public void addAll(BoxList other) {
+        for (int j = 0; j < other.size; j++) {
+            if (other.isDeleted(j)) continue;
+            int i = add(other.x1[j], other.y1[j], other.x2[j], other.y2[j], other.score[j]);
+            System.arraycopy(other.bbr, j * 4, bbr, i * 4, 4);
+            System.arraycopy(other.landmark, j * 10, landmark, i * 10, 10);
+        }
+    }
+
+    public int left(int i) {
+        return x1[i];
+    }
+
+    public int top(int i) {
+        return y1[i];
+    }
+
+    public int right(int i) {
+        return x2[i];
+    }
+
+    public int bottom(int i) {
+        return y2[i];
+    }
+
+    public int width(int i) {
+        return x2[i] - x1[i] + 1;
+    }
+
+    public int height(int i) {
+        return y2[i] - y1[i] + 1;
+    }
+
+    public float score(int i) {
+        return score[i];
+    }
+
+    public void setScore(int i, float score) {
+        this.score[i] = score;
+    }
+
+    public void setBbr(int i, int k, float value) {
+        bbr[i * 4 + k] = value;
+    }
+
+    public void setLandmark(int i, int k, int x, int y) {
+        landmark[i * 10 + k] = x;
+        landmark[i * 10 + k + 5] = y;
+    }
+
+    public boolean isDeleted(int i) {
+        return (deleted[i >> 6] & (1L << i)) != 0;
+    }
+
+    public void delete(int i) {
+        deleted[i >> 6] |= 1L << i;
+    }
+
+    /**
+     * Bounding Box Regression of every box not deleted
+     */
+    public void calibrate() {
+        for (int i = 0; i < size; i++) {
+            if (isDeleted(i)) continue;
+            int w = x2[i] - x1[i] + 1;
+            int h = y2[i] - y1[i] + 1;
+            int b = i * 4;
+            x1[i] = (int) (x1[i] + w * bbr[b]);
+            y1[i] = (int) (y1[i] + h * bbr[b + 1]);
+            x2[i] = (int) (x2[i] + w * bbr[b + 2]);
+            y2[i] = (int) (y2[i] + h * bbr[b + 3]);
+            bbr[b] = bbr[b + 1] = bbr[b + 2] = bbr[b + 3] = 0.0f;
+        }
+    }
+
+    /**
+     * Convert every box into a square then prevent boundary overflow and maintain square size
+     * @param w : image width
+     * @param h : image height
+     */
+    public void squareLimit(int w, int h) {
+        for (int i = 0; i < size; i++) {
+            // square
+            int bw = x2[i] - x1[i] + 1;
+            int bh = y2[i] - y1[i] + 1;
+            if (bw > bh) {
+                y1[i] -= (bw - bh) / 2;
+                y2[i] += (bw - bh + 1) / 2;
+            } else {
+                x1[i] -= (bh - bw) / 2;
+                x2[i] += (bh - bw + 1) / 2;
+            }
+            // limit
+            if (x1[i] < 0 || y1[i] < 0) {
+                int len = Math.max(-x1[i], -y1[i]);
+                x1[i] += len;
+                y1[i] += len;
+            }
+            if (x2[i] >= w || y2[i] >= h) {
+                int len = Math.max(x2[i] - w + 1, y2[i] - h + 1);
+                x2[i] -= len;
+                y2[i] -= len;
+            }
+        }
+    }
+
+    /**
+     * Delete the boxes marked with delete, in place and keeping the order
+     */
+    public void compact() {
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (isDeleted(i)) continue;
+            if (n != i) {
+                x1[n] = x1[i];
+                y1[n] = y1[i];
+                x2[n] = x2[i];
+                y2[n] = y2[i];
+                score[n] = score[i];
+                System.arraycopy(bbr, i * 4, bbr, n * 4, 4);
+                System.arraycopy(landmark, i * 10, landmark, n * 10, 10);
+            }
+            n++;
+        }
+        Arrays.fill(deleted, 0, (size + 63) >> 6, 0L);
+        size = n;
+    }
+
+    /**
+     * Keep the k boxes with the highest area * score, then compact
+     * @param k : number of boxes to keep
+     */
+    public void keepLargest(int k) {
+        compact();
+        if (size <= k) return;
+        if (order.length < size) order = new long[size];
+        for (int i = 0; i < size; i++) {
+            float key = (float) width(i) * height(i) * score[i];
+            // Non-negative floats keep their order as int bits, sort descending
+            order[i] = ((long) ~Float.floatToIntBits(Math.max(key, 0f)) << 32) | i;
+        }
+        Arrays.sort(order, 0, size);
+        for (int o = k; o < size; o++) {
+            delete((int) order[o]);
+        }
+        compact();
+    }
+
+    /**
+     * Create the Box object of box i
+     */
+    public Box toBox(int i) {
+        Box box = new Box();
+        box.box[0] = x1[i];
+        box.box[1] = y1[i];
+        box.box[2] = x2[i];
+        box.box[3] = y2[i];
+        box.score = score[i];
+        System.arraycopy(bbr, i * 4, box.bbr, 0, 4);
+        for (int k = 0; k < 5; k++) {
+            box.landmark[k] = new Point(landmark[i * 10 + k], landmark[i * 10 + k + 5]);
+        }
+        return box;
+    }
+
+    /**
+     * Create the Box objects of the boxes not deleted
+     */
+    public Vector<Box> toBoxes() {
+        Vector<Box> boxes = new Vector<>();
+        for (int i = 0; i < size; i++) {
+            if (!isDeleted(i)) boxes.addElement(toBox(i));
+        }
+        return boxes;
+    }
+
+    private void grow(int capacity) {
+        x1 = Arrays.copyOf(x1, capacity);
+        y1 = Arrays.copyOf(y1, capacity);
+        x2 = Arrays.copyOf(x2, capacity);
+        y2 = Arrays.copyOf(y2, capacity);
+        score = Arrays.copyOf(score, capacity);
+        bbr = Arrays.copyOf(bbr, capacity * 4);
+        landmark = Arrays.copyOf(landmark, capacity * 10);
+        deleted = Arrays.copyOf(deleted, (capacity + 63) >> 6);
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.facerecognitiontflite.mtcnn;
+
+import android.graphics.Bitmap;
+
+import java.util.Vector;
+
+/**
+ * Face tracking on a continuous camera stream
+ * A keyframe runs the full MTCNN cascade, the frames in between only run rNet / oNet around the
+ * faces of the previous frame (MTCNN.refineFaces). A keyframe is forced every keyframeInterval frames,
+ * and on the same frame when a face is lost or its score drops under minScore.
+ * Faces matched between two frames by IoU keep their track id.
+ */
+public class FaceTracker {
+    private final MTCNN mtcnn;
+    private int keyframeInterval = 10;
+    private float minScore = 0.8f;
+    private float expansion = 0.1f;
+    private float matchIou = 0.3f;
+
+    private Vector<Box> tracks = new Vector<>();
+    private int framesSinceKeyframe;
+    private int nextTrackId;
+
+    public FaceTracker(MTCNN mtcnn) {
+        this.mtcnn = mtcnn;
+    }
+
+    /**
+     * Run the full detection at least every interval frames
+     * @param interval : 1 runs pNet on every frame
+     */
+    public void setKeyframeInterval(int interval) {
+        this.keyframeInterval = Math.max(1, interval);
+    }
+
+    /**
+     * oNet score under which a tracked face triggers a full detection
+     * @param minScore
+     */
+    public void setMinScore(float minScore) {
+        this.minScore = minScore;
+    }
+
+    /**
+     * ROI margin on each side of a tracked face, relative to its size
+     * @param expansion
+     */
+    public void setExpansion(float expansion) {
+        this.expansion = expansion;
+    }
+
+    /**
+     * Minimum IoU between two frames to keep the track id
+     * @param iou
+     */
+    public void setMatchIou(float iou) {
+        this.matchIou = iou;
+    }
+
+    /**
+     * Forget every track, the next frame is a keyframe
+     */
+    public void reset() {
+        tracks = new Vector<>();
+        framesSinceKeyframe = 0;
+    }
+
+    /**
+     * Faces of the next frame of the stream, with their track id
+     * @param bitmap : input bitmap image
+     * @param minFaceSize : The smallest face pixel value, used on keyframes
+     */
+    public Vector<Box> track(Bitmap bitmap, int minFaceSize) {
+        return track(() -> mtcnn.refineFaces(bitmap, tracks, expansion), () -> mtcnn.detectFaces(bitmap, minFaceSize));
+    }
+
+    /**
+     * Faces of the next camera frame of the stream, with their track id
+     * @param frame : YUV frame with its rotation
+     * @param minFaceSize : The smallest face pixel value, used on keyframes
+     */
+    public Vector<Box> track(YuvFrame frame, int minFaceSize) {
+        return track(() -> mtcnn.refineFaces(frame, tracks, expansion), () -> mtcnn.detectFaces(frame, minFaceSize));
+    }
+
+    /**
+     * One detection stage on the current frame
+     */
+    interface Detection {
+        Vector<Box> run();
+    }
+
+    /**
+     * Tracked detection between keyframes, full detection on keyframes and when a face is lost
+     * @param refine : rNet / oNet around the tracks
+     * @param detect : full cascade
+     */
+    Vector<Box> track(Detection refine, Detection detect) {
+        if (!isKeyframe()) {
+            Vector<Box> boxes = refine.run();
+            if (isConfident(boxes)) {
+                return update(boxes, false);
+            }
+        }
+        return update(detect.run(), true);
+    }
+
+    private boolean isKeyframe() {
+        return tracks.isEmpty() || framesSinceKeyframe + 1 >= keyframeInterval;
+    }
+
+    /**
+     * Every track is still found with a score above minScore
+     */
+    private boolean isConfident(Vector<Box> boxes) {
+        if (boxes.size() < tracks.size()) return false;
+        for (Box box : boxes) {
+            if (box.score < minScore) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Give every box the id of the previous track it overlaps the most, greedy by IoU
+     */
+    private Vector<Box> update(Vector<Box> boxes, boolean keyframe) {
+        boolean[] matched = new boolean[tracks.size()];
+        boolean[] assigned = new boolean[boxes.size()];
+        while (true) {
+            int bestBox = -1;
+            int bestTrack = -1;
+            float bestIou = matchIou;
+            for (int i = 0; i < boxes.size(); i++) {
+                if (assigned[i]) continue;
+                for (int t = 0; t < tracks.size(); t++) {
+                    if (matched[t]) continue;
+                    float iou = boxes.get(i).iou(tracks.get(t));
+                    if (iou >= bestIou) {
+                        bestIou = iou;
+                        bestBox = i;
+                        bestTrack = t;
+                    }
+                }
+            }
+            if (bestBox < 0) break;
+            boxes.get(bestBox).trackId = tracks.get(bestTrack).trackId;
+            assigned[bestBox] = true;
+            matched[bestTrack] = true;
+        }
+        for (int i = 0; i < boxes.size(); i++) {
+            if (!assigned[i]) boxes.get(i).trackId = nextTrackId++;
+        }
+
+        // Keep a copy, the caller may modify the returned boxes
+        tracks = new Vector<>(boxes.size());
+        for (Box box : boxes) {
+            Box track = new Box();
+            System.arraycopy(box.box, 0, track.box, 0, 4);
+            track.score = box.score;
+            track.trackId = box.trackId;
+            tracks.add(track);
+        }
+        framesSinceKeyframe = keyframe ? 0 : framesSinceKeyframe + 1;
+        return boxes;
+    }
+}
@@ -2,16 +2,22 @@ package com.example.facerecognitiontflite.mtcnn;
 
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
-import android.graphics.Point;
 
 import com.example.facerecognitiontflite.MyUtil;
 
 import org.tensorflow.lite.Interpreter;
 
 import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * MTCNN : Face Detection
@@ -21,6 +27,8 @@ public class MTCNN {
     private float pNetThreshold = 0.6f;
     private float rNetThreshold = 0.7f;
     private float oNetThreshold = 0.7f;
+    private boolean stitchedPyramid = false;
+    private int dominantFaceTopK = 8;
 
     private static final String MODEL_FILE_PNET = "pnet.tflite";
     private static final String MODEL_FILE_RNET = "rnet.tflite";
@@ -30,12 +38,66 @@ public class MTCNN {
     private Interpreter rInterpreter;
     private Interpreter oInterpreter;
 
+    // pNet state reused between frames
+    private final MappedByteBuffer pNetModel;
+    private PNetPyramid pyramid;
+    private int[] sourcePixels;
+
+    // Camera frame input, its pixels are converted into sourcePixels tile by tile when a crop needs them
+    private static final int TILE = 32;
+    private YuvFrame sourceFrame;
+    private boolean[] tileReady = new boolean[0];
+    private int tileColumns;
+    private BoxList[] levelBoxes = new BoxList[0];
+    private int[] levelWorker = new int[0];
+
+    // pNet workers : the caller thread with pInterpreter, or a pool of workers with their own interpreter
+    private final PNetWorker pNetWorker;
+    private PNetWorker[] pNetWorkers = new PNetWorker[0];
+    private long[] pNetWorkerLoad = new long[0];
+    private ExecutorService pNetExecutor;
+
+    // Non-Max Suppression scratch reused between stages and frames
+    private final Nms nms = new Nms();
+
+    // Candidate boxes reused between frames
+    private final BoxList totalBoxes = new BoxList();
+    private final BoxList trackedBoxes = new BoxList();
+
+    // rNet / oNet batch tensors, the crops are sampled from sourcePixels
+    private final PixelResampler resampler = new PixelResampler();
+    private final Object[] netInputs = new Object[1];
+    private final int[] rNetShape = {0, 24, 24, 3};
+    private final int[] oNetShape = {0, 48, 48, 3};
+    private final TensorBuffer rNetInput = new TensorBuffer();
+    private final TensorBuffer rNetProb = new TensorBuffer();
+    private final TensorBuffer rNetBias = new TensorBuffer();
+    private final TensorBuffer oNetInput = new TensorBuffer();
+    private final TensorBuffer oNetProb = new TensorBuffer();
+    private final TensorBuffer oNetBias = new TensorBuffer();
+    private final TensorBuffer oNetLandmark = new TensorBuffer();
+    private final Map<Integer, Object> rNetOutputs = new HashMap<>();
+    private final Map<Integer, Object> oNetOutputs = new HashMap<>();
+    private final int rNetProbIndex;
+    private final int rNetBiasIndex;
+    private final int oNetProbIndex;
+    private final int oNetBiasIndex;
+    private final int oNetLandmarkIndex;
+
     public MTCNN(AssetManager assetManager) throws IOException {
         Interpreter.Options options = new Interpreter.Options();
         options.setNumThreads(4);
-        pInterpreter = new Interpreter(MyUtil.loadModelFile(assetManager, MODEL_FILE_PNET), options);
+        pNetModel = MyUtil.loadModelFile(assetManager, MODEL_FILE_PNET);
+        pInterpreter = new Interpreter(pNetModel, options);
         rInterpreter = new Interpreter(MyUtil.loadModelFile(assetManager, MODEL_FILE_RNET), options);
         oInterpreter = new Interpreter(MyUtil.loadModelFile(assetManager, MODEL_FILE_ONET), options);
+
+        pNetWorker = new PNetWorker(pInterpreter, false, 0);
+        rNetProbIndex = rInterpreter.getOutputIndex("rnet/prob1");
+        rNetBiasIndex = rInterpreter.getOutputIndex("rnet/conv5-2/conv5-2");
+        oNetProbIndex = oInterpreter.getOutputIndex("onet/prob1");
+        oNetBiasIndex = oInterpreter.getOutputIndex("onet/conv6-2/conv6-2");
+        oNetLandmarkIndex = oInterpreter.getOutputIndex("onet/conv6-3/conv6-3");
     }
 
     /**
@@ -48,322 +110,503 @@ public class MTCNN {
         this.oNetThreshold = threshold + 0.1f;
     }
 
+    /**
+     * Run pNet once on a canvas holding every pyramid level instead of once per level
+     * Saves the per-invoke overhead and the tensor reallocation of every level.
+     * @param stitched
+     */
+    public void setStitchedPyramid(boolean stitched) {
+        this.stitchedPyramid = stitched;
+    }
+
+    /**
+     * Run the pyramid levels at the same time on a bounded pool of workers
+     * Every worker owns a pNet interpreter, the levels are balanced between workers by area.
+     * Ignored in stitched mode which only runs pNet once.
+     * @param workers : number of levels running at the same time, 1 runs the levels one after another
+     * @param threadsPerInterpreter : intra-op threads of every worker interpreter
+     */
+    public void setPyramidParallelism(int workers, int threadsPerInterpreter) {
+        if (pNetExecutor != null) {
+            pNetExecutor.shutdown();
+            pNetExecutor = null;
+        }
+        for (PNetWorker worker : pNetWorkers) {
+            worker.close();
+        }
+        pNetWorkers = new PNetWorker[0];
+        if (workers <= 1) return;
+
+        Interpreter.Options options = new Interpreter.Options();
+        options.setNumThreads(Math.max(1, threadsPerInterpreter));
+        pNetWorkers = new PNetWorker[workers];
+        for (int i = 0; i < workers; i++) {
+            pNetWorkers[i] = new PNetWorker(new Interpreter(pNetModel, options), true, i);
+        }
+        pNetWorkerLoad = new long[workers];
+        pNetExecutor = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "MTCNN-pNet");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
     /**
      * Face Detection
      * @param bitmap : input bitmap image
      * @param minFaceSize : The smallest face pixel value. (The larger the value, the faster the detection)
      */
     public Vector<Box> detectFaces(Bitmap bitmap, int minFaceSize) {
-        Vector<Box> boxes;
+        loadPixels(bitmap);
+        return detectFaces(bitmap.getWidth(), bitmap.getHeight(), minFaceSize);
+    }
+
+    /**
+     * Face Detection on a camera frame, box coordinates are in the upright frame
+     * @param frame : YUV frame with its rotation
+     * @param minFaceSize : The smallest face pixel value. (The larger the value, the faster the detection)
+     */
+    public Vector<Box> detectFaces(YuvFrame frame, int minFaceSize) {
+        loadPixels(frame);
+        return detectFaces(frame.getWidth(), frame.getHeight(), minFaceSize);
+    }
+
+    private Vector<Box> detectFaces(int w, int h, int minFaceSize) {
+        BoxList boxes;
         try {
             // [1] pNet generate candidate boxes
-            boxes = pNet(bitmap, minFaceSize);
-            square_limit(boxes, bitmap.getWidth(), bitmap.getHeight());
+            boxes = pNet(w, h, minFaceSize);
+            boxes.squareLimit(w, h);
 
             // [2] rNet
-            boxes = rNet(bitmap, boxes);
-            square_limit(boxes, bitmap.getWidth(), bitmap.getHeight());
+            boxes = rNet(w, h, boxes);
+            boxes.squareLimit(w, h);
 
             // [3] oNet
-            boxes = oNet(bitmap, boxes);
+            boxes = oNet(w, h, boxes);
         } catch (IllegalArgumentException e) {
             e.printStackTrace();
-            boxes = new Vector<>();
+            return new Vector<>();
         }
-        return boxes;
+        // Box objects are only created for the final faces
+        return boxes.toBoxes();
+    }
+
+    /**
+     * Set the maximum number of candidates sent to rNet and oNet by detectLargestFace
+     * @param topK : candidates kept by area * score
+     */
+    public void setDominantFaceTopK(int topK) {
+        this.dominantFaceTopK = Math.max(1, topK);
+    }
+
+    /**
+     * Dominant face detection : only the largest face is returned
+     * The pyramid is processed from the coarsest level (largest faces) toward the finer ones, every level
+     * goes through rNet / oNet with at most topK candidates, and the search stops as soon as a face is
+     * confirmed by oNet and no finer level could produce a larger face.
+     * @param bitmap : input bitmap image
+     * @param minFaceSize : The smallest face pixel value. (The larger the value, the faster the detection)
+     * @return largest face, null if there is no face
+     */
+    public Box detectLargestFace(Bitmap bitmap, int minFaceSize) {
+        loadPixels(bitmap);
+        return detectLargestFace(bitmap.getWidth(), bitmap.getHeight(), minFaceSize);
+    }
+
+    /**
+     * Dominant face detection on a camera frame, box coordinates are in the upright frame
+     * @param frame : YUV frame with its rotation
+     * @param minFaceSize : The smallest face pixel value. (The larger the value, the faster the detection)
+     * @return largest face, null if there is no face
+     */
+    public Box detectLargestFace(YuvFrame frame, int minFaceSize) {
+        loadPixels(frame);
+        return detectLargestFace(frame.getWidth(), frame.getHeight(), minFaceSize);
     }
 
-    private void square_limit(Vector<Box> boxes, int w, int h) {
-        // square
-        for (int i = 0; i < boxes.size(); i++) {
-            boxes.get(i).toSquareShape();
-            boxes.get(i).limitSquare(w, h);
+    private Box detectLargestFace(int w, int h, int minFaceSize) {
+        Box largest = null;
+        int largestSize = 0;
+        try {
+            preparePyramid(w, h, minFaceSize);
+            buildPyramid();
+            if (pyramid.isStitched()) {
+                pNetWorker.forward(pyramid.canvas());
+            }
+            Arrays.fill(levelWorker, 0);
+            pNetWorker.assign(pyramid, levelBoxes, levelWorker, pNetThreshold);
+
+            for (int l = pyramid.size() - 1; l >= 0; l--) {
+                // Faces found on level l are at most 12 / scale / factor pixels
+                float levelMaxFace = 12.0f / pyramid.level(l).scale / factor;
+                if (largest != null && largestSize >= levelMaxFace) break;
+
+                // [1] pNet on this level only
+                pNetWorker.runLevel(l);
+                BoxList boxes = levelBoxes[l];
+                nms.run(boxes, 0.7f, Nms.Method.UNION);
+                boxes.calibrate();
+                boxes.squareLimit(w, h);
+                boxes.keepLargest(dominantFaceTopK);
+
+                // [2] rNet
+                boxes = rNet(w, h, boxes);
+                boxes.squareLimit(w, h);
+                boxes.keepLargest(dominantFaceTopK);
+
+                // [3] oNet
+                boxes = oNet(w, h, boxes);
+                for (int i = 0; i < boxes.size(); i++) {
+                    int size = Math.max(boxes.width(i), boxes.height(i));
+                    if (size > largestSize) {
+                        largestSize = size;
+                        largest = boxes.toBox(i);
+                    }
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            e.printStackTrace();
+            return null;
         }
+        return largest;
     }
 
     /**
-     * Regression is executed after NMS is executed
-     * (1) For each scale , use NMS with threshold=0.5
-     * (2) For all candidates , use NMS with threshold=0.7
-     * (3) Calibrate Bounding Box
-     * Note: The top line of the CNN input picture, the coordinate is [0..width, 0].
-     * Therefore, Bitmap needs to be folded in half before running the network; the network output is the same.
-     *
+     * Tracked detection : skip pNet and run rNet / oNet on the previous faces only
+     * Every previous box is expanded by expansion * size on each side to follow the motion between
+     * two frames, rNet and oNet then regress it onto the face. A face that moved out of its ROI is lost,
+     * FaceTracker falls back to detectFaces in that case.
      * @param bitmap : input bitmap image
-     * @return
+     * @param previous : faces of the previous frame
+     * @param expansion : ROI margin on each side, relative to the box size
+     * @return faces found in the ROIs
      */
-    private Vector<Box> pNet(Bitmap bitmap, int minSize) {
-        int whMin = Math.min(bitmap.getWidth(), bitmap.getHeight());
-        float currentFaceSize = minSize; // currentFaceSize=minSize/(factor^k) k=0,1,2... until excced whMin
-        Vector<Box> totalBoxes = new Vector<>();
-        // [1] Image Paramid and Feed to pNet
-        while (currentFaceSize <= whMin) {
-            float scale = 12.0f / currentFaceSize;
-
-            // (1) Image Resize
-            Bitmap bm = MyUtil.bitmapResize(bitmap, scale);
-            int w = bm.getWidth();
-            int h = bm.getHeight();
-
-            // (2) RUN CNN
-            int outW = (int) (Math.ceil(w * 0.5 - 5) + 0.5);
-            int outH = (int) (Math.ceil(h * 0.5 - 5) + 0.5);
-            float[][][][] prob1 = new float[1][outW][outH][2];
-            float[][][][] conv4_2_BiasAdd = new float[1][outW][outH][4];
-            pNetForward(bm, prob1, conv4_2_BiasAdd);
-            prob1 = MyUtil.transposeBatch(prob1);
-            conv4_2_BiasAdd = MyUtil.transposeBatch(conv4_2_BiasAdd);
-
-            // (3) Generate Boxes
-            Vector<Box> curBoxes = new Vector<>();
-            generateBoxes(prob1, conv4_2_BiasAdd, scale, curBoxes);
-
-            // (4) NMS with 0.5 of threshold
-            nms(curBoxes, 0.5f, "Union");
-
-            // (5) Add to totalBoxes
-            for (int i = 0; i < curBoxes.size(); i++)
-                if (!curBoxes.get(i).deleted)
-                    totalBoxes.addElement(curBoxes.get(i));
-
-            // Face Size increases proportionally
-            currentFaceSize /= factor;
+    public Vector<Box> refineFaces(Bitmap bitmap, Vector<Box> previous, float expansion) {
+        loadPixels(bitmap);
+        return refineFaces(bitmap.getWidth(), bitmap.getHeight(), previous, expansion);
+    }
+
+    /**
+     * Tracked detection on a camera frame, box coordinates are in the upright frame
+     * @param frame : YUV frame with its rotation
+     * @param previous : faces of the previous frame
+     * @param expansion : ROI margin on each side, relative to the box size
+     * @return faces found in the ROIs
+     */
+    public Vector<Box> refineFaces(YuvFrame frame, Vector<Box> previous, float expansion) {
+        loadPixels(frame);
+        return refineFaces(frame.getWidth(), frame.getHeight(), previous, expansion);
+    }
+
+    private Vector<Box> refineFaces(int w, int h, Vector<Box> previous, float expansion) {
+        BoxList boxes = trackedBoxes;
+        boxes.clear();
+        for (Box box : previous) {
+            int marginX = Math.round(box.width() * expansion);
+            int marginY = Math.round(box.height() * expansion);
+            boxes.add(box.left() - marginX, box.top() - marginY,
+                    box.box[2] + marginX, box.box[3] + marginY, box.score);
         }
+        try {
+            boxes.squareLimit(w, h);
 
-        // NMS 0.7
-        nms(totalBoxes, 0.7f, "Union");
+            // [1] rNet
+            boxes = rNet(w, h, boxes);
+            boxes.squareLimit(w, h);
 
-        // Bounding Box Regression
-        BoundingBoxReggression(totalBoxes);
+            // [2] oNet
+            boxes = oNet(w, h, boxes);
+        } catch (IllegalArgumentException e) {
+            e.printStackTrace();
+            return new Vector<>();
+        }
+        return boxes.toBoxes();
+    }
 
-        return updateBoxes(totalBoxes);
+    /**
+     * Read the pixels once, the pyramid and the rNet / oNet crops are sampled from them
+     */
+    private void loadPixels(Bitmap bitmap) {
+        int w = bitmap.getWidth();
+        int h = bitmap.getHeight();
+        if (sourcePixels == null || sourcePixels.length < w * h) {
+            sourcePixels = new int[w * h];
+        }
+        bitmap.getPixels(sourcePixels, 0, w, 0, 0, w, h);
+        sourceFrame = null;
     }
 
     /**
-     * pNet forward propagation
-     *
-     * @param bitmap : input bitmap image
-     * @param prob1 : output probability
-     * @param conv4_2_BiasAdd
-     * @return
+     * Nothing is converted here : the pyramid samples the YUV planes and the crops convert their tiles
+     * sourcePixels only grows, its rows are w wide whatever its length.
      */
-    private void pNetForward(Bitmap bitmap, float[][][][] prob1, float[][][][] conv4_2_BiasAdd) {
-        float[][][] img = MyUtil.normalizeImage(bitmap);
-        float[][][][] pNetIn = new float[1][][][];
-        pNetIn[0] = img;
-        pNetIn = MyUtil.transposeBatch(pNetIn);
+    private void loadPixels(YuvFrame frame) {
+        int w = frame.getWidth();
+        int h = frame.getHeight();
+        if (sourcePixels == null || sourcePixels.length < w * h) {
+            sourcePixels = new int[w * h];
+        }
+        tileColumns = (w + TILE - 1) / TILE;
+        int tiles = tileColumns * ((h + TILE - 1) / TILE);
+        if (tileReady.length < tiles) {
+            tileReady = new boolean[tiles];
+        }
+        Arrays.fill(tileReady, false);
+        sourceFrame = frame;
+    }
 
-        Map<Integer, Object> outputs = new HashMap<>();
-        outputs.put(pInterpreter.getOutputIndex("pnet/prob1"), prob1);
-        outputs.put(pInterpreter.getOutputIndex("pnet/conv4-2/BiasAdd"), conv4_2_BiasAdd);
+    private void buildPyramid() {
+        if (sourceFrame != null) {
+            pyramid.build(sourceFrame);
+        } else {
+            pyramid.build(sourcePixels);
+        }
+    }
 
-        pInterpreter.runForMultipleInputsOutputs(new Object[]{pNetIn}, outputs);
+    /**
+     * Make sure the pixels a crop of box i samples are in sourcePixels (camera frame input only)
+     * The box is clamped to the image, plus one pixel for the bilinear neighbours.
+     */
+    private void ensurePixels(int w, int h, BoxList boxes, int i) {
+        if (sourceFrame == null) return;
+        int left = Math.max(0, Math.min(w - 1, boxes.left(i)));
+        int top = Math.max(0, Math.min(h - 1, boxes.top(i)));
+        int right = Math.max(0, Math.min(w - 1, boxes.right(i) + 1));
+        int bottom = Math.max(0, Math.min(h - 1, boxes.bottom(i) + 1));
+        for (int ty = top / TILE; ty <= bottom / TILE; ty++) {
+            for (int tx = left / TILE; tx <= right / TILE; tx++) {
+                int tile = ty * tileColumns + tx;
+                if (tileReady[tile]) continue;
+                sourceFrame.convert(sourcePixels, ty * TILE * w + tx * TILE, w, tx * TILE, ty * TILE,
+                        Math.min(w, (tx + 1) * TILE), Math.min(h, (ty + 1) * TILE));
+                tileReady[tile] = true;
+            }
+        }
     }
 
-    private void generateBoxes(float[][][][] prob1, float[][][][] conv4_2_BiasAdd, float scale, Vector<Box> boxes) {
-        int h = prob1[0].length;
-        int w = prob1[0][0].length;
-
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                float score = prob1[0][y][x][1];
-                // Only accept prob > threshold
-                if (score > pNetThreshold) {
-                    Box box = new Box();
-                    // Score
-                    box.score = score;
-                    // Bounding box
-                    box.box[0] = Math.round(x * 2 / scale);
-                    box.box[1] = Math.round(y * 2 / scale);
-                    box.box[2] = Math.round((x * 2 + 11) / scale);
-                    box.box[3] = Math.round((y * 2 + 11) / scale);
-                    // Bounding Box Regression
-                    for (int i = 0; i < 4; i++) {
-                        box.bbr[i] = conv4_2_BiasAdd[0][y][x][i];
-                    }
-                    // Add bounding box
-                    boxes.addElement(box);
-                }
+    private void preparePyramid(int w, int h, int minSize) {
+        if (pyramid == null || !pyramid.matches(w, h, minSize, factor, stitchedPyramid)) {
+            pyramid = new PNetPyramid(w, h, minSize, factor, stitchedPyramid);
+            levelBoxes = new BoxList[pyramid.size()];
+            for (int l = 0; l < levelBoxes.length; l++) {
+                levelBoxes[l] = new BoxList();
             }
+            levelWorker = new int[pyramid.size()];
         }
     }
 
     /**
-     * Non-Max Suppression
+     * Regression is executed after NMS is executed
+     * (1) For each scale , use NMS with threshold=0.5
+     * (2) For all candidates , use NMS with threshold=0.7
+     * (3) Calibrate Bounding Box
+     * Note: The top line of the CNN input picture, the coordinate is [0..width, 0].
+     * Therefore, Bitmap needs to be folded in half before running the network; the network output is the same.
      *
-     * @param boxes : Bounding boxes
-     * @param threshold : Threshold for NMS
-     * @param method : NMS Method
+     * @param w : image width
+     * @param h : image height
+     * @return
      */
-    private void nms(Vector<Box> boxes, float threshold, String method) {
-        // int delete_cnt = 0;
-        for (int i = 0; i < boxes.size(); i++) {
-            Box box = boxes.get(i);
-            if (!box.deleted) {
-                // score < 0 : Indicates that the current rectangular frame is deleted
-                for (int j = i + 1; j < boxes.size(); j++) {
-                    Box box2 = boxes.get(j);
-                    if (!box2.deleted) {
-                        int x1 = Math.max(box.box[0], box2.box[0]);
-                        int y1 = Math.max(box.box[1], box2.box[1]);
-                        int x2 = Math.min(box.box[2], box2.box[2]);
-                        int y2 = Math.min(box.box[3], box2.box[3]);
-                        if (x2 < x1 || y2 < y1) continue;
-                        int areaIoU = (x2 - x1 + 1) * (y2 - y1 + 1);
-                        float iou = 0f;
-                        if (method.equals("Union"))
-                            iou = 1.0f * areaIoU / (box.area() + box2.area() - areaIoU);
-                        else if (method.equals("Min"))
-                            iou = 1.0f * areaIoU / (Math.min(box.area(), box2.area()));
-                        if (iou >= threshold) { // Delete the box with the smaller prob
-                            if (box.score > box2.score)
-                                box2.deleted = true;
-                            else
-                                box.deleted = true;
-                        }
-                    }
-                }
+    private BoxList pNet(int w, int h, int minSize) {
+        preparePyramid(w, h, minSize);
+
+        // (1) Image Paramid, the pixels are read once and every level is derived from the previous one
+        buildPyramid();
+
+        // (2) - (4) RUN CNN, Generate Boxes and NMS with 0.5 of threshold for every level
+        if (pyramid.isStitched() || pNetWorkers.length == 0) {
+            if (pyramid.isStitched()) {
+                // RUN CNN once on the canvas holding every level
+                pNetWorker.forward(pyramid.canvas());
             }
+            Arrays.fill(levelWorker, 0);
+            pNetWorker.assign(pyramid, levelBoxes, levelWorker, pNetThreshold);
+            pNetWorker.call();
+        } else {
+            runLevelsInParallel();
+        }
+
+        // (5) Add to totalBoxes, in level order
+        totalBoxes.clear();
+        for (BoxList boxes : levelBoxes) {
+            totalBoxes.addAll(boxes);
         }
+
+        // NMS 0.7
+        nms.run(totalBoxes, 0.7f, Nms.Method.UNION);
+
+        // Bounding Box Regression
+        totalBoxes.calibrate();
+        totalBoxes.compact();
+
+        return totalBoxes;
     }
 
-    private void BoundingBoxReggression(Vector<Box> boxes) {
-        for (int i = 0; i < boxes.size(); i++)
-            boxes.get(i).calibrate();
+    /**
+     * Balance the levels between the workers by area (largest level first to the least loaded worker)
+     * then wait for every worker
+     */
+    private void runLevelsInParallel() {
+        Arrays.fill(pNetWorkerLoad, 0);
+        for (int l = 0; l < pyramid.size(); l++) {
+            int worker = 0;
+            for (int i = 1; i < pNetWorkers.length; i++) {
+                if (pNetWorkerLoad[i] < pNetWorkerLoad[worker]) worker = i;
+            }
+            levelWorker[l] = worker;
+            pNetWorkerLoad[worker] += (long) pyramid.level(l).w * pyramid.level(l).h;
+        }
+        for (PNetWorker worker : pNetWorkers) {
+            worker.assign(pyramid, levelBoxes, levelWorker, pNetThreshold);
+        }
+        try {
+            for (Future<Void> future : pNetExecutor.invokeAll(Arrays.asList(pNetWorkers))) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IllegalArgumentException) {
+                throw (IllegalArgumentException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
     }
 
     /**
      * Refine Net
-     * @param bitmap : input bitmap image
+     * @param w : image width
+     * @param h : image height
      * @param boxes : Bounding boxes
      * @return
      */
-    private Vector<Box> rNet(Bitmap bitmap, Vector<Box> boxes) {
-        // rNet Input Init
+    private BoxList rNet(int w, int h, BoxList boxes) {
         int num = boxes.size();
-        float[][][][] rNetIn = new float[num][24][24][3];
+        if (num == 0) return boxes;
+
+        // rNet Input Init, every crop is sampled straight into the batch tensor
+        rNetInput.resize(num * 24 * 24 * 3);
         for (int i = 0; i < num; i++) {
-            float[][][] curCrop = MyUtil.cropAndResize(bitmap, boxes.get(i), 24);
-            curCrop = MyUtil.transposeImage(curCrop);
-            rNetIn[i] = curCrop;
+            ensurePixels(w, h, boxes, i);
+            resampler.cropResize(sourcePixels, w, h, boxes.left(i), boxes.top(i), boxes.width(i), boxes.height(i),
+                    24, rNetInput.floats(), i * 24 * 24 * 3);
         }
 
         // Run rNet
-        rNetForward(rNetIn, boxes);
+        rNetForward(num, boxes);
 
         // rNet Threshold
         for (int i = 0; i < num; i++) {
-            if (boxes.get(i).score < rNetThreshold) {
-                boxes.get(i).deleted = true;
+            if (boxes.score(i) < rNetThreshold) {
+                boxes.delete(i);
             }
         }
 
         // Nms
-        nms(boxes, 0.7f, "Union");
-        BoundingBoxReggression(boxes);
-        return updateBoxes(boxes);
+        nms.run(boxes, 0.7f, Nms.Method.UNION);
+        boxes.calibrate();
+        boxes.compact();
+        return boxes;
     }
 
     /**
      * Runs rNET then write score and bias into boxes
-     * @param rNetIn
+     * @param num : batch size
      * @param boxes
      */
-    private void rNetForward(float[][][][] rNetIn, Vector<Box> boxes) {
-        int num = rNetIn.length;
-        float[][] prob1 = new float[num][2];
-        float[][] conv5_2_conv5_2 = new float[num][4];
+    private void rNetForward(int num, BoxList boxes) {
+        rNetShape[0] = num;
+        rInterpreter.resizeInput(0, rNetShape);
+        rNetProb.resize(num * 2);
+        rNetBias.resize(num * 4);
 
-        Map<Integer, Object> outputs = new HashMap<>();
-        outputs.put(rInterpreter.getOutputIndex("rnet/prob1"), prob1);
-        outputs.put(rInterpreter.getOutputIndex("rnet/conv5-2/conv5-2"), conv5_2_conv5_2);
-        rInterpreter.runForMultipleInputsOutputs(new Object[]{rNetIn}, outputs);
+        netInputs[0] = rNetInput.buffer();
+        rNetOutputs.put(rNetProbIndex, rNetProb.buffer());
+        rNetOutputs.put(rNetBiasIndex, rNetBias.buffer());
+        rInterpreter.runForMultipleInputsOutputs(netInputs, rNetOutputs);
 
         // Conversion
+        FloatBuffer prob1 = rNetProb.floats();
+        FloatBuffer conv5_2_conv5_2 = rNetBias.floats();
         for (int i = 0; i < num; i++) {
-            boxes.get(i).score = prob1[i][1];
+            boxes.setScore(i, prob1.get(i * 2 + 1));
             for (int j = 0; j < 4; j++) {
-                boxes.get(i).bbr[j] = conv5_2_conv5_2[i][j];
+                boxes.setBbr(i, j, conv5_2_conv5_2.get(i * 4 + j));
             }
         }
     }
 
     /**
      * oNet
-     * @param bitmap
+     * @param w : image width
+     * @param h : image height
      * @param boxes
      * @return
      */
-    private Vector<Box> oNet(Bitmap bitmap, Vector<Box> boxes) {
-        // oNet Input Init
+    private BoxList oNet(int w, int h, BoxList boxes) {
         int num = boxes.size();
-        float[][][][] oNetIn = new float[num][48][48][3];
+        if (num == 0) return boxes;
+
+        // oNet Input Init, every crop is sampled straight into the batch tensor
+        oNetInput.resize(num * 48 * 48 * 3);
         for (int i = 0; i < num; i++) {
-            float[][][] curCrop = MyUtil.cropAndResize(bitmap, boxes.get(i), 48);
-            curCrop = MyUtil.transposeImage(curCrop);
-            oNetIn[i] = curCrop;
+            ensurePixels(w, h, boxes, i);
+            resampler.cropResize(sourcePixels, w, h, boxes.left(i), boxes.top(i), boxes.width(i), boxes.height(i),
+                    48, oNetInput.floats(), i * 48 * 48 * 3);
         }
 
         // Run oNet
-        oNetForward(oNetIn, boxes);
+        oNetForward(num, boxes);
         // oNet Threshold
         for (int i = 0; i < num; i++) {
-            if (boxes.get(i).score < oNetThreshold) {
-                boxes.get(i).deleted = true;
+            if (boxes.score(i) < oNetThreshold) {
+                boxes.delete(i);
             }
         }
-        BoundingBoxReggression(boxes);
+        boxes.calibrate();
         // NMS
-        nms(boxes, 0.7f, "Min");
-        return updateBoxes(boxes);
+        nms.run(boxes, 0.7f, Nms.Method.MIN);
+        boxes.compact();
+        return boxes;
     }
 
     /**
      * Runs oNet then write score and bias into boxes
-     * @param oNetIn
+     * @param num : batch size
      * @param boxes
      */
-    private void oNetForward(float[][][][] oNetIn, Vector<Box> boxes) {
-        int num = oNetIn.length;
-        float[][] prob1 = new float[num][2];
-        float[][] conv6_2_conv6_2 = new float[num][4];
-        float[][] conv6_3_conv6_3 = new float[num][10];
-
-        Map<Integer, Object> outputs = new HashMap<>();
-        outputs.put(oInterpreter.getOutputIndex("onet/prob1"), prob1);
-        outputs.put(oInterpreter.getOutputIndex("onet/conv6-2/conv6-2"), conv6_2_conv6_2);
-        outputs.put(oInterpreter.getOutputIndex("onet/conv6-3/conv6-3"), conv6_3_conv6_3);
-        oInterpreter.runForMultipleInputsOutputs(new Object[]{oNetIn}, outputs);
+    private void oNetForward(int num, BoxList boxes) {
+        oNetShape[0] = num;
+        oInterpreter.resizeInput(0, oNetShape);
+        oNetProb.resize(num * 2);
+        oNetBias.resize(num * 4);
+        oNetLandmark.resize(num * 10);
+
+        netInputs[0] = oNetInput.buffer();
+        oNetOutputs.put(oNetProbIndex, oNetProb.buffer());
+        oNetOutputs.put(oNetBiasIndex, oNetBias.buffer());
+        oNetOutputs.put(oNetLandmarkIndex, oNetLandmark.buffer());
+        oInterpreter.runForMultipleInputsOutputs(netInputs, oNetOutputs);
 
         // Conversion
+        FloatBuffer prob1 = oNetProb.floats();
+        FloatBuffer conv6_2_conv6_2 = oNetBias.floats();
+        FloatBuffer conv6_3_conv6_3 = oNetLandmark.floats();
         for (int i = 0; i < num; i++) {
             // Probability
-            boxes.get(i).score = prob1[i][1];
+            boxes.setScore(i, prob1.get(i * 2 + 1));
             // Bias
             for (int j = 0; j < 4; j++) {
-                boxes.get(i).bbr[j] = conv6_2_conv6_2[i][j];
+                boxes.setBbr(i, j, conv6_2_conv6_2.get(i * 4 + j));
             }
             // Landmark
             for (int j = 0; j < 5; j++) {
-                int x = Math.round(boxes.get(i).left() + (conv6_3_conv6_3[i][j] * boxes.get(i).width()));
-                int y = Math.round(boxes.get(i).top() + (conv6_3_conv6_3[i][j + 5] * boxes.get(i).height()));
-                boxes.get(i).landmark[j] = new Point(x, y);
-            }
-        }
-    }
-
-    /**
-     * Delete the box marked with delete
-     * @param boxes : Bounding boxes
-     * @return
-     */
-    public static Vector<Box> updateBoxes(Vector<Box> boxes) {
-        Vector<Box> b = new Vector<>();
-        for (int i = 0; i < boxes.size(); i++) {
-            if (!boxes.get(i).deleted) {
-                b.addElement(boxes.get(i));
+                int x = Math.round(boxes.left(i) + (conv6_3_conv6_3.get(i * 10 + j) * boxes.width(i)));
+                int y = Math.round(boxes.top(i) + (conv6_3_conv6_3.get(i * 10 + j + 5) * boxes.height(i)));
+                boxes.setLandmark(i, j, x, y);
             }
         }
-        return b;
     }
 }
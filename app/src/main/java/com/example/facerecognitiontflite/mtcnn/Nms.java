@@ -0,0 +1,187 @@
+package com.example.facerecognitiontflite.mtcnn;
+
+import java.util.Arrays;
+
+/**
+ * Non-Max Suppression
+ * Candidates are visited in descending score order, every kept box only tests the boxes that share
+ * a cell of a uniform grid with it. Coordinates, areas and flags are kept in primitive arrays which
+ * are reused between calls, so one instance must not be shared between threads.
+ */
+public class Nms {
+    public enum Method {
+        UNION,  // intersection over union
+        MIN     // intersection over the smaller box
+    }
+
+    private int[] x1 = new int[0];
+    private int[] y1 = new int[0];
+    private int[] x2 = new int[0];
+    private int[] y2 = new int[0];
+    private int[] area = new int[0];
+    private boolean[] suppressed = new boolean[0];
+    private int[] source = new int[0];   // index in the caller container
+    private int[] stamp = new int[0];    // last kept box that tested this box
+    private long[] order = new long[0];  // (score key, index) sorted descending by score
+    private int[] rank = new int[0];     // position in the score order
+
+    // Grid in CSR layout : the boxes of cell c are cellBoxes[cellStart[c] .. cellStart[c + 1])
+    private int[] cellStart = new int[0];
+    private int[] cellBoxes = new int[0];
+    private int cellSize;
+    private int cols;
+    private int rows;
+    private int gridX;
+    private int gridY;
+
+    /**
+     * Suppress the boxes of a BoxList, the lower score box of each overlapping pair is marked deleted
+     * @param boxes : Bounding boxes, already deleted boxes are ignored
+     * @param threshold : Threshold for NMS
+     * @param method : NMS Method
+     */
+    public void run(BoxList boxes, float threshold, Method method) {
+        ensureCapacity(boxes.size());
+        int n = 0;
+        for (int i = 0; i < boxes.size(); i++) {
+            if (!boxes.isDeleted(i)) {
+                load(n++, i, boxes.x1[i], boxes.y1[i], boxes.x2[i], boxes.y2[i], boxes.score[i]);
+            }
+        }
+        suppress(n, threshold, method);
+        for (int k = 0; k < n; k++) {
+            if (suppressed[k]) boxes.delete(source[k]);
+        }
+    }
+
+    private void load(int k, int index, int left, int top, int right, int bottom, float score) {
+        x1[k] = left;
+        y1[k] = top;
+        x2[k] = right;
+        y2[k] = bottom;
+        area[k] = (right - left + 1) * (bottom - top + 1);
+        suppressed[k] = false;
+        source[k] = index;
+        stamp[k] = -1;
+        order[k] = ((long) ~sortable(score) << 32) | k;
+    }
+
+    /**
+     * Greedy suppression of the n loaded boxes
+     */
+    private void suppress(int n, float threshold, Method method) {
+        if (n < 2) return;
+        Arrays.sort(order, 0, n);
+        for (int o = 0; o < n; o++) rank[(int) order[o]] = o;
+        buildGrid(n);
+
+        boolean union = method == Method.UNION;
+        for (int o = 0; o < n; o++) {
+            int i = (int) order[o];
+            if (suppressed[i]) continue;
+            // i is kept, suppress the lower score boxes overlapping it
+            int c0 = Math.max(0, (x1[i] - gridX) / cellSize);
+            int c1 = Math.min(cols - 1, (x2[i] - gridX) / cellSize);
+            int r0 = Math.max(0, (y1[i] - gridY) / cellSize);
+            int r1 = Math.min(rows - 1, (y2[i] - gridY) / cellSize);
+            for (int r = r0; r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    int cell = r * cols + c;
+                    for (int e = cellStart[cell]; e < cellStart[cell + 1]; e++) {
+                        int j = cellBoxes[e];
+                        if (j == i || suppressed[j] || stamp[j] == i) continue;
+                        stamp[j] = i;
+                        int ix1 = Math.max(x1[i], x1[j]);
+                        int iy1 = Math.max(y1[i], y1[j]);
+                        int ix2 = Math.min(x2[i], x2[j]);
+                        int iy2 = Math.min(y2[i], y2[j]);
+                        if (ix2 < ix1 || iy2 < iy1) continue;
+                        int areaIoU = (ix2 - ix1 + 1) * (iy2 - iy1 + 1);
+                        float iou = union
+                                ? 1.0f * areaIoU / (area[i] + area[j] - areaIoU)
+                                : 1.0f * areaIoU / Math.min(area[i], area[j]);
+                        // Boxes before i in the score order were already handled when they were kept
+                        if (iou >= threshold && rank[j] > rank[i]) {
+                            suppressed[j] = true;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Uniform grid, the cell size follows the mean box size
+     */
+    private void buildGrid(int n) {
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        long sumSize = 0;
+        for (int k = 0; k < n; k++) {
+            minX = Math.min(minX, Math.min(x1[k], x2[k]));
+            minY = Math.min(minY, Math.min(y1[k], y2[k]));
+            maxX = Math.max(maxX, Math.max(x1[k], x2[k]));
+            maxY = Math.max(maxY, Math.max(y1[k], y2[k]));
+            sumSize += Math.max(x2[k] - x1[k], y2[k] - y1[k]) + 1;
+        }
+        long spanX = (long) maxX - minX + 1;
+        long spanY = (long) maxY - minY + 1;
+        cellSize = (int) Math.max(1, sumSize / n);
+        // Keep the number of cells in the order of the number of boxes
+        while ((spanX / cellSize + 1) * (spanY / cellSize + 1) > 4L * n + 16) {
+            cellSize *= 2;
+        }
+        gridX = minX;
+        gridY = minY;
+        cols = (int) (spanX / cellSize + 1);
+        rows = (int) (spanY / cellSize + 1);
+
+        int cells = cols * rows;
+        if (cellStart.length < cells + 1) cellStart = new int[cells + 1];
+        Arrays.fill(cellStart, 0, cells + 1, 0);
+        int entries = 0;
+        for (int k = 0; k < n; k++) {
+            for (int r = (y1[k] - gridY) / cellSize; r <= (y2[k] - gridY) / cellSize; r++) {
+                for (int c = (x1[k] - gridX) / cellSize; c <= (x2[k] - gridX) / cellSize; c++) {
+                    cellStart[r * cols + c + 1]++;
+                    entries++;
+                }
+            }
+        }
+        for (int c = 0; c < cells; c++) cellStart[c + 1] += cellStart[c];
+        if (cellBoxes.length < entries) cellBoxes = new int[entries];
+        // Fill in order, cellStart[c] is used as the cursor of cell c then restored
+        for (int k = 0; k < n; k++) {
+            for (int r = (y1[k] - gridY) / cellSize; r <= (y2[k] - gridY) / cellSize; r++) {
+                for (int c = (x1[k] - gridX) / cellSize; c <= (x2[k] - gridX) / cellSize; c++) {
+                    cellBoxes[cellStart[r * cols + c]++] = k;
+                }
+            }
+        }
+        for (int c = cells; c > 0; c--) cellStart[c] = cellStart[c - 1];
+        cellStart[0] = 0;
+    }
+
+    /**
+     * Map a float to an int with the same ordering
+     */
+    private static int sortable(float f) {
+        int bits = Float.floatToIntBits(f);
+        return bits ^ ((bits >> 31) & 0x7FFFFFFF);
+    }
+
+    private void ensureCapacity(int n) {
+        if (x1.length < n) {
+            x1 = new int[n];
+            y1 = new int[n];
+            x2 = new int[n];
+            y2 = new int[n];
+            area = new int[n];
+            suppressed = new boolean[n];
+            source = new int[n];
+            stamp = new int[n];
+            order = new long[n];
+            rank = new int[n];
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.example.facerecognitiontflite.mtcnn;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * PNet Image Pyramid
+ * The geometry of every level only depends on the input size, minFaceSize and factor,
+ * so it is computed once and every level keeps its own input / output tensors.
+ * pNet tensors are stored transposed : input [1][w][h][3], outputs [1][outW][outH][c]
+ *
+ * Stitched mode : pNet is fully convolutional (12x12 window, stride 2), so all the levels are packed
+ * on one canvas separated by gutters and pNet runs once on the canvas. Every level is placed at even
+ * coordinates, its output cell (x, y) is the canvas cell (x + offsetX / 2, y + offsetY / 2).
+ * The last cell of an odd sized level reads the gutter where the per-scale run reads the pool padding,
+ * so the score of that border cell can differ slightly.
+ */
+public class PNetPyramid {
+    // Gutter between two levels on the canvas, in pixels (even)
+    public static final int GUTTER = 2;
+
+    private final int width;
+    private final int height;
+    private final int minFaceSize;
+    private final float factor;
+    private final boolean stitched;
+
+    private final Level[] levels;
+    private final Level canvas;
+
+    // Every level is resampled from the previous one, ping-pong between two pixel buffers
+    private final PixelResampler resampler = new PixelResampler();
+    private int[] pixels;
+    private int[] pixelsNext;
+
+    /**
+     * One scale of the pyramid, in stitched mode a level is a view on the canvas tensors
+     */
+    public static class Level {
+        public final float scale;
+        public final int w;           // resized image width
+        public final int h;           // resized image height
+        public final int outW;        // pNet output width
+        public final int outH;        // pNet output height
+        public final int[] shape;     // pNet input shape {1, w, h, 3}
+
+        // Position in the tensors, 0 when the level owns them
+        final int offsetX;
+        final int offsetY;
+        final int inputColumn;
+        final int outputColumn;
+
+        final ByteBuffer input;
+        final ByteBuffer prob1;
+        final ByteBuffer conv4_2_BiasAdd;
+
+        final FloatBuffer inputFloats;
+        final FloatBuffer prob1Floats;
+        final FloatBuffer conv4_2_BiasAddFloats;
+
+        Level(float scale, int w, int h) {
+            this.scale = scale;
+            this.w = w;
+            this.h = h;
+            this.outW = outputSize(w);
+            this.outH = outputSize(h);
+            this.shape = new int[]{1, w, h, 3};
+            this.offsetX = 0;
+            this.offsetY = 0;
+            this.inputColumn = h;
+            this.outputColumn = outH;
+
+            input = allocate(w * h * 3);
+            prob1 = allocate(outW * outH * 2);
+            conv4_2_BiasAdd = allocate(outW * outH * 4);
+            inputFloats = input.asFloatBuffer();
+            prob1Floats = prob1.asFloatBuffer();
+            conv4_2_BiasAddFloats = conv4_2_BiasAdd.asFloatBuffer();
+        }
+
+        Level(float scale, int w, int h, Level canvas, int offsetX, int offsetY) {
+            this.scale = scale;
+            this.w = w;
+            this.h = h;
+            this.outW = outputSize(w);
+            this.outH = outputSize(h);
+            this.shape = canvas.shape;
+            this.offsetX = offsetX;
+            this.offsetY = offsetY;
+            this.inputColumn = canvas.h;
+            this.outputColumn = canvas.outH;
+
+            input = canvas.input;
+            prob1 = canvas.prob1;
+            conv4_2_BiasAdd = canvas.conv4_2_BiasAdd;
+            inputFloats = canvas.inputFloats;
+            prob1Floats = canvas.prob1Floats;
+            conv4_2_BiasAddFloats = canvas.conv4_2_BiasAddFloats;
+        }
+
+        /**
+         * Face probability of output cell (x, y)
+         */
+        public float score(int x, int y) {
+            return prob1Floats.get(((x + offsetX / 2) * outputColumn + y + offsetY / 2) * 2 + 1);
+        }
+
+        /**
+         * Bounding box regression i of output cell (x, y)
+         */
+        public float bbr(int x, int y, int i) {
+            return conv4_2_BiasAddFloats.get(((x + offsetX / 2) * outputColumn + y + offsetY / 2) * 4 + i);
+        }
+
+        /**
+         * Rewind the tensors before feeding them to the interpreter
+         */
+        public ByteBuffer input() {
+            input.rewind();
+            return input;
+        }
+
+        public ByteBuffer prob1() {
+            prob1.rewind();
+            return prob1;
+        }
+
+        public ByteBuffer conv4_2_BiasAdd() {
+            conv4_2_BiasAdd.rewind();
+            return conv4_2_BiasAdd;
+        }
+    }
+
+    public PNetPyramid(int width, int height, int minFaceSize, float factor) {
+        this(width, height, minFaceSize, factor, false);
+    }
+
+    /**
+     * @param width : input image width
+     * @param height : input image height
+     * @param minFaceSize : The smallest face pixel value
+     * @param factor : scale factor between two levels
+     * @param stitched : pack every level on one canvas to run pNet once
+     */
+    public PNetPyramid(int width, int height, int minFaceSize, float factor, boolean stitched) {
+        this.width = width;
+        this.height = height;
+        this.minFaceSize = minFaceSize;
+        this.factor = factor;
+
+        int whMin = Math.min(width, height);
+        int count = 0;
+        // currentFaceSize=minSize/(factor^k) k=0,1,2... until excced whMin
+        for (float currentFaceSize = minFaceSize; currentFaceSize <= whMin; currentFaceSize /= factor) {
+            count++;
+        }
+        float[] scales = new float[count];
+        int[] w = new int[count];
+        int[] h = new int[count];
+        float currentFaceSize = minFaceSize;
+        for (int i = 0; i < count; i++) {
+            scales[i] = 12.0f / currentFaceSize;
+            w[i] = Math.round(width * scales[i]);
+            h[i] = Math.round(height * scales[i]);
+            currentFaceSize /= factor;
+        }
+
+        this.stitched = stitched && count > 0;
+        levels = new Level[count];
+        if (this.stitched) {
+            int[] offsetX = new int[count];
+            int[] offsetY = new int[count];
+            int[] size = pack(w, h, offsetX, offsetY);
+            canvas = new Level(0, size[0], size[1]);
+            for (int i = 0; i < count; i++) {
+                levels[i] = new Level(scales[i], w[i], h[i], canvas, offsetX[i], offsetY[i]);
+            }
+        } else {
+            canvas = null;
+            for (int i = 0; i < count; i++) {
+                levels[i] = new Level(scales[i], w[i], h[i]);
+            }
+        }
+        if (count > 0) {
+            pixels = new int[w[0] * h[0]];
+            pixelsNext = new int[w[0] * h[0]];
+        }
+    }
+
+    /**
+     * Column packing : level 0 on the left, the next levels are stacked in columns of the same height
+     * @return canvas {width, height}
+     */
+    static int[] pack(int[] w, int[] h, int[] offsetX, int[] offsetY) {
+        int canvasH = h[0];
+        int right = w[0];
+        int x = even(w[0] + GUTTER);
+        int y = 0;
+        int columnW = 0;
+        for (int i = 1; i < w.length; i++) {
+            if (y > 0 && y + h[i] > canvasH) {
+                // New column
+                x = even(x + columnW + GUTTER);
+                y = 0;
+                columnW = 0;
+            }
+            offsetX[i] = x;
+            offsetY[i] = y;
+            y = even(y + h[i] + GUTTER);
+            columnW = Math.max(columnW, w[i]);
+            right = Math.max(right, x + w[i]);
+        }
+        return new int[]{even(right + GUTTER), canvasH};
+    }
+
+    private static int even(int v) {
+        return (v + 1) & ~1;
+    }
+
+    static int outputSize(int size) {
+        return (int) (Math.ceil(size * 0.5 - 5) + 0.5);
+    }
+
+    /**
+     * Build every level from the source pixels and write the normalized pNet inputs
+     * Level 0 is resampled from the source, every next level from the previous one.
+     * @param argb : source ARGB pixels (row-major, stride = width)
+     */
+    public void build(int[] argb) {
+        buildFrom(0, argb, width, height);
+    }
+
+    /**
+     * Build every level from a camera frame, level 0 is sampled straight from the YUV planes
+     * so only level 0 pixels are converted to ARGB
+     * @param frame : upright frame of width * height pixels
+     */
+    public void build(YuvFrame frame) {
+        if (levels.length == 0) return;
+        Level first = levels[0];
+        frame.resize(pixels, first.w, first.h);
+        resampler.normalize(pixels, first.w, first.h,
+                first.inputFloats, first.offsetX, first.offsetY, first.inputColumn);
+        int[] src = pixels;
+        pixels = pixelsNext;
+        pixelsNext = src;
+        buildFrom(1, src, first.w, first.h);
+    }
+
+    private void buildFrom(int start, int[] src, int sw, int sh) {
+        for (int l = start; l < levels.length; l++) {
+            Level level = levels[l];
+            resampler.resize(src, sw, sh, pixels, level.w, level.h,
+                    level.inputFloats, level.offsetX, level.offsetY, level.inputColumn);
+            src = pixels;
+            sw = level.w;
+            sh = level.h;
+            pixels = pixelsNext;
+            pixelsNext = src;
+        }
+    }
+
+    /**
+     * Whether this pyramid can be reused for the given detection parameters
+     */
+    public boolean matches(int width, int height, int minFaceSize, float factor, boolean stitched) {
+        return this.width == width && this.height == height
+                && this.minFaceSize == minFaceSize && this.factor == factor
+                && this.stitched == (stitched && levels.length > 0);
+    }
+
+    public boolean isStitched() {
+        return stitched;
+    }
+
+    /**
+     * Canvas holding every level in stitched mode, null otherwise
+     */
+    public Level canvas() {
+        return canvas;
+    }
+
+    public int size() {
+        return levels.length;
+    }
+
+    public Level level(int i) {
+        return levels[i];
+    }
+
+    static ByteBuffer allocate(int floats) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(floats * 4);
+        buffer.order(ByteOrder.nativeOrder());
+        return buffer;
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.facerecognitiontflite.mtcnn;
+
+import org.tensorflow.lite.Interpreter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Runs pNet on a subset of the pyramid levels
+ * Every worker owns its interpreter and scratch, the levels own their tensors, so workers
+ * assigned to different levels can run at the same time.
+ */
+class PNetWorker implements Callable<Void> {
+    private final Interpreter interpreter;
+    private final boolean ownsInterpreter;
+    private final int id;
+    private final int probIndex;
+    private final int biasIndex;
+    private final Object[] inputs = new Object[1];
+    private final Map<Integer, Object> outputs = new HashMap<>();
+    private final Nms nms = new Nms();
+
+    // Current job, set by assign()
+    private PNetPyramid pyramid;
+    private BoxList[] levelBoxes;
+    private int[] levelWorker;
+    private float threshold;
+
+    /**
+     * @param interpreter : pNet interpreter
+     * @param ownsInterpreter : close the interpreter with the worker
+     * @param id : worker id matched against the level assignment
+     */
+    PNetWorker(Interpreter interpreter, boolean ownsInterpreter, int id) {
+        this.interpreter = interpreter;
+        this.ownsInterpreter = ownsInterpreter;
+        this.id = id;
+        probIndex = interpreter.getOutputIndex("pnet/prob1");
+        biasIndex = interpreter.getOutputIndex("pnet/conv4-2/BiasAdd");
+    }
+
+    /**
+     * Set the levels to process on the next call()
+     * @param pyramid : pyramid with built inputs
+     * @param levelBoxes : candidate boxes of every level
+     * @param levelWorker : worker id of every level
+     * @param threshold : pNet threshold
+     */
+    void assign(PNetPyramid pyramid, BoxList[] levelBoxes, int[] levelWorker, float threshold) {
+        this.pyramid = pyramid;
+        this.levelBoxes = levelBoxes;
+        this.levelWorker = levelWorker;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public Void call() {
+        for (int l = 0; l < pyramid.size(); l++) {
+            if (levelWorker[l] == id) runLevel(l);
+        }
+        return null;
+    }
+
+    /**
+     * Candidate boxes of level l of the assigned pyramid, written to levelBoxes[l]
+     */
+    void runLevel(int l) {
+        PNetPyramid.Level level = pyramid.level(l);
+
+        // (2) RUN CNN, in stitched mode the canvas already ran
+        if (!pyramid.isStitched()) {
+            forward(level);
+        }
+
+        // (3) Generate Boxes
+        BoxList boxes = levelBoxes[l];
+        boxes.clear();
+        generateBoxes(level, threshold, boxes);
+
+        // (4) NMS with 0.5 of threshold
+        nms.run(boxes, 0.5f, Nms.Method.UNION);
+        boxes.compact();
+    }
+
+    /**
+     * pNet forward propagation, the level tensors are reused between frames
+     *
+     * @param level : pyramid level with normalized input
+     */
+    void forward(PNetPyramid.Level level) {
+        interpreter.resizeInput(0, level.shape);
+        inputs[0] = level.input();
+        outputs.put(probIndex, level.prob1());
+        outputs.put(biasIndex, level.conv4_2_BiasAdd());
+        interpreter.runForMultipleInputsOutputs(inputs, outputs);
+    }
+
+    static void generateBoxes(PNetPyramid.Level level, float threshold, BoxList boxes) {
+        float scale = level.scale;
+        for (int y = 0; y < level.outH; y++) {
+            for (int x = 0; x < level.outW; x++) {
+                float score = level.score(x, y);
+                // Only accept prob > threshold
+                if (score > threshold) {
+                    // Bounding box
+                    int i = boxes.add(
+                            Math.round(x * 2 / scale),
+                            Math.round(y * 2 / scale),
+                            Math.round((x * 2 + 11) / scale),
+                            Math.round((y * 2 + 11) / scale),
+                            score);
+                    // Bounding Box Regression
+                    for (int k = 0; k < 4; k++) {
+                        boxes.setBbr(i, k, level.bbr(x, y, k));
+                    }
+                }
+            }
+        }
+    }
+
+    void close() {
+        if (ownsInterpreter) interpreter.close();
+    }
+}
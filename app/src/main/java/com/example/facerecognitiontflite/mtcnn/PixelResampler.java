@@ -0,0 +1,270 @@
+package com.example.facerecognitiontflite.mtcnn;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Fixed-point image resampler working on ARGB pixel arrays (row-major, stride = width)
+ * It does not depend on android.graphics so it can run on a plain JVM.
+ * Optionally the result is also written normalized to [-1, 1] in the transposed [w][h][3]
+ * layout used by the MTCNN networks, the same values as MyUtil.normalizeImage, transposed.
+ */
+public class PixelResampler {
+    private static final float IMAGE_MEAN = 127.5f;
+    private static final float IMAGE_STD = 128;
+
+    private static final int SHIFT = 16;
+    private static final int ONE = 1 << SHIFT;
+    private static final int WEIGHT_BITS = 8;
+    private static final int WEIGHT_ONE = 1 << WEIGHT_BITS;
+
+    // Per-column sampling tables, grown on demand
+    private int[] x0 = new int[0];
+    private int[] x1 = new int[0];
+    private int[] wx = new int[0];
+
+    /**
+     * Resize src to dst, area averaging is used when shrinking by 2 or more, bilinear otherwise
+     * @param src : source ARGB pixels
+     * @param sw : source width
+     * @param sh : source height
+     * @param dst : destination ARGB pixels, length >= dw * dh
+     * @param dw : destination width
+     * @param dh : destination height
+     * @param normalized : optional transposed [dw][dh][3] output, may be null
+     */
+    public void resize(int[] src, int sw, int sh, int[] dst, int dw, int dh, FloatBuffer normalized) {
+        resize(src, sw, sh, dst, dw, dh, normalized, 0, 0, dh);
+    }
+
+    /**
+     * Same as resize, the normalized image is written at (offsetX, offsetY) of a bigger transposed tensor
+     * @param offsetX : x of the image in the tensor
+     * @param offsetY : y of the image in the tensor
+     * @param column : tensor height, the size of one transposed column
+     */
+    public void resize(int[] src, int sw, int sh, int[] dst, int dw, int dh,
+                       FloatBuffer normalized, int offsetX, int offsetY, int column) {
+        if (sw >= 2 * dw && sh >= 2 * dh) {
+            resizeArea(src, sw, sh, dst, dw, dh, normalized, offsetX, offsetY, column);
+        } else {
+            resizeBilinear(src, sw, sh, dst, dw, dh, normalized, offsetX, offsetY, column);
+        }
+    }
+
+    /**
+     * Bilinear resize whatever the scale, the sampling of Bitmap.createScaledBitmap(..., true)
+     * @param src : source ARGB pixels
+     * @param sw : source width
+     * @param sh : source height
+     * @param dst : destination ARGB pixels, length >= dw * dh
+     * @param dw : destination width
+     * @param dh : destination height
+     */
+    public void resizeBilinear(int[] src, int sw, int sh, int[] dst, int dw, int dh) {
+        resizeBilinear(src, sw, sh, dst, dw, dh, null, 0, 0, dh);
+    }
+
+    /**
+     * Write the normalized image of src at (offsetX, offsetY) of a transposed tensor, without resizing
+     * @param src : ARGB pixels
+     * @param w : width
+     * @param h : height
+     * @param normalized : transposed tensor
+     * @param offsetX : x of the image in the tensor
+     * @param offsetY : y of the image in the tensor
+     * @param column : tensor height, the size of one transposed column
+     */
+    public void normalize(int[] src, int w, int h, FloatBuffer normalized, int offsetX, int offsetY, int column) {
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int p = src[y * w + x];
+                int idx = ((x + offsetX) * column + y + offsetY) * 3;
+                normalized.put(idx, (((p >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+                normalized.put(idx + 1, (((p >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+                normalized.put(idx + 2, ((p & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+            }
+        }
+    }
+
+    /**
+     * Bilinear resize with 16.16 fixed-point coordinates and 8 bit weights, pixel centers aligned
+     */
+    private void resizeBilinear(int[] src, int sw, int sh, int[] dst, int dw, int dh,
+                                FloatBuffer normalized, int offsetX, int offsetY, int column) {
+        ensureCapacity(dw);
+        for (int x = 0; x < dw; x++) {
+            int fx = sampleCoordinate(x, sw, dw);
+            x0[x] = fx >> SHIFT;
+            x1[x] = Math.min(x0[x] + 1, sw - 1);
+            wx[x] = (fx >> (SHIFT - WEIGHT_BITS)) & (WEIGHT_ONE - 1);
+        }
+        for (int y = 0; y < dh; y++) {
+            int fy = sampleCoordinate(y, sh, dh);
+            int row0 = (fy >> SHIFT) * sw;
+            int row1 = Math.min((fy >> SHIFT) + 1, sh - 1) * sw;
+            int wy = (fy >> (SHIFT - WEIGHT_BITS)) & (WEIGHT_ONE - 1);
+            for (int x = 0; x < dw; x++) {
+                int p00 = src[row0 + x0[x]];
+                int p01 = src[row0 + x1[x]];
+                int p10 = src[row1 + x0[x]];
+                int p11 = src[row1 + x1[x]];
+                int r = lerp(p00 >> 16, p01 >> 16, p10 >> 16, p11 >> 16, wx[x], wy);
+                int g = lerp(p00 >> 8, p01 >> 8, p10 >> 8, p11 >> 8, wx[x], wy);
+                int b = lerp(p00, p01, p10, p11, wx[x], wy);
+                store(dst, dw, x, y, r, g, b, normalized, offsetX, offsetY, column);
+            }
+        }
+    }
+
+    /**
+     * Area averaging resize, every destination pixel is the mean of its source block
+     */
+    private void resizeArea(int[] src, int sw, int sh, int[] dst, int dw, int dh,
+                            FloatBuffer normalized, int offsetX, int offsetY, int column) {
+        ensureCapacity(dw + 1);
+        for (int x = 0; x <= dw; x++) {
+            x0[x] = (int) ((long) x * sw / dw);
+        }
+        for (int y = 0; y < dh; y++) {
+            int ys = (int) ((long) y * sh / dh);
+            int ye = (int) ((long) (y + 1) * sh / dh);
+            for (int x = 0; x < dw; x++) {
+                int xs = x0[x];
+                int xe = x0[x + 1];
+                int r = 0, g = 0, b = 0;
+                for (int sy = ys; sy < ye; sy++) {
+                    int row = sy * sw;
+                    for (int sx = xs; sx < xe; sx++) {
+                        int p = src[row + sx];
+                        r += (p >> 16) & 0xFF;
+                        g += (p >> 8) & 0xFF;
+                        b += p & 0xFF;
+                    }
+                }
+                int count = (ye - ys) * (xe - xs);
+                int half = count >> 1;
+                store(dst, dw, x, y, (r + half) / count, (g + half) / count, (b + half) / count,
+                        normalized, offsetX, offsetY, column);
+            }
+        }
+    }
+
+    /**
+     * Crop the box (clamped to the image border) and resize it to size*size with bilinear sampling,
+     * the result is written normalized and transposed to dst[offset .. offset + size * size * 3)
+     * @param src : source ARGB pixels
+     * @param sw : source width
+     * @param sh : source height
+     * @param left : box left
+     * @param top : box top
+     * @param width : box width
+     * @param height : box height
+     * @param size : output size
+     * @param dst : batch input tensor
+     * @param offset : offset of this crop in dst
+     */
+    public void cropResize(int[] src, int sw, int sh, int left, int top, int width, int height,
+                           int size, FloatBuffer dst, int offset) {
+        ensureCapacity(size);
+        float scaleX = (float) width / size;
+        float scaleY = (float) height / size;
+        for (int x = 0; x < size; x++) {
+            float fx = Math.min(Math.max(left + (x + 0.5f) * scaleX - 0.5f, 0), sw - 1);
+            x0[x] = (int) fx;
+            x1[x] = Math.min(x0[x] + 1, sw - 1);
+            wx[x] = (int) ((fx - x0[x]) * WEIGHT_ONE);
+        }
+        for (int y = 0; y < size; y++) {
+            float fy = Math.min(Math.max(top + (y + 0.5f) * scaleY - 0.5f, 0), sh - 1);
+            int iy = (int) fy;
+            int row0 = iy * sw;
+            int row1 = Math.min(iy + 1, sh - 1) * sw;
+            int wy = (int) ((fy - iy) * WEIGHT_ONE);
+            for (int x = 0; x < size; x++) {
+                int p00 = src[row0 + x0[x]];
+                int p01 = src[row0 + x1[x]];
+                int p10 = src[row1 + x0[x]];
+                int p11 = src[row1 + x1[x]];
+                int idx = offset + (x * size + y) * 3;
+                dst.put(idx, (lerp(p00 >> 16, p01 >> 16, p10 >> 16, p11 >> 16, wx[x], wy) - IMAGE_MEAN) / IMAGE_STD);
+                dst.put(idx + 1, (lerp(p00 >> 8, p01 >> 8, p10 >> 8, p11 >> 8, wx[x], wy) - IMAGE_MEAN) / IMAGE_STD);
+                dst.put(idx + 2, (lerp(p00, p01, p10, p11, wx[x], wy) - IMAGE_MEAN) / IMAGE_STD);
+            }
+        }
+    }
+
+    /**
+     * Affine warp of the source into a size*size image with bilinear sampling (clamped to the border),
+     * the result is written normalized, not transposed, to dst[offset .. offset + size * size * 3)
+     * @param src : source ARGB pixels
+     * @param sw : source width
+     * @param sh : source height
+     * @param m : destination to source transform, x = m0 * u + m1 * v + m2, y = m3 * u + m4 * v + m5
+     * @param size : output size
+     * @param dst : input tensor
+     * @param offset : offset of this image in dst
+     */
+    public void warpAffine(int[] src, int sw, int sh, float[] m, int size, FloatBuffer dst, int offset) {
+        for (int v = 0; v < size; v++) {
+            for (int u = 0; u < size; u++) {
+                // Sample at the pixel center
+                float cu = u + 0.5f;
+                float cv = v + 0.5f;
+                float fx = Math.min(Math.max(m[0] * cu + m[1] * cv + m[2] - 0.5f, 0), sw - 1);
+                float fy = Math.min(Math.max(m[3] * cu + m[4] * cv + m[5] - 0.5f, 0), sh - 1);
+                int ix = (int) fx;
+                int iy = (int) fy;
+                int ix1 = Math.min(ix + 1, sw - 1);
+                int row0 = iy * sw;
+                int row1 = Math.min(iy + 1, sh - 1) * sw;
+                int wxu = (int) ((fx - ix) * WEIGHT_ONE);
+                int wyv = (int) ((fy - iy) * WEIGHT_ONE);
+                int p00 = src[row0 + ix];
+                int p01 = src[row0 + ix1];
+                int p10 = src[row1 + ix];
+                int p11 = src[row1 + ix1];
+                int idx = offset + (v * size + u) * 3;
+                dst.put(idx, (lerp(p00 >> 16, p01 >> 16, p10 >> 16, p11 >> 16, wxu, wyv) - IMAGE_MEAN) / IMAGE_STD);
+                dst.put(idx + 1, (lerp(p00 >> 8, p01 >> 8, p10 >> 8, p11 >> 8, wxu, wyv) - IMAGE_MEAN) / IMAGE_STD);
+                dst.put(idx + 2, (lerp(p00, p01, p10, p11, wxu, wyv) - IMAGE_MEAN) / IMAGE_STD);
+            }
+        }
+    }
+
+    /**
+     * Source coordinate (16.16) of destination pixel i, clamped to the first pixel
+     */
+    static int sampleCoordinate(int i, int srcSize, int dstSize) {
+        long f = ((2L * i + 1) * srcSize << SHIFT) / (2L * dstSize) - (ONE >> 1);
+        return (int) Math.max(0, f);
+    }
+
+    private static int lerp(int c00, int c01, int c10, int c11, int wx, int wy) {
+        c00 &= 0xFF;
+        c01 &= 0xFF;
+        c10 &= 0xFF;
+        c11 &= 0xFF;
+        int top = c00 * (WEIGHT_ONE - wx) + c01 * wx;
+        int bottom = c10 * (WEIGHT_ONE - wx) + c11 * wx;
+        return (top * (WEIGHT_ONE - wy) + bottom * wy + (1 << (2 * WEIGHT_BITS - 1))) >> (2 * WEIGHT_BITS);
+    }
+
+    private static void store(int[] dst, int dw, int x, int y, int r, int g, int b,
+                              FloatBuffer normalized, int offsetX, int offsetY, int column) {
+        dst[y * dw + x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+        if (normalized != null) {
+            int idx = ((x + offsetX) * column + y + offsetY) * 3;
+            normalized.put(idx, (r - IMAGE_MEAN) / IMAGE_STD);
+            normalized.put(idx + 1, (g - IMAGE_MEAN) / IMAGE_STD);
+            normalized.put(idx + 2, (b - IMAGE_MEAN) / IMAGE_STD);
+        }
+    }
+
+    private void ensureCapacity(int n) {
+        if (x0.length < n) {
+            x0 = new int[n];
+            x1 = new int[n];
+            wx = new int[n];
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.facerecognitiontflite.mtcnn;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Reusable direct float buffer for a tensor whose batch size changes between calls
+ * The backing buffer only grows, the interpreter gets a view of exactly the requested size.
+ */
+public class TensorBuffer {
+    private ByteBuffer backing;
+    private ByteBuffer view;
+    private FloatBuffer floats;
+    private int count = -1;
+
+    /**
+     * Resize the view to count floats, nothing is allocated when count did not change
+     * @param count : number of floats
+     */
+    public void resize(int count) {
+        if (count == this.count) return;
+        if (backing == null || backing.capacity() < count * 4) {
+            // Double the capacity to avoid reallocating for every bigger batch
+            int capacity = Math.max(count, backing == null ? 0 : backing.capacity() / 4 * 2);
+            backing = ByteBuffer.allocateDirect(capacity * 4);
+            backing.order(ByteOrder.nativeOrder());
+        }
+        ByteBuffer duplicate = backing.duplicate();
+        duplicate.clear();
+        duplicate.limit(count * 4);
+        view = duplicate.slice();
+        view.order(ByteOrder.nativeOrder());
+        floats = view.asFloatBuffer();
+        this.count = count;
+    }
+
+    /**
+     * Rewound view to feed to the interpreter
+     */
+    public ByteBuffer buffer() {
+        view.rewind();
+        return view;
+    }
+
+    /**
+     * Float view of the same memory, use absolute get / put
+     */
+    public FloatBuffer floats() {
+        return floats;
+    }
+}
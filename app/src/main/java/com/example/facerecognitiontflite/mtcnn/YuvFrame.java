@@ -0,0 +1,200 @@
+package com.example.facerecognitiontflite.mtcnn;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Camera frame in YUV 4:2:0 (NV21 or the planes of a YUV_420_888 image) with a rotation hint
+ * Coordinates are in the upright image : the frame is rotated clockwise by rotation degrees.
+ * Nothing is converted up front, pixels are converted to ARGB only when they are sampled.
+ */
+public class YuvFrame {
+    private final ByteBuffer y;
+    private final ByteBuffer u;
+    private final ByteBuffer v;
+    private final int yRowStride;
+    private final int uvRowStride;
+    private final int uvPixelStride;
+    private final int sensorWidth;
+    private final int sensorHeight;
+    private final int rotation;
+    private final int width;
+    private final int height;
+
+    /**
+     * @param y : luma plane
+     * @param yRowStride : luma row stride
+     * @param u : U (Cb) plane
+     * @param v : V (Cr) plane
+     * @param uvRowStride : chroma row stride
+     * @param uvPixelStride : chroma pixel stride, 2 for interleaved planes
+     * @param sensorWidth : frame width as delivered by the camera
+     * @param sensorHeight : frame height as delivered by the camera
+     * @param rotation : clockwise rotation to make the frame upright, 0 / 90 / 180 / 270
+     */
+    public YuvFrame(ByteBuffer y, int yRowStride, ByteBuffer u, ByteBuffer v, int uvRowStride, int uvPixelStride,
+                    int sensorWidth, int sensorHeight, int rotation) {
+        rotation = ((rotation % 360) + 360) % 360;
+        if (rotation % 90 != 0) {
+            throw new IllegalArgumentException("rotation must be a multiple of 90 : " + rotation);
+        }
+        this.y = y;
+        this.u = u;
+        this.v = v;
+        this.yRowStride = yRowStride;
+        this.uvRowStride = uvRowStride;
+        this.uvPixelStride = uvPixelStride;
+        this.sensorWidth = sensorWidth;
+        this.sensorHeight = sensorHeight;
+        this.rotation = rotation;
+        boolean swap = rotation == 90 || rotation == 270;
+        this.width = swap ? sensorHeight : sensorWidth;
+        this.height = swap ? sensorWidth : sensorHeight;
+    }
+
+    /**
+     * NV21 frame (Y plane then interleaved V / U), the default preview format of android.hardware.Camera
+     * @param data : NV21 bytes
+     * @param width : frame width as delivered by the camera
+     * @param height : frame height as delivered by the camera
+     * @param rotation : clockwise rotation to make the frame upright, 0 / 90 / 180 / 270
+     */
+    public static YuvFrame fromNv21(byte[] data, int width, int height, int rotation) {
+        return fromNv21(data, 0, width, height, rotation);
+    }
+
+    /**
+     * NV21 frame starting at offset in data, e.g. the backing array of a ByteBuffer
+     * @param data : NV21 bytes
+     * @param offset : index of the first Y byte
+     * @param width : frame width as delivered by the camera
+     * @param height : frame height as delivered by the camera
+     * @param rotation : clockwise rotation to make the frame upright, 0 / 90 / 180 / 270
+     */
+    public static YuvFrame fromNv21(byte[] data, int offset, int width, int height, int rotation) {
+        ByteBuffer buffer = ByteBuffer.wrap(data, offset, width * height * 3 / 2).slice();
+        ByteBuffer v = buffer.duplicate();
+        v.position(width * height);
+        ByteBuffer u = buffer.duplicate();
+        u.position(width * height + 1);
+        return new YuvFrame(buffer, width, u.slice(), v.slice(), width, 2, width, height, rotation);
+    }
+
+    /**
+     * Upright width
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Upright height
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
+    /**
+     * ARGB value of the upright pixel (x, y)
+     */
+    public int argb(int x, int y) {
+        int sx = sensorX(x, y);
+        int sy = sensorY(x, y);
+        int uv = (sy >> 1) * uvRowStride + (sx >> 1) * uvPixelStride;
+        return toArgb(this.y.get(sy * yRowStride + sx) & 0xFF, (u.get(uv) & 0xFF) - 128, (v.get(uv) & 0xFF) - 128);
+    }
+
+    /**
+     * Convert the upright rectangle [left, right) x [top, bottom) to ARGB, same layout as Bitmap.getPixels
+     * @param dst : ARGB pixels, pixel (left, top) is written at dst[offset]
+     * @param offset : index of the first pixel in dst
+     * @param stride : dst row stride
+     */
+    public void convert(int[] dst, int offset, int stride, int left, int top, int right, int bottom) {
+        for (int py = top; py < bottom; py++) {
+            int row = offset + (py - top) * stride - left;
+            for (int px = left; px < right; px++) {
+                dst[row + px] = argb(px, py);
+            }
+        }
+    }
+
+    /**
+     * Area averaging resize of the whole upright frame to dw * dh ARGB pixels
+     * Y, U and V are averaged over the source block and converted once per destination pixel,
+     * when upscaling every destination pixel takes its nearest source pixel.
+     * @param dst : destination ARGB pixels, length >= dw * dh
+     * @param dw : destination width
+     * @param dh : destination height
+     */
+    public void resize(int[] dst, int dw, int dh) {
+        for (int dy = 0; dy < dh; dy++) {
+            int ys = (int) ((long) dy * height / dh);
+            int ye = Math.max(ys + 1, (int) ((long) (dy + 1) * height / dh));
+            for (int dx = 0; dx < dw; dx++) {
+                int xs = (int) ((long) dx * width / dw);
+                int xe = Math.max(xs + 1, (int) ((long) (dx + 1) * width / dw));
+                int sumY = 0, sumU = 0, sumV = 0;
+                for (int py = ys; py < ye; py++) {
+                    for (int px = xs; px < xe; px++) {
+                        int sx = sensorX(px, py);
+                        int sy = sensorY(px, py);
+                        int uv = (sy >> 1) * uvRowStride + (sx >> 1) * uvPixelStride;
+                        sumY += this.y.get(sy * yRowStride + sx) & 0xFF;
+                        sumU += u.get(uv) & 0xFF;
+                        sumV += v.get(uv) & 0xFF;
+                    }
+                }
+                int count = (ye - ys) * (xe - xs);
+                int half = count >> 1;
+                dst[dy * dw + dx] = toArgb((sumY + half) / count,
+                        (sumU + half) / count - 128, (sumV + half) / count - 128);
+            }
+        }
+    }
+
+    private int sensorX(int x, int y) {
+        switch (rotation) {
+            case 90:
+                return y;
+            case 180:
+                return sensorWidth - 1 - x;
+            case 270:
+                return sensorWidth - 1 - y;
+            default:
+                return x;
+        }
+    }
+
+    private int sensorY(int x, int y) {
+        switch (rotation) {
+            case 90:
+                return sensorHeight - 1 - x;
+            case 180:
+                return sensorHeight - 1 - y;
+            case 270:
+                return x;
+            default:
+                return y;
+        }
+    }
+
+    /**
+     * BT.601 full range YUV to ARGB, 10 bit fixed point
+     * @param y : luma
+     * @param u : Cb - 128
+     * @param v : Cr - 128
+     */
+    static int toArgb(int y, int u, int v) {
+        int r = y + ((1436 * v + 512) >> 10);
+        int g = y - ((352 * u + 731 * v + 512) >> 10);
+        int b = y + ((1815 * u + 512) >> 10);
+        r = r < 0 ? 0 : (r > 255 ? 255 : r);
+        g = g < 0 ? 0 : (g > 255 ? 255 : g);
+        b = b < 0 ? 0 : (b > 255 ? 255 : b);
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.facerecognitiontflite.verification;
+
+import android.os.SystemClock;
+
+import com.example.facerecognitiontflite.AlignedFace;
+import com.example.facerecognitiontflite.faceantispoof.FaceAntiSpoofing;
+import com.example.facerecognitiontflite.mobilefacenet.MobileFaceNet;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs FaceAntiSpoofing and MobileFaceNet at the same time on one face
+ * Both models only read the face, each has its own interpreter : the embedding runs on a worker
+ * thread while the anti-spoofing runs on the calling thread. When the spoof score is over
+ * FaceAntiSpoofing.THRESHOLD the embedding run is cancelled, the face is rejected anyway.
+ * verify() must not be called concurrently, the models are not thread-safe, cancel() can be called from any thread.
+ */
+public class ConcurrentVerifier {
+    private final FaceAntiSpoofing faceAntiSpoofing;
+    private final MobileFaceNet mobileFaceNet;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean cancelRequested = new AtomicBoolean();
+
+    /**
+     * Outcome and timing of one verification
+     */
+    public static class Result {
+        public float spoofScore;            // 0 when the anti-spoofing did not run
+        public boolean spoof;
+        public float[] embedding;           // null when the face is a spoof or the embedding was cancelled
+        public boolean embeddingCancelled;
+        public long antiSpoofNanos;
+        public long embeddingNanos;         // until completion or cancellation
+        public long totalNanos;
+
+        /**
+         * Time both models ran at the same time, antiSpoof + embedding - total
+         */
+        public long overlapNanos() {
+            return Math.max(0, antiSpoofNanos + embeddingNanos - totalNanos);
+        }
+
+        /**
+         * Overlap relative to the shorter model, 1 when it fully ran during the longer one
+         */
+        public float overlapRatio() {
+            long shorter = Math.min(antiSpoofNanos, embeddingNanos);
+            return shorter == 0 ? 0 : Math.min(1, (float) overlapNanos() / shorter);
+        }
+    }
+
+    public ConcurrentVerifier(FaceAntiSpoofing faceAntiSpoofing, MobileFaceNet mobileFaceNet) {
+        this.faceAntiSpoofing = faceAntiSpoofing;
+        this.mobileFaceNet = mobileFaceNet;
+    }
+
+    /**
+     * Embedding of the face, with the anti-spoofing in parallel
+     * @param face : face from MyUtil.alignFace
+     * @param antiSpoof : run the anti-spoofing (WFH), otherwise only the embedding runs, on the calling thread
+     * @return result, embedding is null when the face is a spoof
+     */
+    public Result verify(final AlignedFace face, boolean antiSpoof) {
+        Result result = new Result();
+        long start = SystemClock.elapsedRealtimeNanos();
+        cancelRequested.set(false);
+        if (!antiSpoof) {
+            mobileFaceNet.setCancelled(false);
+            try {
+                if (!cancelRequested.get()) {
+                    result.embedding = mobileFaceNet.generateEmbedding(face);
+                }
+            } catch (IllegalStateException e) {
+                if (!cancelRequested.get()) throw e;    // run cancelled
+            }
+            result.embeddingCancelled = result.embedding == null;
+            result.embeddingNanos = result.totalNanos = SystemClock.elapsedRealtimeNanos() - start;
+            return result;
+        }
+
+        // [1] Embedding on the worker
+        final long[] embeddingEnd = new long[1];
+        Future<float[]> embedding = executor.submit(new Callable<float[]>() {
+            @Override
+            public float[] call() {
+                // Clear the interpreter flag before checking the request, a later cancel() sets it again
+                mobileFaceNet.setCancelled(false);
+                try {
+                    if (cancelRequested.get()) return null;
+                    return mobileFaceNet.generateEmbedding(face);
+                } catch (IllegalStateException e) {
+                    if (cancelRequested.get()) return null;     // run cancelled
+                    throw e;
+                } finally {
+                    embeddingEnd[0] = SystemClock.elapsedRealtimeNanos();
+                }
+            }
+        });
+
+        // [2] Anti-spoofing on this thread, cancel the embedding of a spoof
+        result.spoofScore = faceAntiSpoofing.antiSpoofing(face.crop);
+        result.antiSpoofNanos = SystemClock.elapsedRealtimeNanos() - start;
+        result.spoof = result.spoofScore > FaceAntiSpoofing.THRESHOLD;
+        if (result.spoof) {
+            cancelRequested.set(true);
+            mobileFaceNet.setCancelled(true);
+        }
+
+        // [3] Wait for the worker, also after a cancel so the interpreter is idle before the next call
+        try {
+            result.embedding = embedding.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        mobileFaceNet.setCancelled(false);
+        result.embeddingCancelled = result.embedding == null;
+        if (result.spoof) {
+            result.embedding = null;
+        }
+        result.totalNanos = SystemClock.elapsedRealtimeNanos() - start;
+        result.embeddingNanos = embeddingEnd[0] - start;
+        return result;
+    }
+
+    /**
+     * Cancel the embedding of the verification in flight, e.g. when a newer face is submitted
+     * Its result has a null embedding, verifications started after this call are not affected.
+     */
+    public void cancel() {
+        cancelRequested.set(true);
+        mobileFaceNet.setCancelled(true);
+    }
+
+    /**
+     * Stop the worker thread
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
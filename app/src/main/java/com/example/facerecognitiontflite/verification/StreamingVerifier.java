@@ -0,0 +1,207 @@
+package com.example.facerecognitiontflite.verification;
+
+/**
+ * Spoof and identity decision over a stream of frames instead of a single picture
+ * Every frame adds its spoof score and its distance to the base data into a ring buffer of the last
+ * capacity frames. The decision is taken as soon as the confidence bound of the mean score,
+ * mean +/- z * sigma / sqrt(n), is entirely on one side of the threshold. sigma is the standard
+ * deviation of the window, at least the configured noise floor so two close frames are not trusted
+ * too early. After maxFrames frames without a confident decision the means decide.
+ * Not thread-safe.
+ */
+public class StreamingVerifier {
+    public enum Decision {
+        PENDING,            // more frames needed
+        VERIFIED,
+        NOT_VERIFIED,
+        SPOOF
+    }
+
+    private final int capacity;
+    private final float[] spoofScores;
+    private final float[] distances;
+    private int head;               // next slot of the ring buffer
+    private int count;              // frames in the window
+    private int spoofCount;         // frames of the window with a spoof score
+    private int frames;             // frames since reset
+    private Decision decision = Decision.PENDING;
+
+    private float spoofThreshold = 0.2f;
+    private float distanceThreshold = 0.4f;
+    private float z = 1.645f;                   // one-sided 95 %
+    private float spoofNoise = 0.05f;
+    private float distanceNoise = 0.03f;
+    private int minFrames = 2;
+    private int maxFrames;
+
+    /**
+     * @param capacity : number of frames kept in the window
+     */
+    public StreamingVerifier(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity " + capacity + " < 1");
+        }
+        this.capacity = capacity;
+        this.spoofScores = new float[capacity];
+        this.distances = new float[capacity];
+        this.maxFrames = 2 * capacity;
+    }
+
+    /**
+     * @param spoofThreshold : spoof score over which a face is an attack, FaceAntiSpoofing.THRESHOLD
+     * @param distanceThreshold : distance under which the face is verified, e.g. 0.3 for WFH, 0.4 for WFO
+     */
+    public void setThresholds(float spoofThreshold, float distanceThreshold) {
+        this.spoofThreshold = spoofThreshold;
+        this.distanceThreshold = distanceThreshold;
+    }
+
+    /**
+     * @param z : width of the confidence bound in standard errors, higher decides later with fewer errors
+     */
+    public void setConfidence(float z) {
+        this.z = z;
+    }
+
+    /**
+     * Minimum standard deviation assumed for the frame scores
+     * @param spoofNoise : of the spoof scores
+     * @param distanceNoise : of the distances
+     */
+    public void setNoise(float spoofNoise, float distanceNoise) {
+        this.spoofNoise = spoofNoise;
+        this.distanceNoise = distanceNoise;
+    }
+
+    /**
+     * @param minFrames : frames before any decision
+     * @param maxFrames : frames after which the means decide
+     */
+    public void setFrames(int minFrames, int maxFrames) {
+        this.minFrames = Math.max(1, minFrames);
+        this.maxFrames = Math.max(this.minFrames, maxFrames);
+    }
+
+    /**
+     * Start a new verification
+     */
+    public void reset() {
+        head = 0;
+        count = 0;
+        spoofCount = 0;
+        frames = 0;
+        decision = Decision.PENDING;
+    }
+
+    /**
+     * Add the evidence of one frame, frames added after a decision are ignored until reset
+     * @param spoofScore : FaceAntiSpoofing score, NaN when the anti-spoofing is not run (WFO)
+     * @param distance : cosine distance to the base data, NaN when the embedding was not computed (spoof)
+     * @return decision after this frame
+     */
+    public Decision add(float spoofScore, float distance) {
+        if (decision != Decision.PENDING) return decision;
+
+        // [1] Ring buffer, the oldest frame leaves the window
+        if (count == capacity) {
+            if (!Float.isNaN(spoofScores[head])) spoofCount--;
+        } else {
+            count++;
+        }
+        spoofScores[head] = spoofScore;
+        distances[head] = distance;
+        if (!Float.isNaN(spoofScore)) spoofCount++;
+        head = (head + 1) % capacity;
+        frames++;
+        if (frames < minFrames) return decision;
+
+        // [2] Spoof first : the identity is only decided on a face that is confidently live
+        boolean forced = frames >= maxFrames;
+        boolean live = true;
+        if (spoofCount > 0) {
+            int bound = bound(spoofScores, spoofThreshold, spoofNoise, forced);
+            if (bound > 0) return decision = Decision.SPOOF;
+            live = bound < 0;
+        }
+
+        // [3] Identity
+        if (live || forced) {
+            int bound = bound(distances, distanceThreshold, distanceNoise, forced);
+            if (bound < 0) {
+                decision = Decision.VERIFIED;
+            } else if (bound > 0 || forced) {
+                decision = Decision.NOT_VERIFIED;
+            }
+        }
+        return decision;
+    }
+
+    /**
+     * Current decision
+     */
+    public Decision decision() {
+        return decision;
+    }
+
+    /**
+     * Frames added since reset, until the decision
+     */
+    public int frames() {
+        return frames;
+    }
+
+    /**
+     * Mean spoof score of the window, NaN without spoof score
+     */
+    public float meanSpoofScore() {
+        return mean(spoofScores);
+    }
+
+    /**
+     * Mean distance of the window, NaN without distance
+     */
+    public float meanDistance() {
+        return mean(distances);
+    }
+
+    /**
+     * Side of the threshold of the window values
+     * @param forced : compare the mean alone
+     * @return 1 when confidently over the threshold, -1 when confidently under or equal, 0 when undecided
+     */
+    private int bound(float[] values, float threshold, float noise, boolean forced) {
+        int n = 0;
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            if (Float.isNaN(values[i])) continue;
+            sum += values[i];
+            n++;
+        }
+        if (n == 0) return forced ? 1 : 0;
+        double mean = sum / n;
+        double margin = 0;
+        if (!forced) {
+            double squares = 0;
+            for (int i = 0; i < count; i++) {
+                if (Float.isNaN(values[i])) continue;
+                squares += (values[i] - mean) * (values[i] - mean);
+            }
+            double sigma = Math.max(noise, n > 1 ? Math.sqrt(squares / (n - 1)) : 0);
+            margin = z * sigma / Math.sqrt(n);
+        }
+        if (mean - margin > threshold) return 1;
+        if (mean + margin <= threshold) return -1;
+        return 0;
+    }
+
+    private float mean(float[] values) {
+        int n = 0;
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            if (Float.isNaN(values[i])) continue;
+            sum += values[i];
+            n++;
+        }
+        return n == 0 ? Float.NaN : (float) (sum / n);
+    }
+}
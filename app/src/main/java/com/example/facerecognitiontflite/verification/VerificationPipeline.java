@@ -0,0 +1,211 @@
+package com.example.facerecognitiontflite.verification;
+
+import com.example.facerecognitiontflite.AlignedFace;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Face verification of a frame off the calling thread
+ * The stages detect + align -> anti-spoof + embed -> match run on one dedicated worker thread, the
+ * models are not thread-safe. A new frame cancels the request in flight : it stops at the next stage
+ * (onCancel can also stop the running model) and its callback is never called. Results are delivered
+ * through the callback executor, the main thread in the app, e.g. new Handler(Looper.getMainLooper())::post.
+ * The stages are interfaces, the pipeline does not depend on an Activity nor on the models.
+ * @param <F> : frame type, e.g. Bitmap
+ */
+public class VerificationPipeline<F> {
+    /**
+     * Detect and align the face of a frame, null when there is no face
+     */
+    public interface Detector<F> {
+        AlignedFace detect(F frame);
+    }
+
+    /**
+     * Anti-spoofing and embedding of a face, e.g. ConcurrentVerifier.verify
+     */
+    public interface Verifier {
+        ConcurrentVerifier.Result verify(AlignedFace face);
+    }
+
+    /**
+     * Distance of an embedding to the base data
+     */
+    public interface Matcher {
+        float distance(float[] embedding);
+    }
+
+    public interface Callback {
+        void onResult(Result result);
+
+        void onError(Exception e);
+    }
+
+    public enum Status {
+        NO_FACE,
+        SPOOF,
+        VERIFIED,
+        NOT_VERIFIED
+    }
+
+    /**
+     * Outcome and stage timing of one frame
+     */
+    public static class Result {
+        public Status status;
+        public AlignedFace face;                        // null when there is no face
+        public ConcurrentVerifier.Result verification;  // null when there is no face
+        public float distance = Float.NaN;              // NaN when the match did not run
+        public long detectNanos;
+        public long verifyNanos;
+        public long matchNanos;
+    }
+
+    private final Detector<F> detector;
+    private final Verifier verifier;
+    private final Matcher matcher;
+    private final Executor callbackExecutor;
+    private final ThreadPoolExecutor executor;
+    private Runnable onCancel;
+    private volatile float threshold = 0.3f;
+
+    private FutureTask<Result> current;
+    private volatile long generation;       // id of the latest request, a request is stale once it changes
+
+    /**
+     * @param detector : detect and align, e.g. MyUtil.alignFace with MTCNN
+     * @param verifier : anti-spoofing and embedding
+     * @param matcher : distance to the base data
+     * @param callbackExecutor : thread of the callbacks
+     */
+    public VerificationPipeline(Detector<F> detector, Verifier verifier, Matcher matcher, Executor callbackExecutor) {
+        this.detector = detector;
+        this.verifier = verifier;
+        this.matcher = matcher;
+        this.callbackExecutor = callbackExecutor;
+        // One worker, at most one request waiting : older requests are cancelled and purged on submit
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(1));
+    }
+
+    /**
+     * Called on the submitting thread when a request in flight is cancelled, e.g. ConcurrentVerifier.cancel
+     * @param onCancel
+     */
+    public void setOnCancel(Runnable onCancel) {
+        this.onCancel = onCancel;
+    }
+
+    /**
+     * Distance threshold of the match, read once per request when it is submitted
+     * @param threshold : distance under which the face is verified, e.g. 0.3 for WFH, 0.4 for WFO
+     */
+    public void setThreshold(float threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Verify a frame, the request in flight is cancelled
+     * @param frame : frame with one face
+     * @param callback : called on the callback executor, unless a newer frame is submitted before
+     * @return future of the result, cancelled when a newer frame is submitted
+     */
+    public synchronized Future<Result> submit(final F frame, final Callback callback) {
+        cancel();
+        final long id = generation;
+        final float threshold = this.threshold;
+        FutureTask<Result> task = new FutureTask<Result>(new Callable<Result>() {
+            @Override
+            public Result call() {
+                return run(frame, id, threshold);
+            }
+        }) {
+            @Override
+            protected void done() {
+                if (!isCancelled()) deliver(this, id, callback);
+            }
+        };
+        current = task;
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Cancel the request in flight, its callback is not called
+     */
+    public synchronized void cancel() {
+        generation++;
+        if (current == null) return;
+        if (current.cancel(false) && onCancel != null) {
+            onCancel.run();
+        }
+        executor.purge();
+        current = null;
+    }
+
+    /**
+     * Cancel the request in flight and stop the worker thread
+     */
+    public void shutdown() {
+        cancel();
+        executor.shutdown();
+    }
+
+    private Result run(F frame, long id, float threshold) {
+        Result result = new Result();
+
+        // [1] Detect and align
+        long start = System.nanoTime();
+        result.face = detector.detect(frame);
+        result.detectNanos = System.nanoTime() - start;
+        if (result.face == null) {
+            result.status = Status.NO_FACE;
+            return result;
+        }
+        if (generation != id) return null;
+
+        // [2] Anti-spoofing and embedding
+        start = System.nanoTime();
+        result.verification = verifier.verify(result.face);
+        result.verifyNanos = System.nanoTime() - start;
+        if (result.verification.spoof) {
+            result.status = Status.SPOOF;
+            return result;
+        }
+        if (generation != id || result.verification.embedding == null) return null;    // cancelled
+
+        // [3] Match
+        start = System.nanoTime();
+        result.distance = matcher.distance(result.verification.embedding);
+        result.matchNanos = System.nanoTime() - start;
+        result.status = result.distance < threshold ? Status.VERIFIED : Status.NOT_VERIFIED;
+        return result;
+    }
+
+    private void deliver(final Future<Result> task, final long id, final Callback callback) {
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // A newer frame submitted since the end of the run wins
+                if (generation != id) return;
+                Result result;
+                try {
+                    result = task.get();
+                } catch (ExecutionException e) {
+                    callback.onError(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+                    return;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (result != null) callback.onResult(result);
+            }
+        });
+    }
+}
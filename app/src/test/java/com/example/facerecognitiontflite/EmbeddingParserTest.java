@@ -0,0 +1,90 @@
+package com.example.facerecognitiontflite;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * EmbeddingParser gives the floats of Float.parseFloat, on single persons and bundles
+ */
+public class EmbeddingParserTest {
+    private static final int DIMENSION = 256;
+
+    @Test
+    public void bundledAssetsMatchFloatParseFloat() throws IOException {
+        for (String asset : new String[]{"69001535-wfo.json", "69001535-wfh.json"}) {
+            byte[] json = Files.readAllBytes(Paths.get("src/main/assets", asset));
+            EmbeddingParser.Result result = new EmbeddingParser(DIMENSION).parse(new ByteArrayInputStream(json));
+            Assert.assertEquals(1, result.personCount);
+            Assert.assertNull(result.niks[0]);
+
+            // Reference : every "|"-separated value through Float.parseFloat
+            Matcher matcher = Pattern.compile("\"\\|([^\"]*)\"").matcher(new String(json, StandardCharsets.UTF_8));
+            int t = 0;
+            while (matcher.find()) {
+                String[] values = matcher.group(1).split("\\|");
+                Assert.assertEquals(DIMENSION, values.length);
+                for (int d = 0; d < DIMENSION; d++) {
+                    Assert.assertEquals(Float.parseFloat(values[d]), result.templates[t * DIMENSION + d], 0f);
+                }
+                t++;
+            }
+            Assert.assertEquals(t, result.count[0]);
+            Assert.assertEquals(t, result.templateCount);
+        }
+    }
+
+    @Test
+    public void bundleOfPersons() throws IOException {
+        String json = "[{\"nik\": \"1\", \"embedding\": [\"" + embedding(0.5f) + "\", \"" + embedding(-1.25e-3f) + "\"]},"
+                + " {\"hash\": {\"a\": [1, true, null]}, \"embedding\": [], \"nik\": 2},"
+                + " {\"embedding\": [\"" + embedding(3) + "\"]}]";
+        EmbeddingParser.Result result = new EmbeddingParser(DIMENSION).parse(stream(json), 1);
+        Assert.assertEquals(3, result.personCount);
+        Assert.assertArrayEquals(new String[]{"1", "2", null}, Arrays.copyOf(result.niks, 3));
+        Assert.assertArrayEquals(new int[]{2, 0, 1}, Arrays.copyOf(result.count, 3));
+        Assert.assertEquals(-1.25e-3f, result.templates[DIMENSION], 0f);
+        Assert.assertEquals(3f, result.person(2).getEmbedding(0)[DIMENSION - 1], 0f);
+    }
+
+    @Test
+    public void malformedTokenReportsOffset() throws IOException {
+        String prefix = "{\"embedding\": [\"|0.25|";
+        String json = prefix + "1.5x|" + embedding(1).substring(1) + "\"]}";
+        try {
+            new EmbeddingParser(DIMENSION).parse(stream(json));
+            Assert.fail("Malformed number accepted");
+        } catch (EmbeddingParser.MalformedException e) {
+            Assert.assertEquals(prefix.length() + 3, e.offset);
+        }
+
+        // Too few values : offset of the embedding string
+        try {
+            new EmbeddingParser(DIMENSION).parse(stream("{\"embedding\": [\"|1|2\"]}"));
+            Assert.fail("Short embedding accepted");
+        } catch (EmbeddingParser.MalformedException e) {
+            Assert.assertEquals(15, e.offset);
+        }
+    }
+
+    private static String embedding(float value) {
+        StringBuilder builder = new StringBuilder();
+        for (int d = 0; d < DIMENSION; d++) {
+            builder.append('|').append(value);
+        }
+        return builder.toString();
+    }
+
+    private static InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
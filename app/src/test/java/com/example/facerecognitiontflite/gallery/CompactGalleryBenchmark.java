@@ -0,0 +1,94 @@
+package com.example.facerecognitiontflite.gallery;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * 1:N scan time and memory of the float, float16 and int8 galleries
+ * The baseline is the pairwise float cosine distance of MobileFaceNet.cosineDistance, which
+ * recomputes both norms for every template.
+ * Skipped by default, run with : ./gradlew testDebugUnitTest -Dbenchmark=true
+ */
+public class CompactGalleryBenchmark {
+    private static final int DIMENSION = 256;
+    private static final int TEMPLATES = 100_000;
+    private static final int QUERIES = 50;
+
+    @Test
+    public void scanTimeVersusStorage() {
+        Assume.assumeTrue("benchmark disabled", Boolean.getBoolean("benchmark"));
+        Random random = new Random(42);
+        float[][] raw = new float[TEMPLATES][];
+        Gallery gallery = new Gallery(DIMENSION, TEMPLATES);
+        HalfGallery half = new HalfGallery(DIMENSION, TEMPLATES);
+        Int8Gallery int8 = new Int8Gallery(DIMENSION, TEMPLATES);
+        for (int t = 0; t < TEMPLATES; t++) {
+            raw[t] = SyntheticRoster.gaussian(random, DIMENSION);
+            gallery.add(raw[t]);
+            half.add(raw[t]);
+            int8.add(raw[t]);
+        }
+        float[][] queries = new float[QUERIES][];
+        for (int q = 0; q < QUERIES; q++) {
+            queries[q] = SyntheticRoster.gaussian(random, DIMENSION);
+        }
+
+        Gallery.Match match = new Gallery.Match();
+        for (int round = 0; round < 2; round++) {   // first round is the JIT warm-up
+            int[] expected = new int[QUERIES];
+            long start = System.nanoTime();
+            for (int q = 0; q < QUERIES; q++) {
+                float best = Float.MAX_VALUE;
+                for (int t = 0; t < TEMPLATES; t++) {
+                    float distance = cosineDistance(queries[q], raw[t]);
+                    if (distance < best) {
+                        best = distance;
+                        expected[q] = t;
+                    }
+                }
+            }
+            double cosine = (System.nanoTime() - start) / 1e6 / QUERIES;
+
+            int floatAgree = 0;
+            start = System.nanoTime();
+            for (int q = 0; q < QUERIES; q++) if (gallery.match(queries[q], match).index == expected[q]) floatAgree++;
+            double floats = (System.nanoTime() - start) / 1e6 / QUERIES;
+
+            int halfAgree = 0;
+            start = System.nanoTime();
+            for (int q = 0; q < QUERIES; q++) if (half.match(queries[q], match).index == expected[q]) halfAgree++;
+            double halves = (System.nanoTime() - start) / 1e6 / QUERIES;
+
+            int int8Agree = 0;
+            start = System.nanoTime();
+            for (int q = 0; q < QUERIES; q++) if (int8.match(queries[q], match).index == expected[q]) int8Agree++;
+            double bytes = (System.nanoTime() - start) / 1e6 / QUERIES;
+
+            if (round == 0) continue;
+            System.out.println(String.format(Locale.US,
+                    "templates=%d cosineDistance=%.2f ms float=%.2f ms (%d B, top-1 %d/%d) float16=%.2f ms (%d B, top-1 %d/%d) int8=%.2f ms (%d B, top-1 %d/%d)",
+                    TEMPLATES, cosine, floats, (long) TEMPLATES * DIMENSION * 4, floatAgree, QUERIES,
+                    halves, half.memoryBytes(), halfAgree, QUERIES,
+                    bytes, int8.memoryBytes(), int8Agree, QUERIES));
+        }
+    }
+
+    /**
+     * Same arithmetic as MobileFaceNet.cosineDistance
+     */
+    private static float cosineDistance(float[] embeddings1, float[] embeddings2) {
+        float dotProduct = 0.0f;
+        float normA = 0.0f;
+        float normB = 0.0f;
+        for (int i = 0; i < embeddings1.length; i++) {
+            dotProduct = dotProduct + (embeddings1[i] * embeddings2[i]);
+            normA = normA + (embeddings1[i] * embeddings1[i]);
+            normB = normB + (embeddings2[i] * embeddings2[i]);
+        }
+        float distance = (float) (1 - (dotProduct / (Math.sqrt(normA) * Math.sqrt(normB))));
+        return Math.min(1, Math.max(0, distance));
+    }
+}
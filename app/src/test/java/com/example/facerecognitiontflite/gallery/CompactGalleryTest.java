@@ -0,0 +1,71 @@
+package com.example.facerecognitiontflite.gallery;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Int8Gallery and HalfGallery give the distances of the float Gallery on the bundled templates
+ */
+public class CompactGalleryTest {
+    private static final int DIMENSION = 256;
+
+    @Test
+    public void distancesMatchFloatGallery() throws IOException {
+        List<float[]> templates = new ArrayList<>(EnrolledData.wfo());
+        templates.addAll(EnrolledData.wfh());
+        Gallery exact = new Gallery(DIMENSION);
+        Int8Gallery int8 = new Int8Gallery(DIMENSION);
+        HalfGallery half = new HalfGallery(DIMENSION);
+        for (float[] template : templates) {
+            exact.add(template);
+            int8.add(template);
+            half.add(template);
+        }
+
+        for (float[] probe : templates) {
+            for (int t = 0; t < templates.size(); t++) {
+                float expected = exact.distance(probe, t);
+                Assert.assertEquals(expected, int8.distance(probe, t), 2e-3f);
+                Assert.assertEquals(expected, half.distance(probe, t), 1e-4f);
+            }
+        }
+
+        // Cross-sessions matching, WFH probes against the WFO templates
+        Gallery wfo = new Gallery(DIMENSION);
+        Int8Gallery wfoInt8 = new Int8Gallery(DIMENSION);
+        HalfGallery wfoHalf = new HalfGallery(DIMENSION);
+        for (float[] template : EnrolledData.wfo()) {
+            wfo.add(template);
+            wfoInt8.add(template);
+            wfoHalf.add(template);
+        }
+        Gallery.Match expected = new Gallery.Match();
+        Gallery.Match match = new Gallery.Match();
+        for (float[] probe : EnrolledData.wfh()) {
+            wfo.match(probe, expected);
+            wfoInt8.match(probe, match);
+            Assert.assertEquals(expected.index, match.index);
+            Assert.assertEquals(expected.distance, match.distance, 2e-3f);
+            wfoHalf.match(probe, match);
+            Assert.assertEquals(expected.index, match.index);
+            Assert.assertEquals(expected.distance, match.distance, 1e-4f);
+        }
+    }
+
+    @Test
+    public void halfConversionRoundTrips() {
+        for (int h = 0; h < 1 << 16; h++) {
+            float value = HalfGallery.toFloat((short) h);
+            if (Float.isNaN(value)) continue;
+            Assert.assertEquals(h, HalfGallery.toHalf(value) & 0xFFFF);
+        }
+        // Ties round to even, overflow gives infinity
+        Assert.assertEquals(0x3C00, HalfGallery.toHalf(1.0f + 1.0f / 2048) & 0xFFFF);
+        Assert.assertEquals(0x3C02, HalfGallery.toHalf(1.0f + 3.0f / 2048) & 0xFFFF);
+        Assert.assertEquals(0x7C00, HalfGallery.toHalf(70000f) & 0xFFFF);
+    }
+}
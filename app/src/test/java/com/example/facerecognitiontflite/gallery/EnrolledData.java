@@ -0,0 +1,43 @@
+package com.example.facerecognitiontflite.gallery;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Templates of the person bundled in the assets, read without the Android JSON classes
+ */
+class EnrolledData {
+    static final int PERSON_ID = 69001535;
+
+    static List<float[]> wfo() throws IOException {
+        return load("69001535-wfo.json");
+    }
+
+    static List<float[]> wfh() throws IOException {
+        return load("69001535-wfh.json");
+    }
+
+    /**
+     * Embeddings of a bundled asset, every embedding is a "|"-separated string
+     */
+    private static List<float[]> load(String asset) throws IOException {
+        String json = new String(Files.readAllBytes(Paths.get("src/main/assets", asset)), StandardCharsets.UTF_8);
+        List<float[]> embeddings = new ArrayList<>();
+        Matcher matcher = Pattern.compile("\"\\|([^\"]*)\"").matcher(json);
+        while (matcher.find()) {
+            String[] values = matcher.group(1).split("\\|");
+            float[] embedding = new float[values.length];
+            for (int d = 0; d < values.length; d++) {
+                embedding[d] = Float.parseFloat(values[d]);
+            }
+            embeddings.add(embedding);
+        }
+        return embeddings;
+    }
+}
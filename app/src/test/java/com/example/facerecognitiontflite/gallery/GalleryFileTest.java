@@ -0,0 +1,86 @@
+package com.example.facerecognitiontflite.gallery;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * The bundled .json base data converted to a gallery file matches like the float Gallery
+ */
+public class GalleryFileTest {
+    private static final int DIMENSION = 256;
+
+    @Test
+    public void convertedBaseDataMatchesGallery() throws IOException {
+        List<float[]> wfo = EnrolledData.wfo();
+        List<float[]> wfh = EnrolledData.wfh();
+        Gallery gallery = new Gallery(DIMENSION);
+        for (float[] template : wfo) gallery.add(template);
+
+        for (int encoding : new int[]{GalleryFile.FLOAT32, GalleryFile.INT8}) {
+            GalleryFile.Writer writer = new GalleryFile.Writer(DIMENSION, encoding);
+            writer.add(7, wfh.get(0));
+            for (float[] template : wfo) writer.add(EnrolledData.PERSON_ID, template);
+            GalleryFile file = GalleryFile.wrap(ByteBuffer.wrap(write(writer)));
+            file.verify();
+
+            Assert.assertEquals(2, file.personCount());
+            Assert.assertEquals(-1, file.find(8));
+            int person = file.find(EnrolledData.PERSON_ID);
+            Assert.assertEquals(1, person);
+            Assert.assertEquals(wfo.size(), file.templateCount(person));
+
+            float tolerance = encoding == GalleryFile.FLOAT32 ? 1e-5f : 2e-3f;
+            Gallery.Match expected = new Gallery.Match();
+            Gallery.Match match = new Gallery.Match();
+            for (float[] probe : wfh) {
+                gallery.match(probe, expected);
+                file.match(person, probe, match);
+                Assert.assertEquals(expected.index, match.index);
+                Assert.assertEquals(expected.distance, match.distance, tolerance);
+            }
+        }
+    }
+
+    @Test
+    public void corruptionIsDetected() throws IOException {
+        GalleryFile.Writer writer = new GalleryFile.Writer(DIMENSION, GalleryFile.FLOAT32);
+        for (float[] template : EnrolledData.wfo()) writer.add(EnrolledData.PERSON_ID, template);
+        byte[] bytes = write(writer);
+
+        // Template data : only verify() reads it
+        bytes[bytes.length - 1] ^= 1;
+        GalleryFile file = GalleryFile.wrap(ByteBuffer.wrap(bytes));
+        try {
+            file.verify();
+            Assert.fail("Corrupted data accepted");
+        } catch (IOException expected) {
+        }
+
+        // Index : checked when opening
+        bytes[64] ^= 1;
+        try {
+            GalleryFile.wrap(ByteBuffer.wrap(bytes));
+            Assert.fail("Corrupted index accepted");
+        } catch (IOException expected) {
+        }
+    }
+
+    private static byte[] write(GalleryFile.Writer writer) throws IOException {
+        File file = File.createTempFile("gallery", ".gal");
+        try {
+            try (FileOutputStream output = new FileOutputStream(file)) {
+                writer.write(output.getChannel());
+            }
+            return Files.readAllBytes(file.toPath());
+        } finally {
+            file.delete();
+        }
+    }
+}
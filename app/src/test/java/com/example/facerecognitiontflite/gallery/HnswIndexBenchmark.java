@@ -0,0 +1,81 @@
+package com.example.facerecognitiontflite.gallery;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * HNSW recall@1 against the exact scan, queries per second and memory per template for several ef
+ * The gallery and the queries come from a SyntheticRoster.
+ * Skipped by default, run with : ./gradlew testDebugUnitTest -Dbenchmark=true
+ */
+public class HnswIndexBenchmark {
+    private static final int DIMENSION = 256;
+    private static final int TEMPLATES_PER_PERSON = 5;
+    private static final float NOISE = 0.6f;
+    private static final int QUERIES = 500;
+
+    @Test
+    public void recallAndThroughputVersusEf() throws IOException {
+        Assume.assumeTrue("benchmark disabled", Boolean.getBoolean("benchmark"));
+        for (int templates : new int[]{10_000, 100_000}) {
+            run(templates);
+        }
+    }
+
+    private void run(int templates) throws IOException {
+        Random random = new Random(42);
+        int persons = templates / TEMPLATES_PER_PERSON;
+        float[][] centers = SyntheticRoster.centers(random, persons, DIMENSION);
+
+        IdentificationIndex exact = new IdentificationIndex(DIMENSION);
+        HnswIndex hnsw = new HnswIndex(DIMENSION);
+        long start = System.nanoTime();
+        for (int t = 0; t < templates; t++) {
+            float[] template = SyntheticRoster.gaussian(random, DIMENSION, centers[t / TEMPLATES_PER_PERSON], NOISE);
+            exact.add(t / TEMPLATES_PER_PERSON, template);
+            hnsw.add(t / TEMPLATES_PER_PERSON, template);
+        }
+        double buildSeconds = (System.nanoTime() - start) / 1e9;
+
+        float[][] queries = new float[QUERIES][];
+        int[] truth = new int[QUERIES];
+        for (int q = 0; q < QUERIES; q++) {
+            queries[q] = SyntheticRoster.gaussian(random, DIMENSION, centers[random.nextInt(persons)], NOISE);
+            truth[q] = exact.search(queries[q], 1).personIds[0];
+        }
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        hnsw.write(file);
+        HnswIndex loaded = HnswIndex.read(new ByteArrayInputStream(file.toByteArray()));
+
+        System.out.println(String.format(Locale.US,
+                "templates=%d build=%.1f s memory=%.0f bytes/template file=%.0f bytes/template (float[] only=%d)",
+                templates, buildSeconds, (double) hnsw.memoryBytes() / templates,
+                (double) file.size() / templates, DIMENSION * 4));
+
+        start = System.nanoTime();
+        for (float[] query : queries) exact.search(query, 1);
+        System.out.println(String.format(Locale.US, "  exact scan qps=%.0f",
+                QUERIES / ((System.nanoTime() - start) / 1e9)));
+
+        for (int ef : new int[]{16, 32, 64, 128, 256}) {
+            loaded.setEf(ef);
+            for (float[] query : queries) loaded.search(query, 1);
+            int hits = 0;
+            start = System.nanoTime();
+            for (int q = 0; q < QUERIES; q++) {
+                IdentificationIndex.Result result = loaded.search(queries[q], 1);
+                if (result.count > 0 && result.personIds[0] == truth[q]) hits++;
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(String.format(Locale.US, "  ef=%d recall@1=%.4f qps=%.0f",
+                    ef, (double) hits / QUERIES, QUERIES / seconds));
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.facerecognitiontflite.gallery;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * A written HnswIndex reads back to the same searches, a corrupted file is rejected, removed persons
+ * are never returned and the recall against the exact scan holds at the default ef
+ */
+public class HnswIndexTest {
+    private static final int DIMENSION = 32;
+    private static final int TEMPLATES = 500;
+    private static final int PERSONS = 200;
+    private static final int TEMPLATES_PER_PERSON = 3;
+    private static final float NOISE = 0.6f;
+
+    @Test
+    public void readGivesSameSearches() throws IOException {
+        Random random = new Random(7);
+        HnswIndex index = build(random);
+        HnswIndex loaded = HnswIndex.read(new ByteArrayInputStream(write(index)));
+
+        Assert.assertEquals(index.size(), loaded.size());
+        for (int q = 0; q < 50; q++) {
+            float[] probe = SyntheticRoster.gaussian(random, DIMENSION);
+            IdentificationIndex.Result expected = index.search(probe, 5);
+            IdentificationIndex.Result result = loaded.search(probe, 5);
+            Assert.assertEquals(expected.count, result.count);
+            for (int i = 0; i < expected.count; i++) {
+                Assert.assertEquals(expected.personIds[i], result.personIds[i]);
+                Assert.assertEquals(expected.distances[i], result.distances[i], 0f);
+            }
+        }
+    }
+
+    @Test
+    public void corruptionIsDetected() throws IOException {
+        byte[] bytes = write(build(new Random(7)));
+
+        // A vector value : only the CRC32 catches it
+        bytes[bytes.length / 2] ^= 1;
+        try {
+            HnswIndex.read(new ByteArrayInputStream(bytes));
+            Assert.fail("Corrupted index accepted");
+        } catch (IOException expected) {
+        }
+        bytes[bytes.length / 2] ^= 1;
+
+        // Truncated file
+        byte[] truncated = new byte[bytes.length - 4];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        try {
+            HnswIndex.read(new ByteArrayInputStream(truncated));
+            Assert.fail("Truncated index accepted");
+        } catch (IOException expected) {
+        }
+
+        HnswIndex.read(new ByteArrayInputStream(bytes));
+    }
+
+    @Test
+    public void oversizedHeaderIsRejected() throws IOException {
+        // More floats than an array holds
+        assertRejected(header(256, 64, 1 << 24, 0));
+        // Fits an array but the nodes are missing, the file ends before the full size is allocated
+        assertRejected(header(256, 64, 1 << 22, 0));
+        // Negative ef
+        assertRejected(header(DIMENSION, -1, 1, 0));
+        // Levels are stored in one byte
+        assertRejected(header(DIMENSION, 64, 1, 300));
+    }
+
+    @Test
+    public void removedPersonsAreNeverReturned() {
+        Random random = new Random(7);
+        float[][] centers = SyntheticRoster.centers(random, PERSONS, DIMENSION);
+        HnswIndex index = rosterIndex(random, centers);
+        for (int p = 0; p < PERSONS; p += 2) {
+            Assert.assertEquals(TEMPLATES_PER_PERSON, index.remove(p));
+        }
+        Assert.assertEquals(0, index.remove(0));
+
+        for (int p = 0; p < PERSONS; p++) {
+            float[] probe = SyntheticRoster.gaussian(random, DIMENSION, centers[p], NOISE);
+            IdentificationIndex.Result result = index.search(probe, 10);
+            Assert.assertTrue(result.count > 0);
+            for (int i = 0; i < result.count; i++) {
+                Assert.assertEquals("Removed person " + result.personIds[i] + " returned", 1, result.personIds[i] % 2);
+            }
+        }
+    }
+
+    @Test
+    public void recallAgainstExactScan() {
+        Random random = new Random(7);
+        float[][] centers = SyntheticRoster.centers(random, PERSONS, DIMENSION);
+        HnswIndex index = rosterIndex(new Random(8), centers);
+        IdentificationIndex exact = new IdentificationIndex(DIMENSION);
+        Random templates = new Random(8);
+        for (int t = 0; t < PERSONS * TEMPLATES_PER_PERSON; t++) {
+            exact.add(t / TEMPLATES_PER_PERSON,
+                    SyntheticRoster.gaussian(templates, DIMENSION, centers[t / TEMPLATES_PER_PERSON], NOISE));
+        }
+
+        index.setEf(32);
+        int queries = 500;
+        int hits = 0;
+        for (int q = 0; q < queries; q++) {
+            float[] probe = SyntheticRoster.gaussian(random, DIMENSION, centers[random.nextInt(PERSONS)], NOISE);
+            if (index.search(probe, 1).personIds[0] == exact.search(probe, 1).personIds[0]) hits++;
+        }
+        Assert.assertTrue("recall@1 " + hits + " / " + queries, hits >= queries * 0.98);
+    }
+
+    private static HnswIndex rosterIndex(Random random, float[][] centers) {
+        HnswIndex index = new HnswIndex(DIMENSION, 8, 64, 42);
+        for (int t = 0; t < PERSONS * TEMPLATES_PER_PERSON; t++) {
+            index.add(t / TEMPLATES_PER_PERSON,
+                    SyntheticRoster.gaussian(random, DIMENSION, centers[t / TEMPLATES_PER_PERSON], NOISE));
+        }
+        return index;
+    }
+
+    /**
+     * Header of a version 2 file (m = 16) without any node
+     */
+    private static byte[] header(int dimension, int ef, int size, int maxLevel) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(output);
+        out.writeInt(0x484E5357);
+        out.writeInt(2);
+        out.writeInt(dimension);
+        out.writeInt(16);
+        out.writeInt(200);
+        out.writeInt(ef);
+        out.writeInt(size);
+        out.writeInt(0);
+        out.writeInt(maxLevel);
+        return output.toByteArray();
+    }
+
+    private static void assertRejected(byte[] bytes) {
+        try {
+            HnswIndex.read(new ByteArrayInputStream(bytes));
+            Assert.fail("Invalid index accepted");
+        } catch (IOException expected) {
+        }
+    }
+
+    private static HnswIndex build(Random random) {
+        HnswIndex index = new HnswIndex(DIMENSION, 8, 64, 42);
+        for (int t = 0; t < TEMPLATES; t++) {
+            index.add(t, SyntheticRoster.gaussian(random, DIMENSION));
+        }
+        return index;
+    }
+
+    private static byte[] write(HnswIndex index) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        index.write(output);
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.facerecognitiontflite.gallery;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 1:N search latency at 10k / 100k / 1M templates, parallel and single threaded
+ * Skipped by default, run with : ./gradlew testDebugUnitTest -Dbenchmark=true
+ */
+public class IdentificationIndexBenchmark {
+    private static final int DIMENSION = 256;
+    private static final int TEMPLATES_PER_PERSON = 5;
+    private static final int K = 10;
+    private static final int WARMUP = 5;
+    private static final int RUNS = 20;
+
+    @Test
+    public void searchLatencyVersusRosterSize() {
+        Assume.assumeTrue("benchmark disabled", Boolean.getBoolean("benchmark"));
+        Random random = new Random(42);
+        float[] probe = SyntheticRoster.gaussian(random, DIMENSION);
+        ForkJoinPool single = new ForkJoinPool(1);
+
+        for (int templates : new int[]{10_000, 100_000, 1_000_000}) {
+            IdentificationIndex index = new IdentificationIndex(DIMENSION);
+            for (int t = 0; t < templates; t++) {
+                index.add(t / TEMPLATES_PER_PERSON, SyntheticRoster.gaussian(random, DIMENSION));
+            }
+            System.out.println(String.format(Locale.US, "templates=%d threads=%d search=%.3f ms, threads=1 search=%.3f ms",
+                    templates, ForkJoinPool.commonPool().getParallelism(),
+                    time(index, probe, ForkJoinPool.commonPool()), time(index, probe, single)));
+        }
+        single.shutdown();
+    }
+
+    private static double time(IdentificationIndex index, float[] probe, ForkJoinPool pool) {
+        for (int i = 0; i < WARMUP; i++) index.search(probe, K, pool);
+        long start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) index.search(probe, K, pool);
+        return (System.nanoTime() - start) / 1e6 / RUNS;
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.facerecognitiontflite.gallery;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * IdentificationIndex returns the persons of a brute-force scan, best template of every person
+ */
+public class IdentificationIndexTest {
+    private static final int DIMENSION = 32;
+    private static final int PERSONS = 300;
+    // More than the 16 * 64 templates of one fork/join leaf, the top-k of several leaves are merged
+    private static final int TEMPLATES = 3000;
+
+    @Test
+    public void searchMatchesBruteForce() {
+        Random random = new Random(7);
+        IdentificationIndex index = new IdentificationIndex(DIMENSION);
+        Gallery[] persons = new Gallery[PERSONS];
+        for (int p = 0; p < PERSONS; p++) {
+            persons[p] = new Gallery(DIMENSION);
+        }
+        float[][] centers = SyntheticRoster.centers(random, PERSONS, DIMENSION);
+        for (int t = 0; t < TEMPLATES; t++) {
+            // Consecutive templates belong to different persons : every person is in every leaf
+            int person = t % PERSONS;
+            float[] template = SyntheticRoster.gaussian(random, DIMENSION, centers[person], 1.0f);
+            index.add(person, template);
+            persons[person].add(template);
+        }
+
+        ForkJoinPool single = new ForkJoinPool(1);
+        for (int q = 0; q < 20; q++) {
+            float[] probe = SyntheticRoster.gaussian(random, DIMENSION, centers[random.nextInt(PERSONS)], 1.0f);
+            Integer[] expected = bruteForce(persons, probe);
+            for (int k : new int[]{1, 10, PERSONS + 5}) {
+                assertResult(persons, probe, expected, k, index.search(probe, k));
+                assertResult(persons, probe, expected, k, index.search(probe, k, single));
+            }
+        }
+        single.shutdown();
+    }
+
+    @Test
+    public void fewerPersonsThanK() {
+        IdentificationIndex index = new IdentificationIndex(DIMENSION);
+        Random random = new Random(7);
+        for (int t = 0; t < 9; t++) {
+            index.add(t % 3, SyntheticRoster.gaussian(random, DIMENSION));
+        }
+        IdentificationIndex.Result result = index.search(SyntheticRoster.gaussian(random, DIMENSION), 10);
+        Assert.assertEquals(3, result.count);
+        Assert.assertEquals(0, new IdentificationIndex(DIMENSION).search(new float[DIMENSION], 10).count);
+    }
+
+    /**
+     * Persons sorted by the distance of their best template
+     */
+    private static Integer[] bruteForce(Gallery[] persons, float[] probe) {
+        float[] distances = new float[persons.length];
+        Integer[] order = new Integer[persons.length];
+        Gallery.Match match = new Gallery.Match();
+        for (int p = 0; p < persons.length; p++) {
+            distances[p] = persons[p].match(probe, match).distance;
+            order[p] = p;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(p -> distances[p]));
+        return order;
+    }
+
+    /**
+     * Same distance as the brute force at every rank, persons at the same distance (e.g. clamped to 1)
+     * may come in any order
+     */
+    private static void assertResult(Gallery[] persons, float[] probe, Integer[] expected, int k,
+                                     IdentificationIndex.Result result) {
+        Assert.assertEquals(Math.min(k, persons.length), result.count);
+        Gallery.Match match = new Gallery.Match();
+        boolean[] seen = new boolean[persons.length];
+        for (int i = 0; i < result.count; i++) {
+            int person = result.personIds[i];
+            Assert.assertFalse("Person " + person + " returned twice", seen[person]);
+            seen[person] = true;
+            Assert.assertEquals(persons[person].match(probe, match).distance, result.distances[i], 1e-5f);
+            Assert.assertEquals(persons[expected[i]].match(probe, match).distance, result.distances[i], 1e-5f);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.facerecognitiontflite.gallery;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Memory and accuracy of the product-quantized gallery against the exact scan
+ * The gallery holds the WFO templates of the bundled person 69001535 plus a SyntheticRoster, the
+ * codebooks are trained on the gallery itself. The WFH templates of 69001535 are the probes of the
+ * enrolled data, the roster gives the synthetic probes.
+ * Skipped by default, run with : ./gradlew testDebugUnitTest -Dbenchmark=true
+ */
+public class PqGalleryBenchmark {
+    private static final int DIMENSION = 256;
+    private static final int SUBSPACES = 32;
+    private static final int PERSONS = 2_000;
+    private static final int TEMPLATES_PER_PERSON = 5;
+    private static final float NOISE = 0.6f;
+    private static final int QUERIES = 500;
+
+    @Test
+    public void memoryAndAccuracyVersusExact() throws IOException {
+        Assume.assumeTrue("benchmark disabled", Boolean.getBoolean("benchmark"));
+        List<float[]> wfo = EnrolledData.wfo();
+        List<float[]> wfh = EnrolledData.wfh();
+
+        // [1] Gallery templates : enrolled person first, then the synthetic roster
+        Random random = new Random(42);
+        List<float[]> templates = new ArrayList<>(wfo);
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < wfo.size(); i++) ids.add(EnrolledData.PERSON_ID);
+        float[][] centers = SyntheticRoster.centers(random, PERSONS, DIMENSION);
+        for (int p = 0; p < PERSONS; p++) {
+            for (int t = 0; t < TEMPLATES_PER_PERSON; t++) {
+                templates.add(SyntheticRoster.gaussian(random, DIMENSION, centers[p], NOISE));
+                ids.add(p);
+            }
+        }
+
+        long start = System.nanoTime();
+        ProductQuantizer quantizer = ProductQuantizer.train(templates.toArray(new float[0][]), SUBSPACES, 10, 42);
+        double trainSeconds = (System.nanoTime() - start) / 1e9;
+
+        IdentificationIndex exact = new IdentificationIndex(DIMENSION);
+        PqGallery adc = new PqGallery(quantizer, false);
+        PqGallery reranked = new PqGallery(quantizer, true);
+        for (int t = 0; t < templates.size(); t++) {
+            exact.add(ids.get(t), templates.get(t));
+            adc.add(ids.get(t), templates.get(t));
+            reranked.add(ids.get(t), templates.get(t));
+        }
+        int n = templates.size();
+        System.out.println(String.format(Locale.US,
+                "templates=%d train=%.1f s float=%d bytes/template pq=%.0f bytes/template (%.1fx) pq+exact=%.0f bytes/template",
+                n, trainSeconds, DIMENSION * 4 + 4, (double) adc.memoryBytes() / n,
+                (DIMENSION * 4 + 4) / ((double) adc.memoryBytes() / n), (double) reranked.memoryBytes() / n));
+
+        // [2] Enrolled data : distance of every WFH probe to 69001535
+        for (int i = 0; i < wfh.size(); i++) {
+            IdentificationIndex.Result e = exact.search(wfh.get(i), 1);
+            IdentificationIndex.Result a = adc.search(wfh.get(i), 1);
+            IdentificationIndex.Result r = reranked.search(wfh.get(i), 1);
+            System.out.println(String.format(Locale.US,
+                    "  wfh[%d] exact=%d %.4f adc=%d %.4f (delta %+.4f) reranked=%d %.4f",
+                    i, e.personIds[0], e.distances[0], a.personIds[0], a.distances[0],
+                    a.distances[0] - e.distances[0], r.personIds[0], r.distances[0]));
+            Assert.assertEquals(e.personIds[0], r.personIds[0]);
+            Assert.assertEquals(e.distances[0], r.distances[0], 1e-5f);
+        }
+
+        // [3] Synthetic probes : recall@1 and mean absolute distance error
+        int adcHits = 0, rerankHits = 0;
+        double adcError = 0;
+        long adcNanos = 0, rerankNanos = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            float[] query = SyntheticRoster.gaussian(random, DIMENSION, centers[random.nextInt(PERSONS)], NOISE);
+            IdentificationIndex.Result e = exact.search(query, 1);
+            start = System.nanoTime();
+            IdentificationIndex.Result a = adc.search(query, 1);
+            adcNanos += System.nanoTime() - start;
+            start = System.nanoTime();
+            IdentificationIndex.Result r = reranked.search(query, 1);
+            rerankNanos += System.nanoTime() - start;
+            if (a.personIds[0] == e.personIds[0]) adcHits++;
+            if (r.personIds[0] == e.personIds[0]) rerankHits++;
+            adcError += Math.abs(a.distances[0] - e.distances[0]);
+        }
+        System.out.println(String.format(Locale.US,
+                "  synthetic adc recall@1=%.4f mean |delta|=%.4f qps=%.0f, reranked recall@1=%.4f qps=%.0f",
+                (double) adcHits / QUERIES, adcError / QUERIES, QUERIES / (adcNanos / 1e9),
+                (double) rerankHits / QUERIES, QUERIES / (rerankNanos / 1e9)));
+    }
+}
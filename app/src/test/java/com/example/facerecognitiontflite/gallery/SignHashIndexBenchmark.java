@@ -0,0 +1,70 @@
+package com.example.facerecognitiontflite.gallery;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Sign-hash prefilter against the exact single-threaded scan : search time and recall@1 versus the
+ * number of re-ranked candidates (1 candidate is the cost of the Hamming pass alone)
+ * The gallery and the queries come from a SyntheticRoster.
+ * Skipped by default, run with : ./gradlew testDebugUnitTest -Dbenchmark=true
+ */
+public class SignHashIndexBenchmark {
+    private static final int DIMENSION = 256;
+    private static final int TEMPLATES_PER_PERSON = 5;
+    private static final float NOISE = 1.0f;
+    private static final int QUERIES = 200;
+
+    @Test
+    public void speedAndRecallVersusCandidates() {
+        Assume.assumeTrue("benchmark disabled", Boolean.getBoolean("benchmark"));
+        for (int templates : new int[]{10_000, 100_000, 500_000}) {
+            run(templates);
+        }
+    }
+
+    private void run(int templates) {
+        Random random = new Random(42);
+        int persons = templates / TEMPLATES_PER_PERSON;
+        float[][] centers = SyntheticRoster.centers(random, persons, DIMENSION);
+        IdentificationIndex exact = new IdentificationIndex(DIMENSION);
+        SignHashIndex index = new SignHashIndex(DIMENSION);
+        for (int t = 0; t < templates; t++) {
+            float[] template = SyntheticRoster.gaussian(random, DIMENSION, centers[t / TEMPLATES_PER_PERSON], NOISE);
+            exact.add(t / TEMPLATES_PER_PERSON, template);
+            index.add(t / TEMPLATES_PER_PERSON, template);
+        }
+        float[][] queries = new float[QUERIES][];
+        for (int q = 0; q < QUERIES; q++) {
+            queries[q] = SyntheticRoster.gaussian(random, DIMENSION, centers[random.nextInt(persons)], NOISE);
+        }
+
+        ForkJoinPool single = new ForkJoinPool(1);
+        int[] truth = new int[QUERIES];
+        for (float[] query : queries) exact.search(query, 1, single);
+        long start = System.nanoTime();
+        for (int q = 0; q < QUERIES; q++) {
+            truth[q] = exact.search(queries[q], 1, single).personIds[0];
+        }
+        double exactMs = (System.nanoTime() - start) / 1e6 / QUERIES;
+        single.shutdown();
+        System.out.println(String.format(Locale.US, "templates=%d exact scan=%.3f ms", templates, exactMs));
+
+        for (int candidates : new int[]{1, 64, 128, 256, 512}) {
+            index.setCandidates(candidates);
+            for (float[] query : queries) index.search(query, 1);
+            int hits = 0;
+            start = System.nanoTime();
+            for (int q = 0; q < QUERIES; q++) {
+                if (index.search(queries[q], 1).personIds[0] == truth[q]) hits++;
+            }
+            double ms = (System.nanoTime() - start) / 1e6 / QUERIES;
+            System.out.println(String.format(Locale.US, "  candidates=%d search=%.3f ms (%.1fx) recall@1=%.4f",
+                    candidates, ms, exactMs / ms, (double) hits / QUERIES));
+        }
+    }
+}
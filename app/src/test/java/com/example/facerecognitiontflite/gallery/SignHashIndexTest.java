@@ -0,0 +1,75 @@
+package com.example.facerecognitiontflite.gallery;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * SignHashIndex re-ranks exactly the configured number of candidates, and gives the exact search
+ * when every template is a candidate
+ */
+public class SignHashIndexTest {
+    private static final int DIMENSION = 64;
+    private static final int PERSONS = 300;
+    private static final int TEMPLATES_PER_PERSON = 4;
+    private static final float NOISE = 0.6f;
+
+    @Test
+    public void allCandidatesGiveExactSearch() {
+        Random random = new Random(7);
+        float[][] centers = SyntheticRoster.centers(random, PERSONS, DIMENSION);
+        IdentificationIndex exact = new IdentificationIndex(DIMENSION);
+        SignHashIndex index = new SignHashIndex(DIMENSION);
+        for (int t = 0; t < PERSONS * TEMPLATES_PER_PERSON; t++) {
+            float[] template = SyntheticRoster.gaussian(random, DIMENSION, centers[t / TEMPLATES_PER_PERSON], NOISE);
+            exact.add(t / TEMPLATES_PER_PERSON, template);
+            index.add(t / TEMPLATES_PER_PERSON, template);
+        }
+        index.setCandidates(index.size());
+
+        for (int q = 0; q < 50; q++) {
+            float[] probe = SyntheticRoster.gaussian(random, DIMENSION, centers[random.nextInt(PERSONS)], NOISE);
+            IdentificationIndex.Result expected = exact.search(probe, 10);
+            IdentificationIndex.Result result = index.search(probe, 10);
+            Assert.assertEquals(expected.count, result.count);
+            for (int i = 0; i < expected.count; i++) {
+                Assert.assertEquals(expected.personIds[i], result.personIds[i]);
+                Assert.assertEquals(expected.distances[i], result.distances[i], 1e-5f);
+            }
+        }
+    }
+
+    @Test
+    public void tiesAtThresholdKeepTheCandidateBudget() {
+        Random random = new Random(7);
+        float[] probe = positive(random);
+        // Every template is its own person : the persons returned are the templates re-ranked.
+        // Templates 5, 10 and 15 have the signs of the probe (Hamming distance 0), the others one
+        // negative value (distance 1) and tie at the threshold.
+        SignHashIndex index = new SignHashIndex(DIMENSION);
+        for (int t = 0; t < 20; t++) {
+            float[] template = positive(random);
+            boolean closer = t == 5 || t == 10 || t == 15;
+            if (!closer) template[t] = -template[t];
+            index.add(t, template);
+        }
+        index.setCandidates(8);
+
+        IdentificationIndex.Result result = index.search(probe, 20);
+        Assert.assertEquals(8, result.count);
+        int[] persons = Arrays.copyOf(result.personIds, result.count);
+        Arrays.sort(persons);
+        // The 3 closer templates, then the first 5 ties in gallery order
+        Assert.assertArrayEquals(new int[]{0, 1, 2, 3, 4, 5, 10, 15}, persons);
+    }
+
+    private static float[] positive(Random random) {
+        float[] values = new float[DIMENSION];
+        for (int d = 0; d < DIMENSION; d++) {
+            values[d] = 0.1f + Math.abs((float) random.nextGaussian());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.facerecognitiontflite.gallery;
+
+import java.util.Random;
+
+/**
+ * Synthetic embeddings for the gallery tests and benchmarks
+ * A roster gives every person a random center and noisy templates around it, the probes are other
+ * noisy samples of enrolled persons.
+ */
+class SyntheticRoster {
+
+    /**
+     * One random center per person
+     */
+    static float[][] centers(Random random, int persons, int dimension) {
+        float[][] centers = new float[persons][];
+        for (int p = 0; p < persons; p++) {
+            centers[p] = gaussian(random, dimension);
+        }
+        return centers;
+    }
+
+    /**
+     * Standard normal vector
+     */
+    static float[] gaussian(Random random, int dimension) {
+        return gaussian(random, dimension, null, 1.0f);
+    }
+
+    /**
+     * Normal vector around center
+     * @param center : mean, null for a zero mean
+     * @param sigma : standard deviation of every value
+     */
+    static float[] gaussian(Random random, int dimension, float[] center, float sigma) {
+        float[] values = new float[dimension];
+        for (int d = 0; d < dimension; d++) {
+            values[d] = (center == null ? 0 : center[d]) + sigma * (float) random.nextGaussian();
+        }
+        return values;
+    }
+}
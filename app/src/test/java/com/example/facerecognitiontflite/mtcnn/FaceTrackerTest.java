@@ -0,0 +1,115 @@
+package com.example.facerecognitiontflite.mtcnn;
+
+import org.junit.Test;
+
+import java.util.Vector;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * FaceTracker keyframe schedule, fallback and track ids, with scripted refine / detect results
+ * instead of the networks
+ */
+public class FaceTrackerTest {
+    private final StringBuilder stages = new StringBuilder();
+
+    @Test
+    public void keyframeEveryInterval() {
+        FaceTracker tracker = new FaceTracker(null);
+        tracker.setKeyframeInterval(3);
+        for (int frame = 0; frame < 7; frame++) {
+            track(tracker, faces(box(10, 10, 50, 50, 0.9f)), faces(box(10, 10, 50, 50, 0.9f)));
+        }
+        // The first frame has no track, then one keyframe every 3 frames
+        assertEquals("DRRDRRD", stages.toString());
+
+        stages.setLength(0);
+        tracker.reset();
+        track(tracker, faces(box(10, 10, 50, 50, 0.9f)), faces(box(10, 10, 50, 50, 0.9f)));
+        assertEquals("D", stages.toString());
+    }
+
+    @Test
+    public void lostOrUnsureFaceFallsBackToDetection() {
+        FaceTracker tracker = new FaceTracker(null);
+        tracker.setMinScore(0.8f);
+        track(tracker, null, faces(box(10, 10, 50, 50, 0.9f), box(100, 10, 140, 50, 0.9f)));
+
+        // Score under minScore : full detection on the same frame, its faces are returned
+        Vector<Box> boxes = track(tracker, faces(box(10, 10, 50, 50, 0.5f), box(100, 10, 140, 50, 0.9f)),
+                faces(box(12, 10, 52, 50, 0.95f), box(100, 10, 140, 50, 0.9f)));
+        assertEquals("DRD", stages.toString());
+        assertEquals(12, boxes.get(0).left());
+
+        // One face lost by the refinement
+        track(tracker, faces(box(12, 10, 52, 50, 0.9f)),
+                faces(box(12, 10, 52, 50, 0.9f), box(100, 10, 140, 50, 0.9f)));
+        assertEquals("DRDRD", stages.toString());
+
+        // Both faces confirmed
+        track(tracker, faces(box(12, 10, 52, 50, 0.9f), box(100, 10, 140, 50, 0.9f)), null);
+        assertEquals("DRDRDR", stages.toString());
+    }
+
+    @Test
+    public void trackIdsFollowTheBestOverlap() {
+        FaceTracker tracker = new FaceTracker(null);
+        Vector<Box> first = track(tracker, null, faces(box(0, 0, 40, 40, 0.9f), box(100, 0, 140, 40, 0.9f)));
+        assertEquals(0, first.get(0).trackId);
+        assertEquals(1, first.get(1).trackId);
+
+        // Returned in the other order and slightly moved : the ids follow the faces
+        Vector<Box> next = track(tracker, faces(box(104, 2, 144, 42, 0.9f), box(3, 1, 43, 41, 0.9f)), null);
+        assertEquals(1, next.get(0).trackId);
+        assertEquals(0, next.get(1).trackId);
+
+        // Two faces overlapping track 0 : the best overlap keeps the id whatever the order, the other
+        // face and the face far from every track get new ids
+        next = track(tracker, faces(box(13, 1, 53, 41, 0.9f), box(5, 1, 45, 41, 0.9f), box(104, 2, 144, 42, 0.9f),
+                box(300, 0, 340, 40, 0.9f)), null);
+        assertEquals(2, next.get(0).trackId);
+        assertEquals(0, next.get(1).trackId);
+        assertEquals(1, next.get(2).trackId);
+        assertEquals(3, next.get(3).trackId);
+
+        // The returned boxes may be modified, the tracks are copies
+        next.get(2).box[0] = 1000;
+        next = track(tracker, faces(box(104, 2, 144, 42, 0.9f), box(13, 1, 53, 41, 0.9f), box(5, 1, 45, 41, 0.9f),
+                box(300, 0, 340, 40, 0.9f)), null);
+        assertEquals(1, next.get(0).trackId);
+        assertEquals(2, next.get(1).trackId);
+    }
+
+    /**
+     * Track one frame, D or R is appended to stages for every stage run
+     * @param refined : refineFaces result, null when refine must not run
+     * @param detected : detectFaces result, null when detect must not run
+     */
+    private Vector<Box> track(FaceTracker tracker, Vector<Box> refined, Vector<Box> detected) {
+        return tracker.track(() -> {
+            stages.append('R');
+            if (refined == null) throw new AssertionError("Unexpected refinement");
+            return refined;
+        }, () -> {
+            stages.append('D');
+            if (detected == null) throw new AssertionError("Unexpected detection");
+            return detected;
+        });
+    }
+
+    private static Vector<Box> faces(Box... boxes) {
+        Vector<Box> faces = new Vector<>();
+        for (Box box : boxes) faces.add(box);
+        return faces;
+    }
+
+    private static Box box(int left, int top, int right, int bottom, float score) {
+        Box box = new Box();
+        box.box[0] = left;
+        box.box[1] = top;
+        box.box[2] = right;
+        box.box[3] = bottom;
+        box.score = score;
+        return box;
+    }
+}
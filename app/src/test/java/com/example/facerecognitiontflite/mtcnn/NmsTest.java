@@ -0,0 +1,124 @@
+package com.example.facerecognitiontflite.mtcnn;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Grid NMS parity with a brute-force greedy NMS over all pairs
+ * Boxes are clustered so that most of them overlap, scores are quantized so that ties occur.
+ */
+public class NmsTest {
+    private static final int SETS = 200;
+
+    @Test
+    public void matchesBruteForce() {
+        Random random = new Random(42);
+        Nms nms = new Nms();
+        for (int set = 0; set < SETS; set++) {
+            int n = 1 + random.nextInt(300);
+            BoxList boxes = randomBoxes(random, n);
+            for (Nms.Method method : Nms.Method.values()) {
+                for (float threshold : new float[]{0.3f, 0.5f, 0.7f}) {
+                    BoxList actual = copy(boxes);
+                    nms.run(actual, threshold, method);
+                    boolean[] expected = bruteForce(boxes, threshold, method);
+                    for (int i = 0; i < n; i++) {
+                        assertEquals("set " + set + " " + method + " " + threshold + " box " + i,
+                                expected[i], actual.isDeleted(i));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void deletedBoxesAreIgnored() {
+        BoxList boxes = new BoxList();
+        boxes.add(0, 0, 99, 99, 0.9f);
+        boxes.add(5, 5, 104, 104, 0.8f);
+        boxes.add(10, 10, 109, 109, 0.7f);
+        boxes.delete(0);
+        new Nms().run(boxes, 0.5f, Nms.Method.UNION);
+        assertEquals(true, boxes.isDeleted(0));
+        assertEquals(false, boxes.isDeleted(1));
+        assertEquals(true, boxes.isDeleted(2));
+    }
+
+    private static BoxList randomBoxes(Random random, int n) {
+        BoxList boxes = new BoxList();
+        int clusters = 1 + random.nextInt(8);
+        int[] cx = new int[clusters];
+        int[] cy = new int[clusters];
+        for (int c = 0; c < clusters; c++) {
+            cx[c] = random.nextInt(640);
+            cy[c] = random.nextInt(480);
+        }
+        for (int i = 0; i < n; i++) {
+            int c = random.nextInt(clusters);
+            int size = 12 + random.nextInt(120);
+            int left = cx[c] + random.nextInt(41) - 20 - size / 2;
+            int top = cy[c] + random.nextInt(41) - 20 - size / 2;
+            boxes.add(left, top, left + size + random.nextInt(9) - 4, top + size, random.nextInt(20) / 20f);
+        }
+        for (int i = 0; i < n; i++) {
+            if (random.nextInt(10) == 0) boxes.delete(i);
+        }
+        return boxes;
+    }
+
+    private static BoxList copy(BoxList boxes) {
+        BoxList copy = new BoxList();
+        for (int i = 0; i < boxes.size(); i++) {
+            copy.add(boxes.left(i), boxes.top(i), boxes.right(i), boxes.bottom(i), boxes.score(i));
+            if (boxes.isDeleted(i)) copy.delete(i);
+        }
+        return copy;
+    }
+
+    /**
+     * Greedy NMS : boxes by descending score (ties by index), every kept box suppresses the
+     * following boxes it overlaps
+     */
+    private static boolean[] bruteForce(final BoxList boxes, float threshold, Nms.Method method) {
+        int n = boxes.size();
+        boolean[] deleted = new boolean[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+            deleted[i] = boxes.isDeleted(i);
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int c = Float.compare(boxes.score(b), boxes.score(a));
+                return c != 0 ? c : Integer.compare(a, b);
+            }
+        });
+        for (int o = 0; o < n; o++) {
+            int i = order[o];
+            if (deleted[i]) continue;
+            for (int p = o + 1; p < n; p++) {
+                int j = order[p];
+                if (deleted[j]) continue;
+                int ix1 = Math.max(boxes.left(i), boxes.left(j));
+                int iy1 = Math.max(boxes.top(i), boxes.top(j));
+                int ix2 = Math.min(boxes.right(i), boxes.right(j));
+                int iy2 = Math.min(boxes.bottom(i), boxes.bottom(j));
+                if (ix2 < ix1 || iy2 < iy1) continue;
+                int inter = (ix2 - ix1 + 1) * (iy2 - iy1 + 1);
+                int areaI = (boxes.right(i) - boxes.left(i) + 1) * (boxes.bottom(i) - boxes.top(i) + 1);
+                int areaJ = (boxes.right(j) - boxes.left(j) + 1) * (boxes.bottom(j) - boxes.top(j) + 1);
+                float iou = method == Nms.Method.UNION
+                        ? 1.0f * inter / (areaI + areaJ - inter)
+                        : 1.0f * inter / Math.min(areaI, areaJ);
+                if (iou >= threshold) deleted[j] = true;
+            }
+        }
+        return deleted;
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.facerecognitiontflite.mtcnn;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stitched pyramid parity with the per-scale pyramid
+ * pNet is replaced by a fully convolutional stand-in with the same 12x12 window and stride 2.
+ */
+public class PNetPyramidTest {
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final int MIN_FACE_SIZE = 24;
+    private static final float FACTOR = 0.709f;
+
+    @Test
+    public void stitchedLevelsDoNotOverlap() {
+        PNetPyramid pyramid = new PNetPyramid(WIDTH, HEIGHT, MIN_FACE_SIZE, FACTOR, true);
+        PNetPyramid.Level canvas = pyramid.canvas();
+        for (int i = 0; i < pyramid.size(); i++) {
+            PNetPyramid.Level a = pyramid.level(i);
+            assertEquals(0, a.offsetX % 2);
+            assertEquals(0, a.offsetY % 2);
+            assertTrue(a.offsetX + a.w <= canvas.w);
+            assertTrue(a.offsetY + a.h <= canvas.h);
+            assertTrue(a.offsetX / 2 + a.outW <= canvas.outW);
+            assertTrue(a.offsetY / 2 + a.outH <= canvas.outH);
+            for (int j = i + 1; j < pyramid.size(); j++) {
+                PNetPyramid.Level b = pyramid.level(j);
+                boolean apart = a.offsetX + a.w < b.offsetX || b.offsetX + b.w < a.offsetX
+                        || a.offsetY + a.h < b.offsetY || b.offsetY + b.h < a.offsetY;
+                assertTrue("levels " + i + " and " + j + " overlap", apart);
+            }
+        }
+    }
+
+    @Test
+    public void stitchedOutputsMatchPerScaleOutputs() {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        Random random = new Random(42);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+
+        PNetPyramid perScale = new PNetPyramid(WIDTH, HEIGHT, MIN_FACE_SIZE, FACTOR, false);
+        PNetPyramid stitched = new PNetPyramid(WIDTH, HEIGHT, MIN_FACE_SIZE, FACTOR, true);
+        perScale.build(pixels);
+        stitched.build(pixels);
+
+        for (int l = 0; l < perScale.size(); l++) {
+            fakePNet(perScale.level(l));
+        }
+        fakePNet(stitched.canvas());
+
+        assertEquals(perScale.size(), stitched.size());
+        for (int l = 0; l < perScale.size(); l++) {
+            PNetPyramid.Level expected = perScale.level(l);
+            PNetPyramid.Level actual = stitched.level(l);
+            assertEquals(expected.outW, actual.outW);
+            assertEquals(expected.outH, actual.outH);
+            for (int x = 0; x < expected.outW; x++) {
+                for (int y = 0; y < expected.outH; y++) {
+                    assertEquals(expected.score(x, y), actual.score(x, y), 0f);
+                    for (int k = 0; k < 4; k++) {
+                        assertEquals(expected.bbr(x, y, k), actual.bbr(x, y, k), 0f);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Window means of the input, reads outside the tensor are 0 like the gutters
+     */
+    private static void fakePNet(PNetPyramid.Level tensor) {
+        for (int ox = 0; ox < tensor.outW; ox++) {
+            for (int oy = 0; oy < tensor.outH; oy++) {
+                float[] sum = new float[3];
+                for (int x = ox * 2; x < ox * 2 + 12; x++) {
+                    for (int y = oy * 2; y < oy * 2 + 12; y++) {
+                        if (x >= tensor.w || y >= tensor.h) continue;
+                        for (int c = 0; c < 3; c++) {
+                            sum[c] += tensor.inputFloats.get((x * tensor.h + y) * 3 + c);
+                        }
+                    }
+                }
+                int cell = ox * tensor.outH + oy;
+                tensor.prob1Floats.put(cell * 2, -sum[0]);
+                tensor.prob1Floats.put(cell * 2 + 1, sum[0]);
+                for (int k = 0; k < 4; k++) {
+                    tensor.conv4_2_BiasAddFloats.put(cell * 4 + k, sum[k % 3] * (k + 1));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.facerecognitiontflite.verification;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Single picture against streaming decisions on simulated sessions
+ * Frame scores are gaussian around the mean of the session : genuine users, impostors and spoof
+ * attacks. A wrong decision on a genuine user costs a retry, i.e. a new liveness round trip of
+ * RETRY_FRAMES frames, the time-to-verify is counted in frames until the user is verified.
+ * Skipped by default, run with : ./gradlew testDebugUnitTest -Dbenchmark=true
+ */
+public class StreamingVerifierBenchmark {
+    private static final float SPOOF_THRESHOLD = 0.2f;
+    private static final float DISTANCE_THRESHOLD = 0.3f;
+    private static final float SIGMA = 0.08f;
+    private static final int RETRY_FRAMES = 60;
+    private static final int SESSIONS = 20_000;
+
+    private interface Policy {
+        StreamingVerifier.Decision decide(Random random, float spoofMean, float distanceMean, int[] frames);
+    }
+
+    @Test
+    public void timeToVerifyAndErrors() {
+        Assume.assumeTrue("benchmark disabled", Boolean.getBoolean("benchmark"));
+        report("single frame", new Policy() {
+            @Override
+            public StreamingVerifier.Decision decide(Random random, float spoofMean, float distanceMean, int[] frames) {
+                frames[0] = 1;
+                float spoof = sample(random, spoofMean);
+                if (spoof > SPOOF_THRESHOLD) return StreamingVerifier.Decision.SPOOF;
+                return sample(random, distanceMean) <= DISTANCE_THRESHOLD
+                        ? StreamingVerifier.Decision.VERIFIED : StreamingVerifier.Decision.NOT_VERIFIED;
+            }
+        });
+        for (int capacity : new int[]{4, 8}) {
+            for (float z : new float[]{1.0f, 1.645f, 2.33f}) {
+                final StreamingVerifier verifier = new StreamingVerifier(capacity);
+                verifier.setThresholds(SPOOF_THRESHOLD, DISTANCE_THRESHOLD);
+                verifier.setConfidence(z);
+                report(String.format(Locale.US, "streaming capacity=%d z=%.2f", capacity, z), new Policy() {
+                    @Override
+                    public StreamingVerifier.Decision decide(Random random, float spoofMean, float distanceMean, int[] frames) {
+                        verifier.reset();
+                        StreamingVerifier.Decision decision;
+                        do {
+                            decision = verifier.add(sample(random, spoofMean), sample(random, distanceMean));
+                        } while (decision == StreamingVerifier.Decision.PENDING);
+                        frames[0] = verifier.frames();
+                        return decision;
+                    }
+                });
+            }
+        }
+    }
+
+    private static void report(String name, Policy policy) {
+        Random random = new Random(42);
+        int[] frames = new int[1];
+
+        // Genuine users, retried until verified
+        int[] timeToVerify = new int[SESSIONS];
+        int retries = 0;
+        for (int s = 0; s < SESSIONS; s++) {
+            float spoofMean = 0.05f + 0.1f * random.nextFloat();
+            float distanceMean = 0.12f + 0.15f * random.nextFloat();
+            int total = 0;
+            while (true) {
+                StreamingVerifier.Decision decision = policy.decide(random, spoofMean, distanceMean, frames);
+                total += frames[0];
+                if (decision == StreamingVerifier.Decision.VERIFIED) break;
+                retries++;
+                total += RETRY_FRAMES;
+            }
+            timeToVerify[s] = total;
+        }
+        Arrays.sort(timeToVerify);
+
+        // Impostors and spoof attacks, one attempt each
+        int impostorsAccepted = 0, spoofsAccepted = 0;
+        for (int s = 0; s < SESSIONS; s++) {
+            if (policy.decide(random, 0.05f + 0.1f * random.nextFloat(), 0.33f + 0.2f * random.nextFloat(), frames)
+                    == StreamingVerifier.Decision.VERIFIED) impostorsAccepted++;
+            if (policy.decide(random, 0.25f + 0.3f * random.nextFloat(), 0.12f + 0.15f * random.nextFloat(), frames)
+                    == StreamingVerifier.Decision.VERIFIED) spoofsAccepted++;
+        }
+        System.out.println(String.format(Locale.US,
+                "%-32s genuine retries=%.3f/session time-to-verify median=%d p90=%d frames, impostors accepted=%.4f spoofs accepted=%.4f",
+                name, (double) retries / SESSIONS, timeToVerify[SESSIONS / 2], timeToVerify[SESSIONS * 9 / 10],
+                (double) impostorsAccepted / SESSIONS, (double) spoofsAccepted / SESSIONS));
+    }
+
+    private static float sample(Random random, float mean) {
+        return Math.max(0, mean + SIGMA * (float) random.nextGaussian());
+    }
+}
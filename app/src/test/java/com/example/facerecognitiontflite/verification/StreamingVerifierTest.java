@@ -0,0 +1,85 @@
+package com.example.facerecognitiontflite.verification;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Decisions of the StreamingVerifier on hand-made frame streams
+ */
+public class StreamingVerifierTest {
+    private static final float NONE = Float.NaN;
+
+    private static StreamingVerifier verifier() {
+        StreamingVerifier verifier = new StreamingVerifier(4);
+        verifier.setThresholds(0.2f, 0.4f);
+        verifier.setFrames(2, 6);
+        return verifier;
+    }
+
+    @Test
+    public void clearFramesDecideAtMinFrames() {
+        StreamingVerifier verifier = verifier();
+        Assert.assertEquals(StreamingVerifier.Decision.PENDING, verifier.add(0.01f, 0.20f));
+        Assert.assertEquals(StreamingVerifier.Decision.VERIFIED, verifier.add(0.02f, 0.22f));
+        Assert.assertEquals(2, verifier.frames());
+
+        verifier.reset();
+        verifier.add(0.02f, 0.70f);
+        Assert.assertEquals(StreamingVerifier.Decision.NOT_VERIFIED, verifier.add(0.01f, 0.75f));
+
+        verifier.reset();
+        verifier.add(0.60f, NONE);
+        Assert.assertEquals(StreamingVerifier.Decision.SPOOF, verifier.add(0.70f, NONE));
+    }
+
+    @Test
+    public void decisionIsKeptUntilReset() {
+        StreamingVerifier verifier = verifier();
+        verifier.add(0.60f, NONE);
+        verifier.add(0.70f, NONE);
+        Assert.assertEquals(StreamingVerifier.Decision.SPOOF, verifier.add(0.01f, 0.10f));
+        Assert.assertEquals(2, verifier.frames());
+        verifier.reset();
+        Assert.assertEquals(StreamingVerifier.Decision.PENDING, verifier.decision());
+    }
+
+    @Test
+    public void ambiguousFramesWaitThenMeansDecide() {
+        StreamingVerifier verifier = verifier();
+        float[] distances = {0.35f, 0.45f, 0.36f, 0.44f, 0.37f};
+        for (float distance : distances) {
+            Assert.assertEquals(StreamingVerifier.Decision.PENDING, verifier.add(0.01f, distance));
+        }
+        // Mean of the last 4 frames 0.39 <= 0.4
+        Assert.assertEquals(StreamingVerifier.Decision.VERIFIED, verifier.add(0.01f, 0.39f));
+        Assert.assertEquals(6, verifier.frames());
+        Assert.assertEquals((0.36f + 0.44f + 0.37f + 0.39f) / 4, verifier.meanDistance(), 1e-6f);
+    }
+
+    @Test
+    public void uncertainSpoofDelaysTheIdentity() {
+        StreamingVerifier verifier = verifier();
+        Assert.assertEquals(StreamingVerifier.Decision.PENDING, verifier.add(0.15f, 0.10f));
+        Assert.assertEquals(StreamingVerifier.Decision.PENDING, verifier.add(0.25f, 0.10f));
+        Assert.assertEquals(0.2f, verifier.meanSpoofScore(), 1e-6f);
+    }
+
+    @Test
+    public void framesWithoutSpoofScoreOnlyDecideTheIdentity() {
+        StreamingVerifier verifier = verifier();
+        verifier.add(NONE, 0.10f);
+        Assert.assertEquals(StreamingVerifier.Decision.VERIFIED, verifier.add(NONE, 0.12f));
+        Assert.assertTrue(Float.isNaN(verifier.meanSpoofScore()));
+    }
+
+    @Test
+    public void oldFramesLeaveTheWindow() {
+        StreamingVerifier verifier = verifier();
+        verifier.setFrames(100, 100);
+        verifier.add(NONE, 0.90f);
+        for (int i = 0; i < 3; i++) verifier.add(NONE, 0.10f + i * 0.01f);
+        Assert.assertEquals((0.90f + 0.10f + 0.11f + 0.12f) / 4, verifier.meanDistance(), 1e-6f);
+        verifier.add(NONE, 0.13f);
+        Assert.assertEquals((0.10f + 0.11f + 0.12f + 0.13f) / 4, verifier.meanDistance(), 1e-6f);
+    }
+}
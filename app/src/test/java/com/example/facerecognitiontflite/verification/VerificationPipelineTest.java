@@ -0,0 +1,203 @@
+package com.example.facerecognitiontflite.verification;
+
+import android.graphics.Bitmap;
+
+import com.example.facerecognitiontflite.AlignedFace;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * VerificationPipeline with fake stages, the frames are the distances to return and the callback
+ * executor is a queue drained by the test thread in place of the main thread
+ */
+public class VerificationPipelineTest {
+    private static final float SPOOF = -1;
+    private static final float NO_FACE = -2;
+
+    private final AlignedFace face = new AlignedFace((Bitmap) null, null, null);
+    private final LinkedBlockingQueue<Runnable> mainQueue = new LinkedBlockingQueue<>();
+    private final Executor main = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mainQueue.add(command);
+        }
+    };
+    private final List<VerificationPipeline.Result> results = new ArrayList<>();
+    private final List<Exception> errors = new ArrayList<>();
+    private final VerificationPipeline.Callback callback = new VerificationPipeline.Callback() {
+        @Override
+        public void onResult(VerificationPipeline.Result result) {
+            results.add(result);
+        }
+
+        @Override
+        public void onError(Exception e) {
+            errors.add(e);
+        }
+    };
+
+    private final AtomicInteger detected = new AtomicInteger();
+    private final AtomicInteger cancelled = new AtomicInteger();
+    private volatile CountDownLatch detectStarted = new CountDownLatch(0);
+    private volatile CountDownLatch detectGate = new CountDownLatch(0);
+    private float currentFrame;
+
+    private final VerificationPipeline<Float> pipeline = new VerificationPipeline<>(
+            new VerificationPipeline.Detector<Float>() {
+                @Override
+                public AlignedFace detect(Float frame) {
+                    detected.incrementAndGet();
+                    detectStarted.countDown();
+                    try {
+                        detectGate.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    currentFrame = frame;
+                    return frame == NO_FACE ? null : face;
+                }
+            },
+            new VerificationPipeline.Verifier() {
+                @Override
+                public ConcurrentVerifier.Result verify(AlignedFace face) {
+                    if (Float.isNaN(currentFrame)) throw new IllegalStateException("model error");
+                    ConcurrentVerifier.Result result = new ConcurrentVerifier.Result();
+                    result.spoof = currentFrame == SPOOF;
+                    result.spoofScore = result.spoof ? 0.9f : 0.01f;
+                    result.embedding = result.spoof ? null : new float[]{currentFrame};
+                    return result;
+                }
+            },
+            new VerificationPipeline.Matcher() {
+                @Override
+                public float distance(float[] embedding) {
+                    return embedding[0];
+                }
+            },
+            main);
+
+    @After
+    public void shutdown() {
+        pipeline.shutdown();
+    }
+
+    /**
+     * Run the callbacks posted to the main queue until count results or errors arrived
+     */
+    private void drain(int count) throws InterruptedException {
+        while (results.size() + errors.size() < count) {
+            Runnable runnable = mainQueue.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull("callback not posted", runnable);
+            runnable.run();
+        }
+        Runnable runnable;
+        while ((runnable = mainQueue.poll(50, TimeUnit.MILLISECONDS)) != null) runnable.run();
+    }
+
+    @Test
+    public void resultsArePostedToTheCallbackExecutor() throws Exception {
+        pipeline.setThreshold(0.3f);
+        Future<VerificationPipeline.Result> future = pipeline.submit(0.1f, callback);
+        VerificationPipeline.Result result = future.get(5, TimeUnit.SECONDS);
+        Assert.assertTrue(results.isEmpty());       // not delivered until the main queue runs
+        drain(1);
+        Assert.assertSame(result, results.get(0));
+        Assert.assertEquals(VerificationPipeline.Status.VERIFIED, result.status);
+        Assert.assertEquals(0.1f, result.distance, 0);
+        Assert.assertSame(face, result.face);
+    }
+
+    @Test
+    public void everyStatus() throws Exception {
+        pipeline.setThreshold(0.3f);
+        float[] frames = {0.1f, 0.5f, SPOOF, NO_FACE};
+        VerificationPipeline.Status[] expected = {VerificationPipeline.Status.VERIFIED,
+                VerificationPipeline.Status.NOT_VERIFIED, VerificationPipeline.Status.SPOOF,
+                VerificationPipeline.Status.NO_FACE};
+        for (int i = 0; i < frames.length; i++) {
+            pipeline.submit(frames[i], callback).get(5, TimeUnit.SECONDS);
+            drain(i + 1);
+            Assert.assertEquals(expected[i], results.get(i).status);
+        }
+        Assert.assertNull(results.get(3).verification);
+        Assert.assertTrue(Float.isNaN(results.get(2).distance));
+    }
+
+    @Test
+    public void thresholdIsReadWhenTheFrameIsSubmitted() throws Exception {
+        detectStarted = new CountDownLatch(1);
+        detectGate = new CountDownLatch(1);
+        pipeline.setThreshold(0.4f);
+        Future<VerificationPipeline.Result> future = pipeline.submit(0.35f, callback);
+        Assert.assertTrue(detectStarted.await(5, TimeUnit.SECONDS));
+
+        // Changed while the request runs, applies to the next one only
+        pipeline.setThreshold(0.3f);
+        detectGate.countDown();
+        Assert.assertEquals(VerificationPipeline.Status.VERIFIED, future.get(5, TimeUnit.SECONDS).status);
+        Assert.assertEquals(VerificationPipeline.Status.NOT_VERIFIED,
+                pipeline.submit(0.35f, callback).get(5, TimeUnit.SECONDS).status);
+    }
+
+    @Test
+    public void newerFrameCancelsTheRequestInFlight() throws Exception {
+        pipeline.setOnCancel(new Runnable() {
+            @Override
+            public void run() {
+                cancelled.incrementAndGet();
+            }
+        });
+        detectStarted = new CountDownLatch(1);
+        detectGate = new CountDownLatch(1);
+        Future<VerificationPipeline.Result> first = pipeline.submit(0.1f, callback);
+        Assert.assertTrue(detectStarted.await(5, TimeUnit.SECONDS));
+
+        // Second frame queued behind the running one, third frame replaces it before it starts
+        Future<VerificationPipeline.Result> second = pipeline.submit(0.2f, callback);
+        Future<VerificationPipeline.Result> third = pipeline.submit(0.5f, callback);
+        detectGate.countDown();
+
+        Assert.assertEquals(0.5f, third.get(5, TimeUnit.SECONDS).distance, 0);
+        drain(1);
+        Assert.assertEquals(1, results.size());
+        Assert.assertEquals(0.5f, results.get(0).distance, 0);
+        Assert.assertTrue(first.isCancelled());
+        Assert.assertTrue(second.isCancelled());
+        Assert.assertEquals(2, detected.get());     // the second frame never ran
+        Assert.assertEquals(2, cancelled.get());
+        try {
+            first.get();
+            Assert.fail();
+        } catch (CancellationException expected) {
+        }
+    }
+
+    @Test
+    public void resultOfAFrameReplacedBeforeDeliveryIsDropped() throws Exception {
+        pipeline.submit(0.1f, callback).get(5, TimeUnit.SECONDS);
+        pipeline.submit(0.2f, callback).get(5, TimeUnit.SECONDS);
+        drain(1);
+        Assert.assertEquals(1, results.size());
+        Assert.assertEquals(0.2f, results.get(0).distance, 0);
+    }
+
+    @Test
+    public void stageErrorsArePostedToOnError() throws Exception {
+        pipeline.submit(Float.NaN, callback);
+        drain(1);
+        Assert.assertTrue(results.isEmpty());
+        Assert.assertEquals("model error", errors.get(0).getMessage());
+    }
+}